@@ -0,0 +1,91 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.benchmark;
+
+import org.blockedit.core.block.Block;
+import org.blockedit.core.output.BlockStorageFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing and reading .blk files through {@link BlockStorageFormat}. Note that
+ * {@link BlockStorageFormat#readBlock(File)} also copies the file into the blocks folder of the
+ * working directory.
+ *
+ * @author Jeff Chen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockStorageBenchmark {
+
+    private final BlockStorageFormat format = new BlockStorageFormat();
+    private File directory;
+    private File written;
+    private File scratch;
+    private Block block;
+
+    @Setup
+    public void setup() throws Exception {
+        this.directory = Files.createTempDirectory("blockedit-bench").toFile();
+        Block.BlockData[] dataValues = new Block.BlockData[16];
+        for (int i = 0; i < dataValues.length; i++) {
+            dataValues[i] = new Block.BlockData.Builder().data(i).image(new File(this.directory, "block-" + i + ".png")).build();
+        }
+        this.block = new Block.Builder().id(4000).blockName("benchmark_block").blockDisplayName("Benchmark Block").blockDataValues(dataValues).build();
+        this.written = new File(this.directory, "read.blk");
+        this.scratch = new File(this.directory, "write.blk");
+        this.format.writeBlock(this.written, this.block);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.written.delete();
+        this.scratch.delete();
+        this.directory.delete();
+    }
+
+    @Benchmark
+    public File writeBlock() throws Exception {
+        this.format.writeBlock(this.scratch, this.block);
+        return this.scratch;
+    }
+
+    @Benchmark
+    public Optional<Block> readBlock() throws Exception {
+        return this.format.readBlock(this.written);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.benchmark;
+
+import org.blockedit.core.MalformedWorldException;
+import org.blockedit.core.world.Chunk;
+import org.blockedit.core.world.RegionFile;
+import org.jnbt.CompoundTag;
+import org.jnbt.NBTUtils;
+import org.jnbt.NBTVisitor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Measures reading chunks out of a generated region file, fully and partially.
+ *
+ * @author Jeff Chen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkDecodeBenchmark {
+
+    private static final int CHUNKS = 64;
+    private static final Predicate<String> SECTIONS_AND_BIOMES = NBTUtils.pathFilter("Level/Sections", "Level/Biomes");
+
+    private File directory;
+    private RegionFile region;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException, MalformedWorldException {
+        this.directory = Files.createTempDirectory("blockedit-bench").toFile();
+        File file = new File(this.directory, "r.0.0.mca");
+        Fixtures.writeRegion(file, 0, 0, CHUNKS);
+        this.region = new RegionFile(file);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.region.close();
+        new File(this.directory, "r.0.0.mca").delete();
+        this.directory.delete();
+    }
+
+    @Benchmark
+    public Optional<Chunk> readChunk() throws IOException, MalformedWorldException {
+        int i = nextChunk();
+        return this.region.readChunk(i & 31, i >> 5);
+    }
+
+    @Benchmark
+    public Optional<CompoundTag> readSectionsAndBiomes() throws IOException, MalformedWorldException {
+        int i = nextChunk();
+        return this.region.readChunkTag(i & 31, i >> 5, SECTIONS_AND_BIOMES);
+    }
+
+    @Benchmark
+    public long visitLastUpdate() throws IOException, MalformedWorldException {
+        int i = nextChunk();
+        long[] lastUpdate = new long[1];
+        this.region.acceptChunk(i & 31, i >> 5, new NBTVisitor() {
+
+            @Override
+            public boolean visitTag(int type, String name) {
+                return !name.equals("Sections") && !name.equals("Entities") && !name.equals("TileEntities");
+            }
+
+            @Override
+            public void longValue(String name, long value) {
+                if (name.equals("LastUpdate")) {
+                    lastUpdate[0] = value;
+                }
+            }
+        });
+        return lastUpdate[0];
+    }
+
+    private int nextChunk() {
+        this.next = (this.next + 1) % CHUNKS;
+        return this.next;
+    }
+}
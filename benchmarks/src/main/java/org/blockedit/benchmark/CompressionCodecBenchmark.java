@@ -0,0 +1,115 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.benchmark;
+
+import org.jnbt.CompressionCodec;
+import org.jnbt.CompressionCodecs;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link CompressionCodec}s on the encoded NBT of a fully populated chunk. The
+ * compressed size of each codec is reported by JMH as the <code>compressedBytes</code> counter of
+ * {@link #compress(Sizes)}.
+ *
+ * @author Jeff Chen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionCodecBenchmark {
+
+    @Param({"raw", "lz4", "zlib-1", "zlib-6", "gzip-6"})
+    public String codecName;
+
+    private CompressionCodec codec;
+    private byte[] raw;
+    private byte[] compressed;
+    private byte[] buffer = new byte[8192];
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setup() throws IOException {
+        if (this.codecName.startsWith("zlib-")) {
+            this.codec = CompressionCodecs.zlib(Integer.parseInt(this.codecName.substring(5)), CompressionCodecs.DEFAULT_BUFFER_SIZE);
+        } else if (this.codecName.startsWith("gzip-")) {
+            this.codec = CompressionCodecs.gzip(Integer.parseInt(this.codecName.substring(5)), CompressionCodecs.DEFAULT_BUFFER_SIZE);
+        } else {
+            this.codec = CompressionCodecs.byName(this.codecName).get();
+        }
+        this.raw = Fixtures.encode(Fixtures.chunk(0, 0));
+        this.out = new ByteArrayOutputStream(this.raw.length);
+        compress(new Sizes());
+        this.compressed = this.out.toByteArray();
+    }
+
+    @Benchmark
+    public int compress(Sizes sizes) throws IOException {
+        this.out.reset();
+        try (OutputStream stream = this.codec.compress(this.out)) {
+            stream.write(this.raw);
+        }
+        sizes.rawBytes = this.raw.length;
+        sizes.compressedBytes = this.out.size();
+        return this.out.size();
+    }
+
+    @Benchmark
+    public int decompress() throws IOException {
+        int total = 0;
+        try (InputStream stream = this.codec.decompress(new ByteArrayInputStream(this.compressed))) {
+            int read;
+            while ((read = stream.read(this.buffer)) > 0) {
+                total += read;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * The size of the chunk before and after compression, reported next to the throughput.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Sizes {
+
+        public long rawBytes;
+        public long compressedBytes;
+    }
+}
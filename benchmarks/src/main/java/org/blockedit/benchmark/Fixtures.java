@@ -0,0 +1,300 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.benchmark;
+
+import org.jnbt.ByteArrayTag;
+import org.jnbt.ByteTag;
+import org.jnbt.CompoundTag;
+import org.jnbt.DoubleTag;
+import org.jnbt.FloatTag;
+import org.jnbt.IntArrayTag;
+import org.jnbt.IntTag;
+import org.jnbt.ListTag;
+import org.jnbt.LongTag;
+import org.jnbt.NBTOutputStream;
+import org.jnbt.ShortTag;
+import org.jnbt.StringTag;
+import org.jnbt.Tag;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Generates the synthetic NBT trees and files used by the benchmarks, so no real Minecraft saves
+ * are needed. Every fixture is derived from a fixed seed and is identical between runs.
+ *
+ * @author Jeff Chen
+ */
+final class Fixtures {
+
+    static final long SEED = 0x5EEDL;
+
+    private Fixtures() {
+    }
+
+    /**
+     * Create a tree shaped like a level.dat file.
+     *
+     * @return Returns the root tag
+     */
+    static CompoundTag levelData() {
+        Random random = new Random(SEED);
+        Map<String, Tag> data = new LinkedHashMap<>();
+        put(data, new LongTag("RandomSeed", random.nextLong()));
+        put(data, new StringTag("generatorName", "default"));
+        put(data, new IntTag("generatorVersion", 1));
+        put(data, new StringTag("generatorOptions", ""));
+        put(data, new StringTag("LevelName", "Benchmark World"));
+        put(data, new IntTag("version", 19133));
+        put(data, new LongTag("Time", random.nextInt(1 << 24)));
+        put(data, new LongTag("DayTime", random.nextInt(24000)));
+        put(data, new LongTag("LastPlayed", 1446000000000L));
+        put(data, new IntTag("SpawnX", random.nextInt(512)));
+        put(data, new IntTag("SpawnY", 64));
+        put(data, new IntTag("SpawnZ", random.nextInt(512)));
+        put(data, new IntTag("GameType", 1));
+        put(data, new ByteTag("hardcore", (byte) 0));
+        put(data, new ByteTag("allowCommands", (byte) 1));
+        put(data, new ByteTag("MapFeatures", (byte) 1));
+        put(data, new ByteTag("raining", (byte) 0));
+        put(data, new IntTag("rainTime", random.nextInt(100000)));
+        put(data, new ByteTag("thundering", (byte) 0));
+        put(data, new IntTag("thunderTime", random.nextInt(100000)));
+        put(data, new DoubleTag("BorderCenterX", 0));
+        put(data, new DoubleTag("BorderCenterZ", 0));
+        put(data, new DoubleTag("BorderSize", 6.0E7));
+
+        Map<String, Tag> rules = new LinkedHashMap<>();
+        String[] names = {"commandBlockOutput", "doDaylightCycle", "doEntityDrops", "doFireTick", "doMobLoot", "doMobSpawning", "doTileDrops", "keepInventory", "logAdminCommands", "mobGriefing", "naturalRegeneration", "reducedDebugInfo", "sendCommandFeedback", "showDeathMessages"};
+        for (String name : names) {
+            put(rules, new StringTag(name, random.nextBoolean() ? "true" : "false"));
+        }
+        put(rules, new StringTag("randomTickSpeed", "3"));
+        put(data, new CompoundTag("GameRules", rules));
+
+        Map<String, Tag> version = new LinkedHashMap<>();
+        put(version, new IntTag("Id", 169));
+        put(version, new StringTag("Name", "1.8.8"));
+        put(version, new ByteTag("Snapshot", (byte) 0));
+        put(data, new CompoundTag("Version", version));
+
+        Map<String, Tag> player = new LinkedHashMap<>();
+        put(player, new ListTag("Pos", DoubleTag.class, doubles(random, 3)));
+        put(player, new ListTag("Motion", DoubleTag.class, doubles(random, 3)));
+        List<Tag> rotation = new ArrayList<>();
+        rotation.add(new FloatTag("", random.nextFloat() * 360));
+        rotation.add(new FloatTag("", random.nextFloat() * 180 - 90));
+        put(player, new ListTag("Rotation", FloatTag.class, rotation));
+        put(player, new ShortTag("Health", (short) 20));
+        put(player, new IntTag("XpLevel", random.nextInt(30)));
+        List<Tag> inventory = new ArrayList<>();
+        for (int slot = 0; slot < 36; slot++) {
+            inventory.add(item(random, slot));
+        }
+        put(player, new ListTag("Inventory", CompoundTag.class, inventory));
+        put(data, new CompoundTag("Player", player));
+
+        Map<String, Tag> root = new LinkedHashMap<>();
+        put(root, new CompoundTag("Data", data));
+        return new CompoundTag("", root);
+    }
+
+    /**
+     * Create a tree shaped like a fully populated Anvil chunk: 16 sections of random blocks and a
+     * few dozen entities and tile entities.
+     *
+     * @param x The chunk x coordinate
+     * @param z The chunk z coordinate
+     * @return Returns the root tag
+     */
+    static CompoundTag chunk(int x, int z) {
+        Random random = new Random(SEED ^ ((long) x << 32) ^ z);
+        Map<String, Tag> level = new LinkedHashMap<>();
+        put(level, new IntTag("xPos", x));
+        put(level, new IntTag("zPos", z));
+        put(level, new LongTag("LastUpdate", random.nextInt(1 << 20)));
+        put(level, new ByteTag("LightPopulated", (byte) 1));
+        put(level, new ByteTag("TerrainPopulated", (byte) 1));
+        put(level, new LongTag("InhabitedTime", random.nextInt(1 << 16)));
+        put(level, new ByteArrayTag("Biomes", bytes(random, 256, 40)));
+        int[] heightMap = new int[256];
+        for (int i = 0; i < heightMap.length; i++) {
+            heightMap[i] = 60 + random.nextInt(20);
+        }
+        put(level, new IntArrayTag("HeightMap", heightMap));
+
+        List<Tag> sections = new ArrayList<>();
+        for (int y = 0; y < 16; y++) {
+            sections.add(section((byte) y, random));
+        }
+        put(level, new ListTag("Sections", CompoundTag.class, sections));
+
+        List<Tag> entities = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            Map<String, Tag> entity = new LinkedHashMap<>();
+            put(entity, new StringTag("id", random.nextBoolean() ? "Zombie" : "Item"));
+            put(entity, new ListTag("Pos", DoubleTag.class, doubles(random, 3)));
+            put(entity, new ListTag("Motion", DoubleTag.class, doubles(random, 3)));
+            put(entity, new ShortTag("Health", (short) random.nextInt(20)));
+            put(entity, new CompoundTag("Item", item(random, 0).getValue()));
+            entities.add(new CompoundTag("", entity));
+        }
+        put(level, new ListTag("Entities", CompoundTag.class, entities));
+
+        List<Tag> tileEntities = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Map<String, Tag> tileEntity = new LinkedHashMap<>();
+            put(tileEntity, new StringTag("id", "Chest"));
+            put(tileEntity, new IntTag("x", x * 16 + random.nextInt(16)));
+            put(tileEntity, new IntTag("y", random.nextInt(256)));
+            put(tileEntity, new IntTag("z", z * 16 + random.nextInt(16)));
+            List<Tag> items = new ArrayList<>();
+            for (int slot = 0; slot < 27; slot++) {
+                items.add(item(random, slot));
+            }
+            put(tileEntity, new ListTag("Items", CompoundTag.class, items));
+            tileEntities.add(new CompoundTag("", tileEntity));
+        }
+        put(level, new ListTag("TileEntities", CompoundTag.class, tileEntities));
+
+        Map<String, Tag> root = new LinkedHashMap<>();
+        put(root, new CompoundTag("Level", level));
+        return new CompoundTag("", root);
+    }
+
+    /**
+     * Create the tag of one chunk section filled with random blocks.
+     *
+     * @param y      The section height
+     * @param random The random source
+     * @return Returns the section tag
+     */
+    static CompoundTag section(byte y, Random random) {
+        Map<String, Tag> section = new LinkedHashMap<>();
+        put(section, new ByteTag("Y", y));
+        put(section, new ByteArrayTag("Blocks", bytes(random, 4096, 64)));
+        put(section, new ByteArrayTag("Data", bytes(random, 2048, 256)));
+        put(section, new ByteArrayTag("BlockLight", bytes(random, 2048, 256)));
+        put(section, new ByteArrayTag("SkyLight", bytes(random, 2048, 256)));
+        return new CompoundTag("", section);
+    }
+
+    /**
+     * Create a byte array of random values below a bound.
+     *
+     * @param random The random source
+     * @param length The array length
+     * @param bound  The exclusive upper bound of the values
+     * @return Returns the array
+     */
+    static byte[] bytes(Random random, int length, int bound) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) random.nextInt(bound);
+        }
+        return bytes;
+    }
+
+    /**
+     * Encode a tag as uncompressed NBT.
+     *
+     * @param tag The tag
+     * @return Returns the encoded bytes
+     * @throws IOException This should never be thrown
+     */
+    static byte[] encode(Tag tag) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (NBTOutputStream stream = new NBTOutputStream(out, false)) {
+            stream.writeTag(tag);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Write an Anvil region file holding generated chunks.
+     *
+     * @param file    The destination, named r.x.z.mca
+     * @param regionX The region x coordinate
+     * @param regionZ The region z coordinate
+     * @param chunks  The number of chunks to write, up to 1024
+     * @throws IOException If the file could not be written
+     */
+    static void writeRegion(File file, int regionX, int regionZ, int chunks) throws IOException {
+        int[] offsets = new int[1024];
+        ByteArrayOutputStream sectors = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(sectors);
+        int sector = 2;
+        for (int i = 0; i < chunks; i++) {
+            int x = i & 31;
+            int z = i >> 5;
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (NBTOutputStream stream = new NBTOutputStream(new DeflaterOutputStream(compressed), false)) {
+                stream.writeTag(chunk(regionX * 32 + x, regionZ * 32 + z));
+            }
+            byte[] payload = compressed.toByteArray();
+            int length = payload.length + 1;
+            int count = (length + 4 + 4095) / 4096;
+            body.writeInt(length);
+            body.writeByte(2);
+            body.write(payload);
+            body.write(new byte[count * 4096 - length - 4]);
+            offsets[x + z * 32] = (sector << 8) | count;
+            sector += count;
+        }
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            for (int offset : offsets) {
+                out.writeInt(offset);
+            }
+            for (int offset : offsets) {
+                out.writeInt(offset == 0 ? 0 : 1446000000);
+            }
+            sectors.writeTo(out);
+        }
+    }
+
+    private static CompoundTag item(Random random, int slot) {
+        Map<String, Tag> item = new LinkedHashMap<>();
+        put(item, new ByteTag("Slot", (byte) slot));
+        put(item, new StringTag("id", "minecraft:stone"));
+        put(item, new ByteTag("Count", (byte) (1 + random.nextInt(64))));
+        put(item, new ShortTag("Damage", (short) random.nextInt(16)));
+        return new CompoundTag("", item);
+    }
+
+    private static List<Tag> doubles(Random random, int count) {
+        List<Tag> values = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            values.add(new DoubleTag("", random.nextDouble() * 1000));
+        }
+        return values;
+    }
+
+    private static void put(Map<String, Tag> map, Tag tag) {
+        map.put(tag.getName(), tag);
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+package org.blockedit.benchmark;
+
+import org.blockedit.core.block.LightProperties;
+import org.blockedit.core.world.Chunk;
+import org.blockedit.core.world.Dimension;
+import org.blockedit.core.world.LightEngine;
+import org.blockedit.core.world.World;
+import org.blockedit.exception.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures incremental relighting by {@link LightEngine}, toggling a light source and relighting
+ * after each toggle. The world spans 13 by 13 chunks, so edits fall into tiles of every phase.
+ * <p>The light is checked against a brute force fixpoint computed from scratch, after the full
+ * relight and a batch of mixed edits in the setup and again after the measurements, so the
+ * benchmark fails if the engine ever leaves wrong light behind.</p>
+ *
+ * @author Jeff Chen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LightEngineBenchmark {
+
+    private static final int MIN_CHUNK = -2;
+    private static final int CHUNKS = 13;
+    private static final int SIZE = CHUNKS * 16;
+    private static final int MIN_BLOCK = MIN_CHUNK * 16;
+    private static final int STONE = 1;
+    private static final int LEAVES = 18;
+    private static final int GLOWSTONE = 89;
+    private static final int TORCH = 50;
+
+    private final LightProperties properties = LightProperties.vanilla();
+    private final Random random = new Random(42);
+    private World world;
+    private LightEngine engine;
+
+    @Setup
+    public void setup() throws ParseException {
+        World.Builder builder = new World.Builder();
+        for (int x = 0; x < CHUNKS; x++) {
+            for (int z = 0; z < CHUNKS; z++) {
+                builder.addChunk(Dimension.OVERWORLD, new Chunk.Builder().xPos(MIN_CHUNK + x).zPos(MIN_CHUNK + z).build());
+            }
+        }
+        this.world = builder.build();
+        for (int x = 0; x < SIZE; x++) {
+            for (int z = 0; z < SIZE; z++) {
+                for (int y = 0; y < 60; y++) {
+                    setBlock(x, y, z, STONE);
+                }
+            }
+        }
+        for (int i = 0; i < 20000; i++) {
+            setBlock(this.random.nextInt(SIZE), 20 + this.random.nextInt(40), this.random.nextInt(SIZE), 0);
+        }
+        for (int i = 0; i < 2000; i++) {
+            setBlock(this.random.nextInt(SIZE), 60 + this.random.nextInt(20), this.random.nextInt(SIZE), LEAVES);
+        }
+        for (int i = 0; i < 300; i++) {
+            setBlock(this.random.nextInt(SIZE), 20 + this.random.nextInt(40), this.random.nextInt(SIZE), GLOWSTONE);
+        }
+        this.engine = new LightEngine(this.world);
+        LightEngine.Batch batch = this.engine.batch(Dimension.OVERWORLD);
+        for (int x = 0; x < CHUNKS; x++) {
+            for (int z = 0; z < CHUNKS; z++) {
+                batch.chunkChanged(MIN_CHUNK + x, MIN_CHUNK + z);
+            }
+        }
+        batch.apply();
+        verify();
+
+        for (int x = 40; x < 120; x++) {
+            for (int z = 40; z < 120; z++) {
+                setBlock(x, 90, z, STONE);
+                batch.blockChanged(MIN_BLOCK + x, 90, MIN_BLOCK + z);
+            }
+        }
+        for (int i = 0; i < 2000; i++) {
+            int x = this.random.nextInt(SIZE);
+            int y = this.random.nextInt(100);
+            int z = this.random.nextInt(SIZE);
+            int choice = this.random.nextInt(3);
+            setBlock(x, y, z, choice == 0 ? STONE : choice == 1 ? TORCH : 0);
+            batch.blockChanged(MIN_BLOCK + x, y, MIN_BLOCK + z);
+        }
+        batch.apply();
+        verify();
+    }
+
+    @TearDown
+    public void tearDown() {
+        verify();
+    }
+
+    @Benchmark
+    public int toggleLight() {
+        int x = this.random.nextInt(SIZE);
+        int y = 1 + this.random.nextInt(100);
+        int z = this.random.nextInt(SIZE);
+        int state = this.world.getBlockState(Dimension.OVERWORLD, MIN_BLOCK + x, y, MIN_BLOCK + z);
+        setBlock(x, y, z, state >> 4 == GLOWSTONE ? 0 : GLOWSTONE);
+        LightEngine.Batch batch = this.engine.batch(Dimension.OVERWORLD).blockChanged(MIN_BLOCK + x, y, MIN_BLOCK + z);
+        int size = batch.size();
+        batch.apply();
+        return size;
+    }
+
+    private void setBlock(int x, int y, int z, int id) {
+        this.world.setBlock(Dimension.OVERWORLD, MIN_BLOCK + x, y, MIN_BLOCK + z, id, 0);
+    }
+
+    /**
+     * Compute height maps and light from scratch by relaxing every block until nothing changes,
+     * and compare them with the world.
+     */
+    private void verify() {
+        byte[] opacity = new byte[SIZE * 256 * SIZE];
+        byte[] sky = new byte[opacity.length];
+        byte[] block = new byte[opacity.length];
+        for (int x = 0; x < SIZE; x++) {
+            for (int z = 0; z < SIZE; z++) {
+                int height = 0;
+                for (int y = 255; y >= 0; y--) {
+                    int id = this.world.getBlockState(Dimension.OVERWORLD, MIN_BLOCK + x, y, MIN_BLOCK + z) >> 4;
+                    int i = index(x, y, z);
+                    opacity[i] = (byte) this.properties.getOpacity(id);
+                    block[i] = (byte) this.properties.getEmission(id);
+                    if (height == 0 && opacity[i] != 0) {
+                        height = y + 1;
+                    }
+                }
+                Chunk chunk = this.world.getChunk(Dimension.OVERWORLD, MIN_CHUNK + (x >> 4), MIN_CHUNK + (z >> 4)).get();
+                if (chunk.getHeight(x & 15, z & 15) != height) {
+                    throw new IllegalStateException("Wrong height at " + (MIN_BLOCK + x) + ", " + (MIN_BLOCK + z));
+                }
+                for (int y = height; y < 256; y++) {
+                    sky[index(x, y, z)] = 15;
+                }
+            }
+        }
+        int[] dx = {1, -1, 0, 0, 0, 0};
+        int[] dy = {0, 0, 1, -1, 0, 0};
+        int[] dz = {0, 0, 0, 0, 1, -1};
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int x = 0; x < SIZE; x++) {
+                for (int y = 0; y < 256; y++) {
+                    for (int z = 0; z < SIZE; z++) {
+                        int i = index(x, y, z);
+                        int loss = Math.max(1, opacity[i]);
+                        for (int d = 0; d < 6; d++) {
+                            int nx = x + dx[d];
+                            int ny = y + dy[d];
+                            int nz = z + dz[d];
+                            if (nx < 0 || nz < 0 || nx >= SIZE || nz >= SIZE || ny < 0 || ny > 255) {
+                                continue;
+                            }
+                            int n = index(nx, ny, nz);
+                            int skyLight = d == 2 && sky[n] == 15 && opacity[i] == 0 ? 15 : sky[n] - loss;
+                            if (skyLight > sky[i]) {
+                                sky[i] = (byte) skyLight;
+                                changed = true;
+                            }
+                            if (block[n] - loss > block[i]) {
+                                block[i] = (byte) (block[n] - loss);
+                                changed = true;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        for (int x = 0; x < SIZE; x++) {
+            for (int z = 0; z < SIZE; z++) {
+                Chunk chunk = this.world.getChunk(Dimension.OVERWORLD, MIN_CHUNK + (x >> 4), MIN_CHUNK + (z >> 4)).get();
+                for (int y = 0; y < 256; y++) {
+                    int i = index(x, y, z);
+                    if (chunk.getSkyLight(x & 15, y, z & 15) != sky[i] || chunk.getBlockLight(x & 15, y, z & 15) != block[i]) {
+                        throw new IllegalStateException("Wrong light at " + (MIN_BLOCK + x) + ", " + y + ", " + (MIN_BLOCK + z));
+                    }
+                }
+            }
+        }
+    }
+
+    private static int index(int x, int y, int z) {
+        return (y * SIZE + z) * SIZE + x;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.benchmark;
+
+import org.jnbt.CompoundTag;
+import org.jnbt.NBTBufferReader;
+import org.jnbt.NBTInputStream;
+import org.jnbt.NBTOutputStream;
+import org.jnbt.Tag;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Measures {@link NBTInputStream}, {@link NBTBufferReader} and {@link NBTOutputStream} on a
+ * level.dat sized tree and on a fully populated chunk.
+ *
+ * @author Jeff Chen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NBTCodecBenchmark {
+
+    @Param({"level", "chunk"})
+    public String fixture;
+
+    private CompoundTag tree;
+    private byte[] raw;
+    private byte[] gzipped;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setup() throws IOException {
+        this.tree = this.fixture.equals("level") ? Fixtures.levelData() : Fixtures.chunk(0, 0);
+        this.raw = Fixtures.encode(this.tree);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(this.raw);
+        }
+        this.gzipped = compressed.toByteArray();
+        this.out = new ByteArrayOutputStream(this.raw.length);
+    }
+
+    @Benchmark
+    public Tag readStream() throws IOException {
+        return new NBTInputStream(new DataInputStream(new ByteArrayInputStream(this.raw))).readTag();
+    }
+
+    @Benchmark
+    public Tag readGzipStream() throws IOException {
+        return new NBTInputStream(new ByteArrayInputStream(this.gzipped)).readTag();
+    }
+
+    @Benchmark
+    public Tag readBuffer() throws IOException {
+        return new NBTBufferReader(ByteBuffer.wrap(this.raw)).readTag();
+    }
+
+    @Benchmark
+    public Tag readBufferSliced() throws IOException {
+        return new NBTBufferReader(ByteBuffer.wrap(this.raw), true).readTag();
+    }
+
+    @Benchmark
+    public Tag readLazyFirstKey() throws IOException {
+        CompoundTag root = (CompoundTag) new NBTBufferReader(ByteBuffer.wrap(this.raw), true, true).readTag();
+        return root.getValue().values().iterator().next();
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        this.out.reset();
+        try (NBTOutputStream stream = new NBTOutputStream(this.out, false)) {
+            stream.writeTag(this.tree);
+        }
+        return this.out.size();
+    }
+
+    @Benchmark
+    public Tag roundTrip() throws IOException {
+        this.out.reset();
+        try (NBTOutputStream stream = new NBTOutputStream(this.out, false)) {
+            stream.writeTag(this.tree);
+        }
+        return new NBTBufferReader(ByteBuffer.wrap(this.out.toByteArray())).readTag();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.benchmark;
+
+import org.blockedit.core.world.Section;
+import org.blockedit.exception.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building {@link Section}s and reading their blocks and light back.
+ *
+ * @author Jeff Chen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SectionBenchmark {
+
+    private byte[] blocks;
+    private byte[] data;
+    private byte[] blockLight;
+    private byte[] skyLight;
+    private Section section;
+    private final int[] ids = new int[4096];
+
+    @Setup
+    public void setup() throws ParseException {
+        Random random = new Random(Fixtures.SEED);
+        this.blocks = Fixtures.bytes(random, 4096, 64);
+        this.data = Fixtures.bytes(random, 2048, 256);
+        this.blockLight = Fixtures.bytes(random, 2048, 256);
+        this.skyLight = Fixtures.bytes(random, 2048, 256);
+        this.section = build();
+    }
+
+    @Benchmark
+    public Section build() throws ParseException {
+        return new Section.Builder().y((byte) 4).blocks(this.blocks).data(this.data).blockLight(this.blockLight).skyLight(this.skyLight).build().get();
+    }
+
+    @Benchmark
+    public Section empty() throws ParseException {
+        return Section.empty((byte) 4);
+    }
+
+    @Benchmark
+    public Section fill() throws ParseException {
+        return Section.fill((byte) 4, (byte) 1);
+    }
+
+    @Benchmark
+    public Section buildUniform() throws ParseException {
+        return new Section.Builder().y((byte) 4).blocks(new byte[4096]).build().get();
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public List<Byte> getBlocks() {
+        return this.section.getBlocks();
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public List<Byte> getBlockLight() {
+        return this.section.getBlockLight();
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public long sumBlockIdsBoxed() {
+        long sum = 0;
+        for (Byte id : this.section.getBlocks()) {
+            sum += id & 0xFF;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long sumBlockIds() {
+        long sum = 0;
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    sum += this.section.getBlockId(x, y, z);
+                }
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long sumCopiedBlockIds() {
+        this.section.copyBlocksInto(this.ids);
+        long sum = 0;
+        for (int id : this.ids) {
+            sum += id;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long sumSkyLight() {
+        long sum = 0;
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    sum += this.section.getSkyLight(x, y, z);
+                }
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.benchmark;
+
+import org.jnbt.ByteArrayTag;
+import org.jnbt.ByteTag;
+import org.jnbt.CompoundTag;
+import org.jnbt.DoubleTag;
+import org.jnbt.FloatTag;
+import org.jnbt.IntArrayTag;
+import org.jnbt.IntTag;
+import org.jnbt.ListTag;
+import org.jnbt.LongTag;
+import org.jnbt.NBTConstants;
+import org.jnbt.NBTOutputStream;
+import org.jnbt.NBTUtils;
+import org.jnbt.ShortTag;
+import org.jnbt.StringTag;
+import org.jnbt.Tag;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares finding a tag's type with {@link NBTUtils#getTypeCode(Class)}, which {@link
+ * NBTOutputStream} used to call for every tag, against {@link Tag#getTypeCode()}. The legacy
+ * writer below is the old encoder's dispatch, kept here so both write paths can be measured on
+ * the same chunk.
+ *
+ * @author Jeff Chen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypeCodeBenchmark {
+
+    private CompoundTag chunk;
+    private Tag[] tags;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setup() {
+        this.chunk = Fixtures.chunk(0, 0);
+        List<Tag> flattened = new ArrayList<>();
+        flatten(this.chunk, flattened);
+        this.tags = flattened.toArray(new Tag[flattened.size()]);
+        this.out = new ByteArrayOutputStream(1 << 20);
+    }
+
+    @Benchmark
+    public int classLookup() {
+        int sum = 0;
+        for (Tag tag : this.tags) {
+            sum += NBTUtils.getTypeCode(tag.getClass());
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int typeCodeLookup() {
+        int sum = 0;
+        for (Tag tag : this.tags) {
+            sum += tag.getTypeCode();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int legacyWrite() throws IOException {
+        this.out.reset();
+        DataOutputStream stream = new DataOutputStream(this.out);
+        legacyWriteTag(stream, this.chunk);
+        stream.flush();
+        return this.out.size();
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        this.out.reset();
+        NBTOutputStream stream = new NBTOutputStream(this.out, false);
+        stream.writeTag(this.chunk);
+        stream.close();
+        return this.out.size();
+    }
+
+    private static void flatten(Tag tag, List<Tag> tags) {
+        tags.add(tag);
+        if (tag instanceof CompoundTag) {
+            for (Tag child : ((CompoundTag) tag).getValue().values()) {
+                flatten(child, tags);
+            }
+        } else if (tag instanceof ListTag) {
+            for (Tag child : ((ListTag) tag).getValue()) {
+                flatten(child, tags);
+            }
+        }
+    }
+
+    private static void legacyWriteTag(DataOutputStream os, Tag tag) throws IOException {
+        byte[] name = tag.getName().getBytes(NBTConstants.CHARSET);
+        os.writeByte(NBTUtils.getTypeCode(tag.getClass()));
+        os.writeShort(name.length);
+        os.write(name);
+        legacyWritePayload(os, tag);
+    }
+
+    private static void legacyWritePayload(DataOutputStream os, Tag tag) throws IOException {
+        switch (NBTUtils.getTypeCode(tag.getClass())) {
+            case NBTConstants.TYPE_BYTE:
+                os.writeByte(((ByteTag) tag).getValue());
+                break;
+            case NBTConstants.TYPE_SHORT:
+                os.writeShort(((ShortTag) tag).getValue());
+                break;
+            case NBTConstants.TYPE_INT:
+                os.writeInt(((IntTag) tag).getValue());
+                break;
+            case NBTConstants.TYPE_LONG:
+                os.writeLong(((LongTag) tag).getValue());
+                break;
+            case NBTConstants.TYPE_FLOAT:
+                os.writeFloat(((FloatTag) tag).getValue());
+                break;
+            case NBTConstants.TYPE_DOUBLE:
+                os.writeDouble(((DoubleTag) tag).getValue());
+                break;
+            case NBTConstants.TYPE_BYTE_ARRAY:
+                byte[] bytes = ((ByteArrayTag) tag).getValue();
+                os.writeInt(bytes.length);
+                os.write(bytes);
+                break;
+            case NBTConstants.TYPE_STRING:
+                byte[] chars = ((StringTag) tag).getValue().getBytes(NBTConstants.CHARSET);
+                os.writeShort(chars.length);
+                os.write(chars);
+                break;
+            case NBTConstants.TYPE_LIST:
+                List<Tag> items = ((ListTag) tag).getValue();
+                os.writeByte(NBTUtils.getTypeCode(((ListTag) tag).getType()));
+                os.writeInt(items.size());
+                for (Tag item : items) {
+                    legacyWritePayload(os, item);
+                }
+                break;
+            case NBTConstants.TYPE_COMPOUND:
+                for (Tag child : ((CompoundTag) tag).getValue().values()) {
+                    legacyWriteTag(os, child);
+                }
+                os.writeByte(0);
+                break;
+            case NBTConstants.TYPE_INT_ARRAY:
+                int[] ints = ((IntArrayTag) tag).getValue();
+                os.writeInt(ints.length);
+                for (int value : ints) {
+                    os.writeInt(value);
+                }
+                break;
+            default:
+                throw new IOException("Invalid tag type");
+        }
+    }
+}
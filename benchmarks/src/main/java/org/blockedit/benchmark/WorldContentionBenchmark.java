@@ -0,0 +1,134 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.benchmark;
+
+import org.blockedit.core.world.Chunk;
+import org.blockedit.core.world.Dimension;
+import org.blockedit.core.world.World;
+import org.blockedit.exception.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures block lookups and edits on a shared {@link World} from 16 threads, 12 reading and 4
+ * writing. Each edit sets a whole column to the next block state, one higher than the state it
+ * held, so readers can check that they never see a half written column. <p>{@link #readColumn()}
+ * holds the read lock and checks that the column is uniform. {@link #scanColumn()} reads the
+ * column bottom to top through the optimistic {@link World#getBlockState(Dimension, int, int,
+ * int)}; its reads may fall on both sides of a write, so it checks that the states never decrease
+ * going up, which a read torn by a write in progress would break.</p>
+ *
+ * @author Jeff Chen
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorldContentionBenchmark {
+
+    private static final int CHUNKS = 8;
+
+    private World world;
+
+    @Setup
+    public void setup() throws ParseException {
+        World.Builder builder = new World.Builder();
+        for (int x = 0; x < CHUNKS; x++) {
+            for (int z = 0; z < CHUNKS; z++) {
+                builder.addChunk(Dimension.OVERWORLD, new Chunk.Builder().xPos(x).zPos(z).build());
+            }
+        }
+        this.world = builder.build();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public int getBlockState() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return this.world.getBlockState(Dimension.OVERWORLD, random.nextInt(CHUNKS * 16), random.nextInt(256), random.nextInt(CHUNKS * 16));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public int scanColumn() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int x = random.nextInt(CHUNKS * 16);
+        int z = random.nextInt(CHUNKS * 16);
+        int state = this.world.getBlockState(Dimension.OVERWORLD, x, 0, z);
+        for (int y = 1; y < 256; y++) {
+            int above = this.world.getBlockState(Dimension.OVERWORLD, x, y, z);
+            if (above < state) {
+                throw new IllegalStateException("Read a half written column");
+            }
+            state = above;
+        }
+        return state;
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public boolean readColumn() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int x = random.nextInt(16);
+        int z = random.nextInt(16);
+        return this.world.readChunk(Dimension.OVERWORLD, random.nextInt(CHUNKS), random.nextInt(CHUNKS), chunk -> {
+            int state = chunk.getBlockState(x, 0, z);
+            for (int y = 1; y < 256; y++) {
+                if (chunk.getBlockState(x, y, z) != state) {
+                    throw new IllegalStateException("Read a half written column");
+                }
+            }
+            return true;
+        }).orElse(false);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public boolean writeColumn() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int x = random.nextInt(16);
+        int z = random.nextInt(16);
+        return this.world.editChunk(Dimension.OVERWORLD, random.nextInt(CHUNKS), random.nextInt(CHUNKS), chunk -> {
+            // states only grow, stopping at the largest one long before a run gets there
+            int state = Math.min(chunk.getBlockState(x, 0, z) + 1, 0xFFFF);
+            for (int y = 0; y < 256; y++) {
+                chunk.setBlock(x, y, z, state >> 4, state & 15);
+            }
+        });
+    }
+}
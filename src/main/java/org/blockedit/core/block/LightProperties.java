@@ -0,0 +1,129 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.core.block;
+
+import java.util.Arrays;
+
+/**
+ * Holds how much light each block id absorbs and emits, as used by the lighting engine. Opacity
+ * is the amount subtracted from light passing through a block, where 0 lets light through like
+ * air and 15 blocks it completely. Ids which are not listed, such as blocks added by mods, are
+ * treated as opaque and dark.
+ *
+ * @author Jeff Chen
+ */
+public final class LightProperties {
+
+    public static final int MAX_ID = 4096;
+
+    private static final LightProperties VANILLA = createVanilla();
+
+    private final byte[] opacity = new byte[MAX_ID];
+    private final byte[] emission = new byte[MAX_ID];
+
+    private LightProperties() {
+        Arrays.fill(this.opacity, (byte) 15);
+    }
+
+    /**
+     * Get the light properties of the vanilla 1.8 blocks.
+     *
+     * @return Returns the shared vanilla properties
+     */
+    public static LightProperties vanilla() {
+        return VANILLA;
+    }
+
+    public int getOpacity(int id) {
+        return this.opacity[id];
+    }
+
+    public int getEmission(int id) {
+        return this.emission[id];
+    }
+
+    /**
+     * Create a copy of these properties with the opacity of a block changed.
+     *
+     * @param id      The block id
+     * @param opacity The opacity, between 0 and 15
+     * @return Returns the new properties
+     */
+    public LightProperties withOpacity(int id, int opacity) {
+        LightProperties properties = copy();
+        properties.opacity[id] = (byte) opacity;
+        return properties;
+    }
+
+    /**
+     * Create a copy of these properties with the emitted light of a block changed.
+     *
+     * @param id       The block id
+     * @param emission The emitted light, between 0 and 15
+     * @return Returns the new properties
+     */
+    public LightProperties withEmission(int id, int emission) {
+        LightProperties properties = copy();
+        properties.emission[id] = (byte) emission;
+        return properties;
+    }
+
+    private LightProperties copy() {
+        LightProperties properties = new LightProperties();
+        System.arraycopy(this.opacity, 0, properties.opacity, 0, MAX_ID);
+        System.arraycopy(this.emission, 0, properties.emission, 0, MAX_ID);
+        return properties;
+    }
+
+    private static LightProperties createVanilla() {
+        LightProperties properties = new LightProperties();
+        // Blocks light passes through freely
+        for (int id : new int[] {0, 6, 20, 26, 27, 28, 31, 32, 37, 38, 39, 40, 44, 50, 51, 52, 53, 54, 55, 59, 63, 64, 65, 66, 67, 68, 69, 70, 71, 72, 75, 76, 77, 78, 81, 83, 85, 90, 92, 93, 94, 95, 96, 101, 102, 104, 105, 106, 107, 108, 109, 111, 113, 114, 115, 116, 117, 118, 119, 120, 122, 126, 127, 128, 130, 131, 132, 134, 135, 136, 138, 139, 140, 141, 142, 143, 144, 145, 146, 147, 148, 149, 150, 151, 154, 156, 157, 160, 163, 164, 165, 166, 167, 171, 175, 176, 177, 178, 180, 182, 183, 184, 185, 186, 187, 188, 189, 190, 191, 192, 193, 194, 195, 196, 197}) {
+            properties.opacity[id] = 0;
+        }
+        // Blocks which dim light passing through them
+        properties.opacity[8] = 3;
+        properties.opacity[9] = 3;
+        properties.opacity[79] = 3;
+        properties.opacity[18] = 1;
+        properties.opacity[161] = 1;
+        properties.opacity[30] = 1;
+        // Blocks which emit light
+        properties.emission[10] = 15;
+        properties.emission[11] = 15;
+        properties.emission[51] = 15;
+        properties.emission[89] = 15;
+        properties.emission[91] = 15;
+        properties.emission[119] = 15;
+        properties.emission[124] = 15;
+        properties.emission[138] = 15;
+        properties.emission[169] = 15;
+        properties.emission[50] = 14;
+        properties.emission[62] = 13;
+        properties.emission[90] = 11;
+        properties.emission[74] = 9;
+        properties.emission[94] = 9;
+        properties.emission[76] = 7;
+        properties.emission[39] = 1;
+        properties.emission[117] = 1;
+        properties.emission[120] = 1;
+        properties.emission[122] = 1;
+        return properties;
+    }
+}
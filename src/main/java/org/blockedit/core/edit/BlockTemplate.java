@@ -0,0 +1,163 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.core.edit;
+
+import org.blockedit.exception.ParseException;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of blocks relative to an origin, such as a custom tree. <p>Each block takes
+ * two ints: its offset packed into ten bits per axis, and its block state. Offsets must be
+ * between -512 and 511. Blocks are placed in the order they were added, so a later block at the
+ * same offset wins.</p>
+ *
+ * @author Jeff Chen
+ */
+public final class BlockTemplate {
+
+    private static final int OFFSET_BITS = 10;
+    private static final int OFFSET_MASK = (1 << OFFSET_BITS) - 1;
+    private static final int OFFSET_BIAS = 1 << (OFFSET_BITS - 1);
+
+    private final int[] offsets;
+    private final int[] states;
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int maxX;
+    private final int maxY;
+    private final int maxZ;
+
+    private BlockTemplate(int[] offsets, int[] states) {
+        this.offsets = offsets;
+        this.states = states;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        for (int i = 0; i < offsets.length; i++) {
+            minX = Math.min(minX, getX(i));
+            minY = Math.min(minY, getY(i));
+            minZ = Math.min(minZ, getZ(i));
+            maxX = Math.max(maxX, getX(i));
+            maxY = Math.max(maxY, getY(i));
+            maxZ = Math.max(maxZ, getZ(i));
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+    }
+
+    public int getBlockCount() {
+        return this.states.length;
+    }
+
+    public int getX(int block) {
+        return (this.offsets[block] & OFFSET_MASK) - OFFSET_BIAS;
+    }
+
+    public int getY(int block) {
+        return ((this.offsets[block] >> OFFSET_BITS) & OFFSET_MASK) - OFFSET_BIAS;
+    }
+
+    public int getZ(int block) {
+        return ((this.offsets[block] >> (OFFSET_BITS * 2)) & OFFSET_MASK) - OFFSET_BIAS;
+    }
+
+    public int getBlockState(int block) {
+        return this.states[block];
+    }
+
+    /**
+     * Get the box holding every block when the template is placed at an origin.
+     *
+     * @param x The x coordinate of the origin
+     * @param y The y coordinate of the origin
+     * @param z The z coordinate of the origin
+     * @return Returns the box
+     */
+    public Box getBounds(int x, int y, int z) {
+        return Box.of(x + this.minX, y + this.minY, z + this.minZ, x + this.maxX, y + this.maxY, z + this.maxZ);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BlockTemplate)) {
+            return false;
+        }
+        BlockTemplate template = (BlockTemplate) o;
+        return Arrays.equals(this.offsets, template.offsets) && Arrays.equals(this.states, template.states);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(this.offsets) + Arrays.hashCode(this.states);
+    }
+
+    @Override
+    public String toString() {
+        return "BlockTemplate{blocks=" + this.states.length + ", min=(" + this.minX + ", " + this.minY + ", " + this.minZ + "), max=(" + this.maxX + ", " + this.maxY + ", " + this.maxZ + ")}";
+    }
+
+    public static class Builder {
+
+        private int[] offsets = new int[64];
+        private int[] states = new int[64];
+        private int size = 0;
+        private boolean outOfRange = false;
+
+        /**
+         * Add a block.
+         *
+         * @param x     The x offset
+         * @param y     The y offset
+         * @param z     The z offset
+         * @param state The block state
+         * @return Returns this builder
+         */
+        public Builder add(int x, int y, int z, int state) {
+            if (((x + OFFSET_BIAS) | (y + OFFSET_BIAS) | (z + OFFSET_BIAS)) >>> OFFSET_BITS != 0) {
+                this.outOfRange = true;
+            }
+            if (this.size == this.offsets.length) {
+                this.offsets = Arrays.copyOf(this.offsets, this.size * 2);
+                this.states = Arrays.copyOf(this.states, this.size * 2);
+            }
+            this.offsets[this.size] = (x + OFFSET_BIAS) | ((y + OFFSET_BIAS) << OFFSET_BITS) | ((z + OFFSET_BIAS) << (OFFSET_BITS * 2));
+            this.states[this.size] = state;
+            this.size++;
+            return this;
+        }
+
+        public BlockTemplate build() throws ParseException {
+            if (this.size == 0) {
+                throw new ParseException("Build failed: The template has no blocks.");
+            }
+            if (this.outOfRange) {
+                throw new ParseException("Build failed: Block offsets must be between " + -OFFSET_BIAS + " and " + (OFFSET_BIAS - 1) + ".");
+            }
+            return new BlockTemplate(Arrays.copyOf(this.offsets, this.size), Arrays.copyOf(this.states, this.size));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.core.edit;
+
+/**
+ * An immutable box of blocks, with both corners included.
+ *
+ * @author Jeff Chen
+ */
+public final class Box {
+
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int maxX;
+    private final int maxY;
+    private final int maxZ;
+
+    private Box(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+    }
+
+    /**
+     * Create a box between two corners, in any order. The box is clamped to the height of the
+     * world.
+     *
+     * @param x1 The x coordinate of the first corner
+     * @param y1 The y coordinate of the first corner
+     * @param z1 The z coordinate of the first corner
+     * @param x2 The x coordinate of the second corner
+     * @param y2 The y coordinate of the second corner
+     * @param z2 The z coordinate of the second corner
+     * @return Returns the box
+     */
+    public static Box of(int x1, int y1, int z1, int x2, int y2, int z2) {
+        return new Box(Math.min(x1, x2), Math.max(Math.min(y1, y2), 0), Math.min(z1, z2), Math.max(x1, x2), Math.min(Math.max(y1, y2), 255), Math.max(z1, z2));
+    }
+
+    public int getMinX() {
+        return this.minX;
+    }
+
+    public int getMinY() {
+        return this.minY;
+    }
+
+    public int getMinZ() {
+        return this.minZ;
+    }
+
+    public int getMaxX() {
+        return this.maxX;
+    }
+
+    public int getMaxY() {
+        return this.maxY;
+    }
+
+    public int getMaxZ() {
+        return this.maxZ;
+    }
+
+    public int getWidth() {
+        return this.maxX - this.minX + 1;
+    }
+
+    public int getHeight() {
+        return this.maxY - this.minY + 1;
+    }
+
+    public int getLength() {
+        return this.maxZ - this.minZ + 1;
+    }
+
+    /**
+     * Get the number of blocks in this box.
+     *
+     * @return Returns the volume
+     */
+    public long getVolume() {
+        return (long) getWidth() * getHeight() * getLength();
+    }
+
+    public boolean contains(int x, int y, int z) {
+        return x >= this.minX && x <= this.maxX && y >= this.minY && y <= this.maxY && z >= this.minZ && z <= this.maxZ;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Box)) {
+            return false;
+        }
+        Box box = (Box) o;
+        return this.minX == box.minX && this.minY == box.minY && this.minZ == box.minZ && this.maxX == box.maxX && this.maxY == box.maxY && this.maxZ == box.maxZ;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((((this.minX * 31 + this.minY) * 31 + this.minZ) * 31 + this.maxX) * 31 + this.maxY) * 31 + this.maxZ;
+    }
+
+    @Override
+    public String toString() {
+        return "Box(" + this.minX + ", " + this.minY + ", " + this.minZ + " -> " + this.maxX + ", " + this.maxY + ", " + this.maxZ + ")";
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.core.edit;
+
+/**
+ * A copied box of blocks. States are stored in the order of the MCEdit schematic format, where
+ * the index of a block is <code>(y * length + z) * width + x</code>, so rows along the x axis are
+ * contiguous.
+ *
+ * @author Jeff Chen
+ */
+public final class Clipboard {
+
+    private final int width;
+    private final int height;
+    private final int length;
+    private final int[] states;
+
+    public Clipboard(int width, int height, int length) {
+        this(width, height, length, new int[Math.multiplyExact(Math.multiplyExact(width, height), length)]);
+    }
+
+    /**
+     * Create a clipboard backed by an array of block states, which is not copied.
+     *
+     * @param width  The size along the x axis
+     * @param height The size along the y axis
+     * @param length The size along the z axis
+     * @param states The block states, in schematic order
+     */
+    public Clipboard(int width, int height, int length, int[] states) {
+        if (states.length != (long) width * height * length) {
+            throw new IllegalArgumentException("Expected " + ((long) width * height * length) + " states, got " + states.length);
+        }
+        this.width = width;
+        this.height = height;
+        this.length = length;
+        this.states = states;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    public int getLength() {
+        return this.length;
+    }
+
+    public int getBlockState(int x, int y, int z) {
+        return this.states[index(x, y, z)];
+    }
+
+    public void setBlockState(int x, int y, int z, int state) {
+        this.states[index(x, y, z)] = state;
+    }
+
+    /**
+     * Get the array backing this clipboard.
+     *
+     * @return Returns the block states, in schematic order
+     */
+    public int[] getStates() {
+        return this.states;
+    }
+
+    /**
+     * Get the index of a block in {@link #getStates()}.
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param z The z coordinate
+     * @return Returns the index
+     */
+    public int index(int x, int y, int z) {
+        return (y * this.length + z) * this.width + x;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.core.edit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import org.blockedit.exception.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Loads BO2 and BO3 custom objects, as used by TerrainControl, into {@link BlockTemplate}s.
+ * <p>Templates are cached by file path and modification time, so placing the same object many
+ * times parses it once and every placement shares one template. Editing the file makes the next
+ * {@link #load(File)} parse it again.</p> <p>Only the blocks of an object are read. BO2 branches
+ * and BO3 functions other than <code>Block</code>, such as <code>RandomBlock</code> and
+ * <code>BlockCheck</code>, depend on the placement and are ignored.</p>
+ *
+ * @author Jeff Chen
+ */
+public final class CustomObjects {
+
+    private static final String[] MATERIAL_NAMES = {
+            "AIR", "STONE", "GRASS", "DIRT", "COBBLESTONE", "WOOD", "SAPLING", "BEDROCK", "WATER", "STATIONARY_WATER",
+            "LAVA", "STATIONARY_LAVA", "SAND", "GRAVEL", "GOLD_ORE", "IRON_ORE", "COAL_ORE", "LOG", "LEAVES", "SPONGE",
+            "GLASS", "LAPIS_ORE", "LAPIS_BLOCK", "DISPENSER", "SANDSTONE", "NOTE_BLOCK", "BED_BLOCK", "POWERED_RAIL", "DETECTOR_RAIL", "PISTON_STICKY_BASE",
+            "WEB", "LONG_GRASS", "DEAD_BUSH", "PISTON_BASE", "PISTON_EXTENSION", "WOOL", "PISTON_MOVING_PIECE", "YELLOW_FLOWER", "RED_ROSE", "BROWN_MUSHROOM",
+            "RED_MUSHROOM", "GOLD_BLOCK", "IRON_BLOCK", "DOUBLE_STEP", "STEP", "BRICK", "TNT", "BOOKSHELF", "MOSSY_COBBLESTONE", "OBSIDIAN",
+            "TORCH", "FIRE", "MOB_SPAWNER", "WOOD_STAIRS", "CHEST", "REDSTONE_WIRE", "DIAMOND_ORE", "DIAMOND_BLOCK", "WORKBENCH", "CROPS",
+            "SOIL", "FURNACE", "BURNING_FURNACE", "SIGN_POST", "WOODEN_DOOR", "LADDER", "RAILS", "COBBLESTONE_STAIRS", "WALL_SIGN", "LEVER",
+            "STONE_PLATE", "IRON_DOOR_BLOCK", "WOOD_PLATE", "REDSTONE_ORE", "GLOWING_REDSTONE_ORE", "REDSTONE_TORCH_OFF", "REDSTONE_TORCH_ON", "STONE_BUTTON", "SNOW", "ICE",
+            "SNOW_BLOCK", "CACTUS", "CLAY", "SUGAR_CANE_BLOCK", "JUKEBOX", "FENCE", "PUMPKIN", "NETHERRACK", "SOUL_SAND", "GLOWSTONE",
+            "PORTAL", "JACK_O_LANTERN", "CAKE_BLOCK", "DIODE_BLOCK_OFF", "DIODE_BLOCK_ON", "STAINED_GLASS", "TRAP_DOOR", "MONSTER_EGGS", "SMOOTH_BRICK", "HUGE_MUSHROOM_1",
+            "HUGE_MUSHROOM_2", "IRON_FENCE", "THIN_GLASS", "MELON_BLOCK", "PUMPKIN_STEM", "MELON_STEM", "VINE", "FENCE_GATE", "BRICK_STAIRS", "SMOOTH_STAIRS",
+            "MYCEL", "WATER_LILY", "NETHER_BRICK", "NETHER_FENCE", "NETHER_BRICK_STAIRS", "NETHER_WARTS", "ENCHANTMENT_TABLE", "BREWING_STAND", "CAULDRON", "ENDER_PORTAL",
+            "ENDER_PORTAL_FRAME", "ENDER_STONE", "DRAGON_EGG", "REDSTONE_LAMP_OFF", "REDSTONE_LAMP_ON", "WOOD_DOUBLE_STEP", "WOOD_STEP", "COCOA", "SANDSTONE_STAIRS", "EMERALD_ORE",
+            "ENDER_CHEST", "TRIPWIRE_HOOK", "TRIPWIRE", "EMERALD_BLOCK", "SPRUCE_WOOD_STAIRS", "BIRCH_WOOD_STAIRS", "JUNGLE_WOOD_STAIRS", "COMMAND", "BEACON", "COBBLE_WALL",
+            "FLOWER_POT", "CARROT", "POTATO", "WOOD_BUTTON", "SKULL", "ANVIL", "TRAPPED_CHEST", "GOLD_PLATE", "IRON_PLATE", "REDSTONE_COMPARATOR_OFF",
+            "REDSTONE_COMPARATOR_ON", "DAYLIGHT_DETECTOR", "REDSTONE_BLOCK", "QUARTZ_ORE", "HOPPER", "QUARTZ_BLOCK", "QUARTZ_STAIRS", "ACTIVATOR_RAIL", "DROPPER", "STAINED_CLAY",
+            "STAINED_GLASS_PANE", "LEAVES_2", "LOG_2", "ACACIA_STAIRS", "DARK_OAK_STAIRS", "SLIME_BLOCK", "BARRIER", "IRON_TRAPDOOR", "PRISMARINE", "SEA_LANTERN",
+            "HAY_BLOCK", "CARPET", "HARD_CLAY", "COAL_BLOCK", "PACKED_ICE", "DOUBLE_PLANT"
+    };
+    private static final ImmutableMap<String, Integer> MATERIALS;
+
+    static {
+        ImmutableMap.Builder<String, Integer> materials = ImmutableMap.builder();
+        for (int id = 0; id < MATERIAL_NAMES.length; id++) {
+            materials.put(MATERIAL_NAMES[id], id);
+        }
+        MATERIALS = materials.build();
+    }
+
+    private final Cache<String, BlockTemplate> templates;
+
+    /**
+     * Create a loader.
+     *
+     * @param maximumSize The most templates kept in the cache
+     */
+    public CustomObjects(long maximumSize) {
+        this.templates = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    /**
+     * Load a BO2 or BO3 object, chosen by the file extension.
+     *
+     * @param file The file
+     * @return Returns the template, shared with earlier loads of the unchanged file
+     * @throws IOException    If the file could not be read
+     * @throws ParseException If the file is not a valid object
+     */
+    public BlockTemplate load(File file) throws IOException, ParseException {
+        String key = file.getAbsolutePath() + '@' + file.lastModified();
+        try {
+            return this.templates.get(key, () -> {
+                List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.ISO_8859_1);
+                String name = file.getName().toLowerCase(Locale.ENGLISH);
+                if (name.endsWith(".bo2")) {
+                    return parseBo2(lines);
+                } else if (name.endsWith(".bo3")) {
+                    return parseBo3(lines);
+                }
+                throw new ParseException("Not a BO2 or BO3 file: " + file.getName());
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof ParseException) {
+                throw (ParseException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Forget every cached template.
+     */
+    public void invalidateAll() {
+        this.templates.invalidateAll();
+    }
+
+    /**
+     * Parse a BO2 object. Blocks are the lines of the <code>[DATA]</code> section, written as
+     * <code>x,z,y:id.data</code> with an optional <code>#</code> branch suffix.
+     *
+     * @param lines The lines of the file
+     * @return Returns the template
+     * @throws ParseException If a block line is invalid or there are no blocks
+     */
+    public static BlockTemplate parseBo2(List<String> lines) throws ParseException {
+        BlockTemplate.Builder builder = new BlockTemplate.Builder();
+        boolean data = false;
+        for (String line : lines) {
+            line = line.trim();
+            if (line.startsWith("[")) {
+                data = line.equalsIgnoreCase("[DATA]");
+                continue;
+            }
+            if (!data || line.isEmpty()) {
+                continue;
+            }
+            int colon = line.indexOf(':');
+            String[] position = colon < 0 ? new String[0] : line.substring(0, colon).split(",");
+            if (position.length != 3) {
+                throw new ParseException("Invalid BO2 block: " + line);
+            }
+            String value = line.substring(colon + 1);
+            if (value.indexOf('#') >= 0) {
+                value = value.substring(0, value.indexOf('#'));
+            }
+            int dot = value.indexOf('.');
+            int id = parseInt(dot < 0 ? value : value.substring(0, dot), line);
+            int blockData = dot < 0 ? 0 : parseInt(value.substring(dot + 1), line);
+            builder.add(parseInt(position[0], line), parseInt(position[2], line), parseInt(position[1], line), WorldEditor.state(id, blockData));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Parse a BO3 object. Blocks are the <code>Block(x,y,z,material)</code> lines, where the
+     * material is a block id or name followed by an optional <code>:data</code>. An NBT file
+     * argument after the material is ignored.
+     *
+     * @param lines The lines of the file
+     * @return Returns the template
+     * @throws ParseException If a block line is invalid or there are no blocks
+     */
+    public static BlockTemplate parseBo3(List<String> lines) throws ParseException {
+        BlockTemplate.Builder builder = new BlockTemplate.Builder();
+        for (String line : lines) {
+            line = line.trim();
+            if (!line.regionMatches(true, 0, "Block(", 0, 6)) {
+                continue;
+            }
+            if (!line.endsWith(")")) {
+                throw new ParseException("Invalid BO3 block: " + line);
+            }
+            String[] arguments = line.substring(6, line.length() - 1).split(",");
+            if (arguments.length < 4) {
+                throw new ParseException("Invalid BO3 block: " + line);
+            }
+            builder.add(parseInt(arguments[0], line), parseInt(arguments[1], line), parseInt(arguments[2], line), parseMaterial(arguments[3].trim(), line));
+        }
+        return builder.build();
+    }
+
+    private static int parseMaterial(String material, String line) throws ParseException {
+        if (material.regionMatches(true, 0, "minecraft:", 0, 10)) {
+            material = material.substring(10);
+        }
+        int colon = material.indexOf(':');
+        String name = colon < 0 ? material : material.substring(0, colon);
+        int data = colon < 0 ? 0 : parseInt(material.substring(colon + 1), line);
+        Integer id = MATERIALS.get(name.toUpperCase(Locale.ENGLISH));
+        if (id == null && !name.chars().allMatch(Character::isDigit)) {
+            throw new ParseException("Unknown material \"" + name + "\" in line: " + line);
+        }
+        return WorldEditor.state(id != null ? id : parseInt(name, line), data);
+    }
+
+    private static int parseInt(String value, String line) throws ParseException {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ParseException("Invalid number \"" + value.trim() + "\" in line: " + line);
+        }
+    }
+}
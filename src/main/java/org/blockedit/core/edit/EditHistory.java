@@ -0,0 +1,396 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.core.edit;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * The undo and redo history of a {@link WorldEditor}. <p>Each operation is stored as one delta
+ * per changed section: the block states before and after the edit are combined with XOR, so
+ * unchanged blocks become zero, and the result is run length encoded. An operation touching a
+ * huge volume but changing few blocks therefore takes little memory. Applying a delta a second
+ * time restores the original blocks, so the same delta serves both undo and redo.</p> <p>When the
+ * deltas held in memory exceed the configured cap, the oldest operations are moved to a temporary
+ * file, which is deleted when the history is closed.</p>
+ *
+ * @author Jeff Chen
+ */
+public final class EditHistory implements Closeable {
+
+    private static final int MIN_RUN = 3;
+
+    private final long memoryCap;
+    private final Deque<Entry> undo = new ArrayDeque<>();
+    private final Deque<Entry> redo = new ArrayDeque<>();
+    private long memoryUsed = 0;
+    private Path spillFile;
+    private FileChannel spill;
+    private long spilledBytes = 0;
+
+    /**
+     * Create an empty history.
+     *
+     * @param memoryCap The most bytes of deltas kept in memory before older ones are written to a
+     *                  temporary file
+     */
+    public EditHistory(long memoryCap) {
+        this.memoryCap = memoryCap;
+    }
+
+    public synchronized int getUndoCount() {
+        return this.undo.size();
+    }
+
+    public synchronized int getRedoCount() {
+        return this.redo.size();
+    }
+
+    /**
+     * Get the size of the deltas held in memory.
+     *
+     * @return Returns the size in bytes
+     */
+    public synchronized long getMemoryUsed() {
+        return this.memoryUsed;
+    }
+
+    /**
+     * Get the size of the deltas moved to the temporary file.
+     *
+     * @return Returns the size in bytes
+     */
+    public synchronized long getSpilledBytes() {
+        return this.spilledBytes;
+    }
+
+    /**
+     * Forget every operation.
+     *
+     * @throws IOException If the temporary file could not be deleted
+     */
+    public synchronized void clear() throws IOException {
+        this.undo.clear();
+        this.redo.clear();
+        this.memoryUsed = 0;
+        close();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.spill != null) {
+            this.spill.close();
+            Files.deleteIfExists(this.spillFile);
+            this.spill = null;
+            this.spillFile = null;
+            this.spilledBytes = 0;
+        }
+    }
+
+    /**
+     * Record an operation, which clears the redo history.
+     *
+     * @param deltas The encoded section deltas of the operation
+     */
+    synchronized void record(byte[] deltas) {
+        for (Entry entry : this.redo) {
+            this.memoryUsed -= entry.memory();
+        }
+        this.redo.clear();
+        this.undo.push(new Entry(deltas));
+        this.memoryUsed += deltas.length;
+        trim();
+    }
+
+    /**
+     * Take the latest operation off the undo history and move it to the redo history.
+     *
+     * @return Returns the deltas to apply, if there is anything to undo
+     */
+    synchronized Optional<byte[]> undo() {
+        return move(this.undo, this.redo);
+    }
+
+    /**
+     * Take the latest undone operation off the redo history and move it back.
+     *
+     * @return Returns the deltas to apply, if there is anything to redo
+     */
+    synchronized Optional<byte[]> redo() {
+        return move(this.redo, this.undo);
+    }
+
+    private Optional<byte[]> move(Deque<Entry> from, Deque<Entry> to) {
+        Entry entry = from.poll();
+        if (entry == null) {
+            return Optional.empty();
+        }
+        to.push(entry);
+        try {
+            return Optional.of(entry.read());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void trim() {
+        Iterator<Entry> oldest = this.undo.descendingIterator();
+        while (this.memoryUsed > this.memoryCap && oldest.hasNext()) {
+            Entry entry = oldest.next();
+            if (entry.data != null) {
+                try {
+                    entry.spill();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    private FileChannel spillChannel() throws IOException {
+        if (this.spill == null) {
+            this.spillFile = Files.createTempFile("blockedit-history", ".tmp");
+            this.spillFile.toFile().deleteOnExit();
+            this.spill = FileChannel.open(this.spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return this.spill;
+    }
+
+    /**
+     * Encode the change of one section and append it to a buffer. The XOR of the states is
+     * written as tokens: a run of at least {@value #MIN_RUN} equal values is stored once with its
+     * length, anything else is stored as literal values.
+     *
+     * @param out    The buffer
+     * @param x      The chunk x coordinate
+     * @param z      The chunk z coordinate
+     * @param y      The section index
+     * @param before The 4096 block states before the change
+     * @param after  The 4096 block states after the change
+     * @return Returns if any block changed; nothing is written otherwise
+     */
+    static boolean encode(Bytes out, int x, int z, int y, int[] before, int[] after) {
+        int first = 0;
+        while (first < 4096 && before[first] == after[first]) {
+            first++;
+        }
+        if (first == 4096) {
+            return false;
+        }
+        out.writeVarInt(zigZag(x));
+        out.writeVarInt(zigZag(z));
+        out.writeVarInt(y);
+        int literals = 0;
+        int i = 0;
+        while (i < 4096) {
+            int value = before[i] ^ after[i];
+            int run = 1;
+            while (i + run < 4096 && (before[i + run] ^ after[i + run]) == value) {
+                run++;
+            }
+            if (run < MIN_RUN) {
+                literals += run;
+                i += run;
+                continue;
+            }
+            writeLiterals(out, before, after, i - literals, literals);
+            out.writeVarInt(run << 1);
+            out.writeVarInt(value);
+            i += run;
+            literals = 0;
+        }
+        writeLiterals(out, before, after, 4096 - literals, literals);
+        return true;
+    }
+
+    private static void writeLiterals(Bytes out, int[] before, int[] after, int start, int count) {
+        if (count == 0) {
+            return;
+        }
+        out.writeVarInt((count << 1) | 1);
+        for (int i = start; i < start + count; i++) {
+            out.writeVarInt(before[i] ^ after[i]);
+        }
+    }
+
+    /**
+     * Decode the section deltas of an operation.
+     *
+     * @param deltas   The encoded deltas
+     * @param consumer Receives each section and applies its delta to block states
+     */
+    static void decode(byte[] deltas, DeltaConsumer consumer) {
+        ByteBuffer in = ByteBuffer.wrap(deltas);
+        while (in.hasRemaining()) {
+            int x = unZigZag(readVarInt(in));
+            int z = unZigZag(readVarInt(in));
+            int y = readVarInt(in);
+            int start = in.position();
+            readSection(in, null);
+            int end = in.position();
+            consumer.accept(x, z, y, states -> readSection(ByteBuffer.wrap(deltas, start, end - start), states));
+        }
+    }
+
+    private static void readSection(ByteBuffer in, int[] states) {
+        int i = 0;
+        while (i < 4096) {
+            int token = readVarInt(in);
+            int count = token >>> 1;
+            if ((token & 1) == 0) {
+                int value = readVarInt(in);
+                if (states != null && value != 0) {
+                    for (int j = i; j < i + count; j++) {
+                        states[j] ^= value;
+                    }
+                }
+            } else {
+                for (int j = i; j < i + count; j++) {
+                    int value = readVarInt(in);
+                    if (states != null) {
+                        states[j] ^= value;
+                    }
+                }
+            }
+            i += count;
+        }
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Receives the delta of one section.
+     */
+    @FunctionalInterface
+    interface DeltaConsumer {
+
+        void accept(int x, int z, int y, Consumer<int[]> delta);
+    }
+
+    /**
+     * A growable byte buffer holding encoded deltas.
+     */
+    static final class Bytes {
+
+        private byte[] bytes = new byte[256];
+        private int length = 0;
+
+        void writeVarInt(int value) {
+            if (this.length + 5 > this.bytes.length) {
+                this.bytes = Arrays.copyOf(this.bytes, this.bytes.length * 2);
+            }
+            while ((value & ~0x7F) != 0) {
+                this.bytes[this.length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.bytes[this.length++] = (byte) value;
+        }
+
+        void write(Bytes other) {
+            if (this.length + other.length > this.bytes.length) {
+                this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.length + other.length));
+            }
+            System.arraycopy(other.bytes, 0, this.bytes, this.length, other.length);
+            this.length += other.length;
+        }
+
+        int length() {
+            return this.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(this.bytes, this.length);
+        }
+    }
+
+    /**
+     * An operation, held either in memory or in the temporary file.
+     */
+    private final class Entry {
+
+        private byte[] data;
+        private long offset;
+        private int length;
+
+        private Entry(byte[] data) {
+            this.data = data;
+            this.length = data.length;
+        }
+
+        private long memory() {
+            return this.data == null ? 0 : this.length;
+        }
+
+        private byte[] read() throws IOException {
+            if (this.data != null) {
+                return this.data;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(this.length);
+            while (buffer.hasRemaining()) {
+                if (EditHistory.this.spill.read(buffer, this.offset + buffer.position()) < 0) {
+                    throw new EOFException("The history file is truncated");
+                }
+            }
+            return buffer.array();
+        }
+
+        private void spill() throws IOException {
+            FileChannel channel = spillChannel();
+            this.offset = EditHistory.this.spilledBytes;
+            ByteBuffer buffer = ByteBuffer.wrap(this.data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, this.offset + buffer.position());
+            }
+            EditHistory.this.spilledBytes += this.length;
+            EditHistory.this.memoryUsed -= this.length;
+            this.data = null;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.core.edit;
+
+import org.blockedit.exception.ParseException;
+import org.jnbt.ByteArrayTag;
+import org.jnbt.CompoundTag;
+import org.jnbt.NBTInputStream;
+import org.jnbt.NBTUtils;
+import org.jnbt.ShortTag;
+import org.jnbt.StringTag;
+import org.jnbt.Tag;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * A <a href="http://minecraft.gamepedia.com/Schematic_file_format">.schematic</a> file. <p>The
+ * <code>Blocks</code>, <code>Data</code> and <code>AddBlocks</code> arrays are kept as they were
+ * read, so a schematic takes two and a half bytes per block. Block states are only computed when
+ * pasting, a few layers at a time, see {@link #paste(WorldEditor, int, int, int)}.</p>
+ *
+ * @author Jeff Chen
+ */
+public final class Schematic {
+
+    private final int width;
+    private final int height;
+    private final int length;
+    private final byte[] blocks;
+    private final byte[] data;
+    private final byte[] add;
+
+    private Schematic(int width, int height, int length, byte[] blocks, byte[] data, byte[] add) {
+        this.width = width;
+        this.height = height;
+        this.length = length;
+        this.blocks = blocks;
+        this.data = data;
+        this.add = add;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Get the state of a block.
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param z The z coordinate
+     * @return Returns the block state
+     */
+    public int getBlockState(int x, int y, int z) {
+        return state((y * this.length + z) * this.width + x);
+    }
+
+    /**
+     * Copy every block into a new clipboard. Use {@link #paste(WorldEditor, int, int, int)} for
+     * large schematics, since the clipboard takes four bytes per block.
+     *
+     * @return Returns the clipboard
+     */
+    public Clipboard toClipboard() {
+        return toClipboard(0, this.height);
+    }
+
+    /**
+     * Copy some layers into a new clipboard.
+     *
+     * @param minY   The lowest layer
+     * @param layers The number of layers
+     * @return Returns the clipboard, as high as the number of layers
+     */
+    public Clipboard toClipboard(int minY, int layers) {
+        Clipboard clipboard = new Clipboard(this.width, layers, this.length);
+        copyLayers(minY, clipboard.getStates());
+        return clipboard;
+    }
+
+    /**
+     * Paste the schematic, air included. Layers are converted and pasted one destination
+     * section at a time, so at most sixteen layers of block states are held in memory. The whole
+     * paste is a single entry in the history of the editor.
+     *
+     * @param editor The editor of the target world
+     * @param x      The x coordinate of the lowest corner
+     * @param y      The y coordinate of the lowest corner
+     * @param z      The z coordinate of the lowest corner
+     */
+    public void paste(WorldEditor editor, int x, int y, int z) {
+        editor.batch(() -> {
+            Clipboard layers = null;
+            int minY = 0;
+            while (minY < this.height) {
+                int count = Math.min(16 - ((y + minY) & 15), this.height - minY);
+                if (layers == null || layers.getHeight() != count) {
+                    layers = new Clipboard(this.width, count, this.length);
+                }
+                copyLayers(minY, layers.getStates());
+                editor.paste(layers, x, y + minY, z);
+                minY += count;
+            }
+        });
+    }
+
+    private void copyLayers(int minY, int[] states) {
+        int offset = minY * this.length * this.width;
+        for (int i = 0; i < states.length; i++) {
+            states[i] = state(offset + i);
+        }
+    }
+
+    private int state(int index) {
+        int id = this.blocks[index] & 0xFF;
+        if (this.add != null && (index >> 1) < this.add.length) {
+            id |= ((this.add[index >> 1] >> ((index & 1) << 2)) & 0x0F) << 8;
+        }
+        return (id << 4) | (this.data[index] & 0x0F);
+    }
+
+    /**
+     * Loads a schematic file. Entities and tile entities are skipped without being decoded.
+     */
+    public static class Loader {
+
+        private final File file;
+
+        public Loader(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Load the schematic.
+         *
+         * @return Returns a new instance of {@link Schematic}
+         * @throws IOException    If the file could not be read
+         * @throws ParseException If a required tag is missing or the arrays do not match the size
+         */
+        public Schematic load() throws IOException, ParseException {
+            Tag tag;
+            try (InputStream in = new BufferedInputStream(new FileInputStream(this.file));
+                 NBTInputStream nbt = new NBTInputStream(in)) {
+                tag = nbt.readTag(NBTUtils.pathFilter("Width", "Height", "Length", "Materials", "Blocks", "Data", "AddBlocks"));
+            }
+            if (!(tag instanceof CompoundTag)) {
+                throw new ParseException("The schematic does not start with a compound tag.");
+            }
+            Map<String, Tag> root = ((CompoundTag) tag).getValue();
+            if (root.get("Materials") instanceof StringTag && !"Alpha".equals(((StringTag) root.get("Materials")).getValue())) {
+                throw new ParseException("Unsupported schematic materials: " + ((StringTag) root.get("Materials")).getValue());
+            }
+            int width = getTag(root, "Width", ShortTag.class).getValue() & 0xFFFF;
+            int height = getTag(root, "Height", ShortTag.class).getValue() & 0xFFFF;
+            int length = getTag(root, "Length", ShortTag.class).getValue() & 0xFFFF;
+            long volume = (long) width * height * length;
+            byte[] blocks = getTag(root, "Blocks", ByteArrayTag.class).getValue();
+            byte[] data = getTag(root, "Data", ByteArrayTag.class).getValue();
+            byte[] add = root.get("AddBlocks") instanceof ByteArrayTag ? ((ByteArrayTag) root.get("AddBlocks")).getValue() : null;
+            if (blocks.length != volume || data.length != volume) {
+                throw new ParseException("Expected " + volume + " blocks, got " + blocks.length + " blocks and " + data.length + " data values.");
+            }
+            return new Schematic(width, height, length, blocks, data, add);
+        }
+
+        private static <T extends Tag> T getTag(Map<String, Tag> tags, String name, Class<T> type) throws ParseException {
+            Tag tag = tags.get(name);
+            if (!type.isInstance(tag)) {
+                throw new ParseException("Missing or invalid schematic tag: " + name);
+            }
+            return type.cast(tag);
+        }
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.core.edit;
+
+import org.blockedit.core.world.Chunk;
+import org.blockedit.core.world.Dimension;
+import org.blockedit.core.world.LightEngine;
+import org.blockedit.core.world.Section;
+import org.blockedit.core.world.World;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Bulk block operations on a dimension of a {@link World}. <p>Operations work a section at a
+ * time on block state arrays instead of single blocks: sections entirely inside the box are
+ * filled or replaced through their palette without touching the blocks, and the rows of other
+ * sections are written with {@link Arrays#fill} and {@link System#arraycopy} before the section
+ * is packed again. Each chunk is handled by its own task on a {@link ForkJoinPool} while holding
+ * the chunk's write lock.</p> <p>Block states are the block id shifted left by four bits,
+ * combined with the data value, see {@link #state(int, int)}. Chunks which are not loaded are
+ * skipped. Light is not updated until {@link #relight(LightEngine)} is called.</p> <p>When an
+ * {@link EditHistory} is set, every write operation records the sections it changed and can be
+ * reverted with {@link #undo()}. Operations run inside {@link #batch(Runnable)} are recorded as a
+ * single history entry.</p>
+ *
+ * @author Jeff Chen
+ */
+public final class WorldEditor {
+
+    private static final ThreadLocal<int[]> STATES = ThreadLocal.withInitial(() -> new int[4096]);
+    private static final ThreadLocal<int[]> BEFORE = ThreadLocal.withInitial(() -> new int[4096]);
+
+    private final World world;
+    private final Dimension dimension;
+    private final Set<Long> changedChunks = ConcurrentHashMap.newKeySet();
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private EditHistory history = null;
+    private EditHistory.Bytes batch = null;
+
+    public WorldEditor(World world, Dimension dimension) {
+        this.world = world;
+        this.dimension = dimension;
+    }
+
+    public WorldEditor pool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    public WorldEditor history(EditHistory history) {
+        this.history = history;
+        return this;
+    }
+
+    public Optional<EditHistory> getHistory() {
+        return Optional.ofNullable(this.history);
+    }
+
+    /**
+     * Run several operations which are undone and redone together. The sections changed by
+     * every operation are recorded as one history entry once the batch ends.
+     * Nested batches belong to the outermost one.
+     *
+     * @param operations The operations
+     */
+    public void batch(Runnable operations) {
+        if (this.history == null || this.batch != null) {
+            operations.run();
+            return;
+        }
+        EditHistory history = this.history;
+        this.batch = new EditHistory.Bytes();
+        try {
+            operations.run();
+        } finally {
+            EditHistory.Bytes deltas = this.batch;
+            this.batch = null;
+            if (deltas.length() > 0) {
+                history.record(deltas.toByteArray());
+            }
+        }
+    }
+
+    /**
+     * Combine a block id and data value into a block state.
+     *
+     * @param id   The block id
+     * @param data The data value
+     * @return Returns the block state
+     */
+    public static int state(int id, int data) {
+        return (id << 4) | (data & 0x0F);
+    }
+
+    /**
+     * Set every block in a box to a state.
+     *
+     * @param box   The box
+     * @param state The block state
+     */
+    public void fill(Box box, int state) {
+        forEachSection(box, true, (chunk, y, x0, y0, z0, x1, y1, z1) -> {
+            boolean missing = !chunk.getSection((byte) y).filter(section -> !section.isReadOnly()).isPresent();
+            if (missing && state == 0) {
+                return false;
+            }
+            Section section = chunk.getOrCreateSection(y);
+            if (isWholeSection(x0, y0, z0, x1, y1, z1)) {
+                section.fill(state);
+                return true;
+            }
+            int[] states = STATES.get();
+            section.copyBlockStatesInto(states, 0);
+            for (int by = y0; by <= y1; by++) {
+                for (int bz = z0; bz <= z1; bz++) {
+                    int row = (by << 8) | (bz << 4);
+                    Arrays.fill(states, row + x0, row + x1 + 1, state);
+                }
+            }
+            section.setBlockStates(states);
+            return true;
+        });
+    }
+
+    /**
+     * Replace every block of a state in a box with another state.
+     *
+     * @param box  The box
+     * @param from The state to replace
+     * @param to   The new state
+     */
+    public void replace(Box box, int from, int to) {
+        forEachSection(box, true, (chunk, y, x0, y0, z0, x1, y1, z1) -> {
+            Section existing = chunk.getSection((byte) y).get();
+            if (!existing.contains(from)) {
+                return false;
+            }
+            Section section = chunk.getOrCreateSection(y);
+            if (isWholeSection(x0, y0, z0, x1, y1, z1)) {
+                return section.replace(from, to);
+            }
+            int[] states = STATES.get();
+            section.copyBlockStatesInto(states, 0);
+            boolean changed = false;
+            for (int by = y0; by <= y1; by++) {
+                for (int bz = z0; bz <= z1; bz++) {
+                    int row = (by << 8) | (bz << 4);
+                    for (int i = row + x0; i <= row + x1; i++) {
+                        if (states[i] == from) {
+                            states[i] = to;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+            if (changed) {
+                section.setBlockStates(states);
+            }
+            return changed;
+        });
+    }
+
+    /**
+     * Copy the blocks in a box. Blocks of chunks which are not loaded are copied as air.
+     *
+     * @param box The box
+     * @return Returns a new clipboard holding the blocks
+     */
+    public Clipboard copy(Box box) {
+        Clipboard clipboard = new Clipboard(box.getWidth(), box.getHeight(), box.getLength());
+        int[] target = clipboard.getStates();
+        forEachSection(box, false, (chunk, y, x0, y0, z0, x1, y1, z1) -> {
+            int[] states = STATES.get();
+            chunk.getSection((byte) y).get().copyBlockStatesInto(states, 0);
+            int offsetX = (chunk.getX() << 4) - box.getMinX();
+            int offsetY = (y << 4) - box.getMinY();
+            int offsetZ = (chunk.getZ() << 4) - box.getMinZ();
+            for (int by = y0; by <= y1; by++) {
+                for (int bz = z0; bz <= z1; bz++) {
+                    System.arraycopy(states, (by << 8) | (bz << 4) | x0, target, clipboard.index(offsetX + x0, offsetY + by, offsetZ + bz), x1 - x0 + 1);
+                }
+            }
+            return false;
+        });
+        return clipboard;
+    }
+
+    /**
+     * Paste a clipboard, air included.
+     *
+     * @param clipboard The clipboard
+     * @param x         The x coordinate of the lowest corner
+     * @param y         The y coordinate of the lowest corner
+     * @param z         The z coordinate of the lowest corner
+     */
+    public void paste(Clipboard clipboard, int x, int y, int z) {
+        Box box = Box.of(x, y, z, x + clipboard.getWidth() - 1, y + clipboard.getHeight() - 1, z + clipboard.getLength() - 1);
+        int[] source = clipboard.getStates();
+        forEachSection(box, true, (chunk, sectionY, x0, y0, z0, x1, y1, z1) -> {
+            Section section = chunk.getOrCreateSection(sectionY);
+            int offsetX = (chunk.getX() << 4) - x;
+            int offsetY = (sectionY << 4) - y;
+            int offsetZ = (chunk.getZ() << 4) - z;
+            int[] states = STATES.get();
+            section.copyBlockStatesInto(states, 0);
+            for (int by = y0; by <= y1; by++) {
+                for (int bz = z0; bz <= z1; bz++) {
+                    System.arraycopy(source, clipboard.index(offsetX + x0, offsetY + by, offsetZ + bz), states, (by << 8) | (bz << 4) | x0, x1 - x0 + 1);
+                }
+            }
+            section.setBlockStates(states);
+            return true;
+        });
+    }
+
+    /**
+     * Place a template. Air blocks of the template are placed too.
+     *
+     * @param template The template
+     * @param x        The x coordinate of the template origin
+     * @param y        The y coordinate of the template origin
+     * @param z        The z coordinate of the template origin
+     */
+    public void place(BlockTemplate template, int x, int y, int z) {
+        forEachSection(template.getBounds(x, y, z), true, (chunk, sectionY, x0, y0, z0, x1, y1, z1) -> {
+            int offsetX = (chunk.getX() << 4) - x;
+            int offsetY = (sectionY << 4) - y;
+            int offsetZ = (chunk.getZ() << 4) - z;
+            int[] states = STATES.get();
+            Section section = null;
+            for (int i = 0; i < template.getBlockCount(); i++) {
+                int bx = template.getX(i) - offsetX;
+                int by = template.getY(i) - offsetY;
+                int bz = template.getZ(i) - offsetZ;
+                if (((bx | by | bz) & ~15) != 0) {
+                    continue;
+                }
+                if (section == null) {
+                    section = chunk.getOrCreateSection(sectionY);
+                    section.copyBlockStatesInto(states, 0);
+                }
+                states[(by << 8) | (bz << 4) | bx] = template.getBlockState(i);
+            }
+            if (section == null) {
+                return false;
+            }
+            section.setBlockStates(states);
+            return true;
+        });
+    }
+
+    /**
+     * Revert the latest operation recorded in the history.
+     *
+     * @return Returns if there was anything to undo
+     */
+    public boolean undo() {
+        return this.history != null && apply(this.history.undo());
+    }
+
+    /**
+     * Apply the latest undone operation again.
+     *
+     * @return Returns if there was anything to redo
+     */
+    public boolean redo() {
+        return this.history != null && apply(this.history.redo());
+    }
+
+    private boolean apply(Optional<byte[]> deltas) {
+        deltas.ifPresent(bytes -> EditHistory.decode(bytes, (chunkX, chunkZ, y, delta) -> this.world.editChunk(this.dimension, chunkX, chunkZ, chunk -> {
+            Section section = chunk.getOrCreateSection(y);
+            int[] states = STATES.get();
+            section.copyBlockStatesInto(states, 0);
+            delta.accept(states);
+            section.setBlockStates(states);
+            this.changedChunks.add(((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL));
+        })));
+        return deltas.isPresent();
+    }
+
+    /**
+     * Get the number of chunks changed by this editor which have not been relit yet.
+     *
+     * @return Returns the chunk count
+     */
+    public int getChangedChunkCount() {
+        return this.changedChunks.size();
+    }
+
+    /**
+     * Relight every chunk changed by this editor.
+     *
+     * @param engine The light engine of the world
+     */
+    public void relight(LightEngine engine) {
+        LightEngine.Batch batch = engine.batch(this.dimension);
+        for (long key : this.changedChunks) {
+            batch.chunkChanged((int) (key >> 32), (int) key);
+        }
+        this.changedChunks.clear();
+        batch.apply();
+    }
+
+    private static boolean isWholeSection(int x0, int y0, int z0, int x1, int y1, int z1) {
+        return x0 == 0 && y0 == 0 && z0 == 0 && x1 == 15 && y1 == 15 && z1 == 15;
+    }
+
+    private void forEachSection(Box box, boolean write, SectionTask task) {
+        EditHistory history = write ? this.history : null;
+        Queue<EditHistory.Bytes> deltas = new ConcurrentLinkedQueue<>();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int cx = box.getMinX() >> 4; cx <= box.getMaxX() >> 4; cx++) {
+            for (int cz = box.getMinZ() >> 4; cz <= box.getMaxZ() >> 4; cz++) {
+                int chunkX = cx;
+                int chunkZ = cz;
+                tasks.add(this.pool.submit(() -> {
+                    if (write) {
+                        EditHistory.Bytes chunkDeltas = history == null ? null : new EditHistory.Bytes();
+                        this.world.editChunk(this.dimension, chunkX, chunkZ, chunk -> {
+                            if (forEachSection(box, chunk, chunkDeltas == null ? task : recording(task, chunkDeltas))) {
+                                this.changedChunks.add(((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL));
+                            }
+                        });
+                        if (chunkDeltas != null && chunkDeltas.length() > 0) {
+                            deltas.add(chunkDeltas);
+                        }
+                    } else {
+                        this.world.readChunk(this.dimension, chunkX, chunkZ, chunk -> forEachSection(box, chunk, task));
+                    }
+                }));
+            }
+        }
+        for (ForkJoinTask<?> chunkTask : tasks) {
+            chunkTask.join();
+        }
+        if (!deltas.isEmpty()) {
+            EditHistory.Bytes all = this.batch != null ? this.batch : new EditHistory.Bytes();
+            deltas.forEach(all::write);
+            if (all != this.batch) {
+                history.record(all.toByteArray());
+            }
+        }
+    }
+
+    private static SectionTask recording(SectionTask task, EditHistory.Bytes deltas) {
+        return (chunk, y, x0, y0, z0, x1, y1, z1) -> {
+            int[] before = BEFORE.get();
+            chunk.getSection((byte) y).get().copyBlockStatesInto(before, 0);
+            if (!task.apply(chunk, y, x0, y0, z0, x1, y1, z1)) {
+                return false;
+            }
+            int[] after = STATES.get();
+            chunk.getSection((byte) y).get().copyBlockStatesInto(after, 0);
+            EditHistory.encode(deltas, chunk.getX(), chunk.getZ(), y, before, after);
+            return true;
+        };
+    }
+
+    private static boolean forEachSection(Box box, Chunk chunk, SectionTask task) {
+        int baseX = chunk.getX() << 4;
+        int baseZ = chunk.getZ() << 4;
+        int x0 = Math.max(box.getMinX() - baseX, 0);
+        int x1 = Math.min(box.getMaxX() - baseX, 15);
+        int z0 = Math.max(box.getMinZ() - baseZ, 0);
+        int z1 = Math.min(box.getMaxZ() - baseZ, 15);
+        boolean changed = false;
+        for (int y = box.getMinY() >> 4; y <= box.getMaxY() >> 4; y++) {
+            int y0 = Math.max(box.getMinY() - (y << 4), 0);
+            int y1 = Math.min(box.getMaxY() - (y << 4), 15);
+            changed |= task.apply(chunk, y, x0, y0, z0, x1, y1, z1);
+        }
+        return changed;
+    }
+
+    /**
+     * Works on the part of a box inside one section. Bounds are relative to the section and
+     * inclusive.
+     */
+    @FunctionalInterface
+    private interface SectionTask {
+
+        boolean apply(Chunk chunk, int y, int x0, int y0, int z0, int x1, int y1, int z1);
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+package org.blockedit.core.output;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Replaces a group of files so that a crash leaves either all old or all new copies. <p>Each file
+ * is written to a temporary sibling, named after the target with {@link #TEMP_SUFFIX} appended.
+ * {@link #commit()} forces every temporary file to disk in one batch, after all of them were
+ * written, and then renames them over their targets with an atomic move. Nothing is forced while
+ * the files are being written, so saving many files costs one sync per file rather than one per
+ * write.</p> <p>When a journal is used, the targets are appended to it as they are staged, and a
+ * commit record holding a checksum of the entries is appended and forced right before the first
+ * rename. {@link #recover(File)} then finishes an interrupted save: a journal with a valid commit
+ * record is rolled forward by moving the remaining temporary files, any other journal is rolled
+ * back by deleting them. Without a journal each rename is still atomic, but a crash may leave some
+ * files replaced and others not.</p> <p>Closing a save which was not committed rolls it back.</p>
+ *
+ * @author Jeff Chen
+ */
+@ParametersAreNonnullByDefault
+public final class AtomicSave implements Closeable {
+
+    public static final String TEMP_SUFFIX = ".blockedit.tmp";
+
+    private static final String HEADER = "BlockEdit save journal 1";
+    private static final String COMMIT = "commit ";
+
+    @Nullable
+    private final File journal;
+    @Nullable
+    private final BufferedWriter journalWriter;
+    private final CRC32 checksum = new CRC32();
+    private final Map<File, File> staged = new LinkedHashMap<>();
+    private final List<Closeable> streams = new ArrayList<>();
+    private boolean finished = false;
+
+    /**
+     * Start a save without a journal.
+     */
+    public AtomicSave() {
+        this.journal = null;
+        this.journalWriter = null;
+    }
+
+    /**
+     * Start a journaled save. A journal left behind by an interrupted save is recovered first.
+     *
+     * @param journal The journal file, usually in the root directory of the files being saved
+     * @throws IOException If the old journal could not be recovered or the new one created
+     */
+    public AtomicSave(File journal) throws IOException {
+        recover(journal);
+        this.journal = journal;
+        this.journalWriter = Files.newBufferedWriter(journal.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.journalWriter.write(HEADER);
+        this.journalWriter.newLine();
+    }
+
+    /**
+     * Get the temporary file a target is written to.
+     *
+     * @param target The target file
+     * @return Returns the temporary sibling of the target
+     */
+    public static File getTempFile(File target) {
+        return new File(target.getAbsoluteFile().getParentFile(), target.getName() + TEMP_SUFFIX);
+    }
+
+    /**
+     * Stage a file. The returned temporary file replaces the target on commit and may be written
+     * in any way, as long as it is closed before {@link #commit()} is called.
+     *
+     * @param target       The target file
+     * @param copyExisting If the temporary file starts as a copy of the target, for files which are
+     *                     updated in place such as region files
+     * @return Returns the temporary file
+     * @throws IOException If the file could not be staged
+     */
+    public File stage(File target, boolean copyExisting) throws IOException {
+        checkOpen();
+        File absolute = target.getAbsoluteFile();
+        File temp = this.staged.get(absolute);
+        if (temp != null) {
+            return temp;
+        }
+        temp = getTempFile(absolute);
+        if (this.journalWriter != null) {
+            String entry = entry(absolute);
+            this.journalWriter.write(entry);
+            this.journalWriter.newLine();
+            this.journalWriter.flush();
+            this.checksum.update(entry.getBytes(StandardCharsets.UTF_8));
+        }
+        this.staged.put(absolute, temp);
+        if (copyExisting && absolute.isFile()) {
+            Files.copy(absolute.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(temp.toPath());
+        }
+        return temp;
+    }
+
+    /**
+     * Stage a file and open a stream to its temporary file. The stream is closed on commit if it is
+     * still open.
+     *
+     * @param target The target file
+     * @return Returns the stream
+     * @throws IOException If the file could not be staged or opened
+     */
+    public OutputStream newOutputStream(File target) throws IOException {
+        OutputStream stream = Files.newOutputStream(stage(target, false).toPath());
+        this.streams.add(stream);
+        return stream;
+    }
+
+    /**
+     * Get the number of staged files.
+     *
+     * @return Returns the file count
+     */
+    public int getStagedCount() {
+        return this.staged.size();
+    }
+
+    /**
+     * Force the staged files to disk and move them over their targets.
+     *
+     * @throws IOException If a file could not be written or moved. Before the commit record is
+     *                     written the save is rolled back, afterwards it is rolled forward by
+     *                     {@link #recover(File)}.
+     */
+    public void commit() throws IOException {
+        checkOpen();
+        this.finished = true;
+        boolean recorded = false;
+        try {
+            for (Closeable stream : this.streams) {
+                stream.close();
+            }
+            for (File temp : this.staged.values()) {
+                force(temp.toPath());
+            }
+            if (this.journalWriter != null) {
+                this.journalWriter.write(COMMIT + this.staged.size() + " " + Long.toHexString(this.checksum.getValue()));
+                this.journalWriter.newLine();
+                this.journalWriter.close();
+                force(this.journal.toPath());
+            }
+            recorded = true;
+            Set<File> directories = new LinkedHashSet<>();
+            for (Map.Entry<File, File> entry : this.staged.entrySet()) {
+                move(entry.getValue(), entry.getKey());
+                directories.add(entry.getKey().getParentFile());
+            }
+            for (File directory : directories) {
+                forceDirectory(directory);
+            }
+            if (this.journal != null) {
+                Files.delete(this.journal.toPath());
+            }
+        } finally {
+            if (!recorded) {
+                rollback();
+            }
+        }
+    }
+
+    /**
+     * Roll back the save if it was not committed.
+     *
+     * @throws IOException If a temporary file or the journal could not be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        if (!this.finished) {
+            this.finished = true;
+            rollback();
+        }
+    }
+
+    /**
+     * Finish a save interrupted by a crash. A save which reached its commit record is rolled
+     * forward, any other save is rolled back. The journal is deleted afterwards.
+     *
+     * @param journal The journal file
+     * @return Returns if the save was rolled forward, or false if it was rolled back or there was
+     * no journal
+     * @throws IOException If the journal could not be read or a file could not be moved or deleted
+     */
+    public static boolean recover(File journal) throws IOException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        List<File> targets = new ArrayList<>();
+        CRC32 checksum = new CRC32();
+        boolean committed = false;
+        for (int i = 1; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.startsWith(COMMIT)) {
+                committed = line.equals(COMMIT + targets.size() + " " + Long.toHexString(checksum.getValue())) && lines.get(0).equals(HEADER);
+                break;
+            }
+            targets.add(resolve(journal, line));
+            checksum.update(line.getBytes(StandardCharsets.UTF_8));
+        }
+        Set<File> directories = new LinkedHashSet<>();
+        for (File target : targets) {
+            File temp = getTempFile(target);
+            if (committed) {
+                if (temp.isFile()) {
+                    move(temp, target);
+                    directories.add(target.getParentFile());
+                }
+            } else {
+                Files.deleteIfExists(temp.toPath());
+            }
+        }
+        for (File directory : directories) {
+            forceDirectory(directory);
+        }
+        Files.delete(journal.toPath());
+        return committed;
+    }
+
+    private void rollback() throws IOException {
+        IOException failure = null;
+        for (Closeable stream : this.streams) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        for (File temp : this.staged.values()) {
+            try {
+                Files.deleteIfExists(temp.toPath());
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (this.journal != null) {
+            try {
+                this.journalWriter.close();
+                Files.deleteIfExists(this.journal.toPath());
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void checkOpen() {
+        if (this.finished) {
+            throw new IllegalStateException("The save has already been committed or closed");
+        }
+    }
+
+    private String entry(File target) {
+        Path root = this.journal.getAbsoluteFile().getParentFile().toPath();
+        Path path = target.toPath();
+        return path.startsWith(root) ? root.relativize(path).toString().replace(File.separatorChar, '/') : path.toString();
+    }
+
+    private static File resolve(File journal, String entry) {
+        File file = new File(entry.replace('/', File.separatorChar));
+        return file.isAbsolute() ? file : new File(journal.getAbsoluteFile().getParentFile(), file.getPath());
+    }
+
+    private static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static void forceDirectory(File directory) {
+        // Directories can only be synced on some platforms, the rename is durable on the others
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+}
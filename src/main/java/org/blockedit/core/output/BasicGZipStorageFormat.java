@@ -19,51 +19,67 @@
 package org.blockedit.core.output;
 
 import org.blockedit.utils.Format;
+import org.jnbt.CompressionCodec;
+import org.jnbt.CompressionCodecs;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @ParametersAreNonnullByDefault
 public class BasicGZipStorageFormat implements Format {
 
+    private final CompressionCodec codec;
+
+    public BasicGZipStorageFormat() {
+        this(CompressionCodecs.GZIP);
+    }
+
+    /**
+     * Create a storage format compressing with a codec other than gzip.
+     *
+     * @param codec The codec
+     */
+    public BasicGZipStorageFormat(CompressionCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Write a string to a file. The file is written to a temporary sibling first and moved over
+     * the target once it is on disk, so a crash never leaves a partly written file.
+     *
+     * @param file The file
+     * @param s    The string
+     * @throws IOException If the file could not be written
+     */
     @Override
     public void write(File file, String s) throws IOException, NullPointerException {
         if (s == null || s.isEmpty()) {
             throw new NullPointerException("String s is null!");
         }
-        BufferedWriter writer;
-        GZIPOutputStream zip = new GZIPOutputStream(new FileOutputStream(file));
-        writer = new BufferedWriter(new OutputStreamWriter(zip, "UTF-8"));
-        writer.append(s);
-        if(writer != null) {
-            writer.close();
-        }
-        if(zip != null) {
-            zip.close();
+        try (AtomicSave save = new AtomicSave()) {
+            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(this.codec.compress(save.newOutputStream(file)), "UTF-8"))) {
+                writer.append(s);
+            }
+            save.commit();
         }
     }
 
     @Override
     public String read(File file) throws IOException {
-        GZIPInputStream zip = new GZIPInputStream(new FileInputStream(file));
-        BufferedReader reader = new BufferedReader(new InputStreamReader(zip, "UTF-8"));
-        String outString = "";
-        String line;
-        while((line = reader.readLine()) != null) {
-            outString += line;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(this.codec.decompress(new FileInputStream(file)), "UTF-8"))) {
+            String outString = "";
+            String line;
+            while((line = reader.readLine()) != null) {
+                outString += line;
+            }
+            return outString;
         }
-        zip.close();
-        reader.close();
-        return outString;
     }
 }
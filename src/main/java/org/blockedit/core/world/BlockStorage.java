@@ -0,0 +1,385 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.core.world;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Palette compressed storage for the 4096 block states of a section. <p>A block state is the
+ * block id shifted left by four bits, combined with the data value. Each distinct state is stored
+ * once in a palette and every block only stores its index into that palette, using 0, 1, 4, 8 or
+ * 12 bits depending on how many states the section holds. A section made of a single state
+ * therefore needs no index array at all.</p> <p>Storages of a single state are shared between
+ * sections and are never modified. Callers must {@link #copy()} a shared storage before calling
+ * {@link #set(int, int)}.</p>
+ *
+ * @author Jeff Chen
+ */
+final class BlockStorage {
+
+    static final int SIZE = 4096;
+
+    private static final int MAX_BITS = 12;
+
+    private static final Map<Integer, BlockStorage> UNIFORM = new ConcurrentHashMap<>();
+    private static final ThreadLocal<int[]> LOOKUP = ThreadLocal.withInitial(() -> {
+        int[] lookup = new int[1 << 16];
+        Arrays.fill(lookup, -1);
+        return lookup;
+    });
+
+    private final boolean shared;
+    private int[] palette;
+    private int paletteSize;
+    private int bits;
+    private long[] indices;
+
+    private BlockStorage(int[] palette, int paletteSize, int bits, long[] indices, boolean shared) {
+        this.palette = palette;
+        this.paletteSize = paletteSize;
+        this.bits = bits;
+        this.indices = indices;
+        this.shared = shared;
+    }
+
+    /**
+     * Get the shared storage in which every block has the same state.
+     *
+     * @param state The block state
+     * @return Returns the shared storage
+     */
+    static BlockStorage uniform(int state) {
+        return UNIFORM.computeIfAbsent(state, s -> new BlockStorage(new int[] {s}, 1, 0, null, true));
+    }
+
+    /**
+     * Pack the arrays of a section tag.
+     *
+     * @param blocks The 4096 low bytes of the block ids
+     * @param add    The high nibbles of the block ids, or an empty array
+     * @param data   The data values
+     * @return Returns the storage, which is shared if the section holds a single state
+     */
+    static BlockStorage of(byte[] blocks, byte[] add, byte[] data) {
+        int[] states = new int[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            int id = blocks[i] & 0xFF;
+            if (add.length != 0) {
+                id |= nibble(add, i) << 8;
+            }
+            states[i] = (id << 4) | nibble(data, i);
+        }
+        return of(states);
+    }
+
+    /**
+     * Pack an array of block states. Only the low 16 bits of each state are kept.
+     *
+     * @param states The 4096 block states, in YZX order
+     * @return Returns the storage, which is shared if the array holds a single state
+     */
+    static BlockStorage of(int[] states) {
+        int[] lookup = LOOKUP.get();
+        int[] palette = new int[16];
+        int paletteSize = 0;
+        for (int i = 0; i < SIZE; i++) {
+            int state = states[i] & 0xFFFF;
+            if (lookup[state] < 0) {
+                if (paletteSize == palette.length) {
+                    palette = Arrays.copyOf(palette, palette.length * 2);
+                }
+                lookup[state] = paletteSize;
+                palette[paletteSize++] = state;
+            }
+        }
+        try {
+            if (paletteSize == 1) {
+                return uniform(palette[0]);
+            }
+            int bits = bitsFor(paletteSize);
+            long[] indices = new long[longsFor(bits)];
+            int perLong = 64 / bits;
+            for (int i = 0; i < SIZE; i++) {
+                indices[i / perLong] |= (long) lookup[states[i] & 0xFFFF] << ((i % perLong) * bits);
+            }
+            return new BlockStorage(Arrays.copyOf(palette, paletteSize), paletteSize, bits, indices, false);
+        } finally {
+            for (int i = 0; i < paletteSize; i++) {
+                lookup[palette[i]] = -1;
+            }
+        }
+    }
+
+    /**
+     * Check if this storage is shared and must be copied before it is modified.
+     *
+     * @return Returns if the storage is shared
+     */
+    boolean isShared() {
+        return this.shared;
+    }
+
+    /**
+     * Check if every block has the same state.
+     *
+     * @return Returns if the storage holds a single state
+     */
+    boolean isUniform() {
+        return this.bits == 0;
+    }
+
+    int getBitsPerBlock() {
+        return this.bits;
+    }
+
+    int getPaletteSize() {
+        return this.paletteSize;
+    }
+
+    /**
+     * Get the state of a block.
+     *
+     * @param index The index of the block, in YZX order
+     * @return Returns the block state
+     */
+    int get(int index) {
+        if (this.bits == 0) {
+            return this.palette[0];
+        }
+        int perLong = 64 / this.bits;
+        long word = this.indices[index / perLong];
+        return this.palette[(int) (word >>> ((index % perLong) * this.bits)) & ((1 << this.bits) - 1)];
+    }
+
+    /**
+     * Set the state of a block, widening the indices when the palette outgrows them. States which
+     * are no longer used stay in the palette until it is full, at which point the storage is
+     * repacked with only the states still in use. Must not be called on a shared storage.
+     *
+     * @param index The index of the block, in YZX order
+     * @param state The block state
+     */
+    void set(int index, int state) {
+        if (this.shared) {
+            throw new IllegalStateException("Shared block storage must be copied before it is modified");
+        }
+        int paletteIndex = indexOf(state);
+        if (paletteIndex == 0 && this.bits == 0) {
+            return;
+        } else if (paletteIndex < 0) {
+            if (this.paletteSize == 1 << MAX_BITS) {
+                int[] states = toStates();
+                states[index] = state;
+                repack(of(states));
+                return;
+            }
+            if (this.paletteSize == this.palette.length) {
+                this.palette = Arrays.copyOf(this.palette, this.palette.length * 2);
+            }
+            paletteIndex = this.paletteSize;
+            this.palette[this.paletteSize++] = state;
+            int bits = bitsFor(this.paletteSize);
+            if (bits != this.bits) {
+                resize(bits);
+            }
+        }
+        int perLong = 64 / this.bits;
+        int shift = (index % perLong) * this.bits;
+        long mask = ((1L << this.bits) - 1) << shift;
+        int word = index / perLong;
+        this.indices[word] = (this.indices[word] & ~mask) | ((long) paletteIndex << shift);
+    }
+
+    /**
+     * Copy the state of every block into an array.
+     *
+     * @param dst    The destination
+     * @param offset The index of the first block in the destination
+     */
+    void copyInto(int[] dst, int offset) {
+        if (this.bits == 0) {
+            Arrays.fill(dst, offset, offset + SIZE, this.palette[0]);
+            return;
+        }
+        int perLong = 64 / this.bits;
+        int mask = (1 << this.bits) - 1;
+        int i = 0;
+        for (long word : this.indices) {
+            for (int j = 0; j < perLong && i < SIZE; j++, i++) {
+                dst[offset + i] = this.palette[(int) (word >>> (j * this.bits)) & mask];
+            }
+        }
+    }
+
+    /**
+     * Create an unshared copy of this storage, which may be modified.
+     *
+     * @return Returns the copy
+     */
+    BlockStorage copy() {
+        int[] palette = Arrays.copyOf(this.palette, Math.max(this.palette.length, 2));
+        long[] indices = this.indices == null ? null : this.indices.clone();
+        return new BlockStorage(palette, this.paletteSize, this.bits, indices, false);
+    }
+
+    /**
+     * Get the low bytes of the block ids, as stored in the <code>Blocks</code> tag.
+     *
+     * @return Returns a new array
+     */
+    byte[] toBlocks() {
+        int[] states = toStates();
+        byte[] blocks = new byte[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            blocks[i] = (byte) (states[i] >> 4);
+        }
+        return blocks;
+    }
+
+    /**
+     * Get the high nibbles of the block ids, as stored in the <code>Add</code> tag.
+     *
+     * @return Returns a new array, or an empty array if every id is below 256
+     */
+    byte[] toAdd() {
+        boolean needed = false;
+        for (int i = 0; i < this.paletteSize; i++) {
+            needed |= this.palette[i] >= 256 << 4;
+        }
+        if (!needed) {
+            return new byte[0];
+        }
+        int[] states = toStates();
+        byte[] add = new byte[SIZE / 2];
+        for (int i = 0; i < SIZE; i++) {
+            add[i >> 1] |= ((states[i] >> 12) & 0x0F) << ((i & 1) << 2);
+        }
+        return add;
+    }
+
+    /**
+     * Get the data values, as stored in the <code>Data</code> tag.
+     *
+     * @return Returns a new array
+     */
+    byte[] toData() {
+        int[] states = toStates();
+        byte[] data = new byte[SIZE / 2];
+        for (int i = 0; i < SIZE; i++) {
+            data[i >> 1] |= (states[i] & 0x0F) << ((i & 1) << 2);
+        }
+        return data;
+    }
+
+    /**
+     * Get the number of bytes held by this storage, not counting the object headers.
+     *
+     * @return Returns the size in bytes
+     */
+    int getSizeInBytes() {
+        return this.shared ? 0 : this.palette.length * 4 + (this.indices == null ? 0 : this.indices.length * 8);
+    }
+
+    static int nibble(byte[] array, int index) {
+        int packed = array[index >> 1];
+        return (index & 1) == 0 ? packed & 0x0F : (packed >> 4) & 0x0F;
+    }
+
+    private int[] toStates() {
+        int[] states = new int[SIZE];
+        copyInto(states, 0);
+        return states;
+    }
+
+    /**
+     * Change the state stored in a palette entry, which changes every block using it. Must not
+     * be called on a shared storage, and the new state must not already be in the palette.
+     *
+     * @param index The palette index
+     * @param state The new block state
+     */
+    void setPaletteEntry(int index, int state) {
+        if (this.shared) {
+            throw new IllegalStateException("Shared block storage must be copied before it is modified");
+        }
+        this.palette[index] = state;
+    }
+
+    /**
+     * Find a state in the palette.
+     *
+     * @param state The block state
+     * @return Returns the palette index, or -1 if no block has the state
+     */
+    int indexOf(int state) {
+        for (int i = 0; i < this.paletteSize; i++) {
+            if (this.palette[i] == state) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void repack(BlockStorage packed) {
+        this.palette = Arrays.copyOf(packed.palette, Math.max(packed.palette.length, 2));
+        this.paletteSize = packed.paletteSize;
+        this.bits = packed.bits;
+        this.indices = packed.indices;
+    }
+
+    private void resize(int bits) {
+        int[] states = new int[SIZE];
+        copyInto(states, 0);
+        int[] lookup = LOOKUP.get();
+        for (int i = 0; i < this.paletteSize; i++) {
+            lookup[this.palette[i]] = i;
+        }
+        long[] indices = new long[longsFor(bits)];
+        int perLong = 64 / bits;
+        for (int i = 0; i < SIZE; i++) {
+            int paletteIndex = lookup[states[i]];
+            indices[i / perLong] |= (long) paletteIndex << ((i % perLong) * bits);
+        }
+        for (int i = 0; i < this.paletteSize; i++) {
+            lookup[this.palette[i]] = -1;
+        }
+        this.indices = indices;
+        this.bits = bits;
+    }
+
+    private static int bitsFor(int paletteSize) {
+        if (paletteSize <= 1) {
+            return 0;
+        } else if (paletteSize <= 2) {
+            return 1;
+        } else if (paletteSize <= 16) {
+            return 4;
+        } else if (paletteSize <= 256) {
+            return 8;
+        }
+        return MAX_BITS;
+    }
+
+    private static int longsFor(int bits) {
+        int perLong = 64 / bits;
+        return (SIZE + perLong - 1) / perLong;
+    }
+}
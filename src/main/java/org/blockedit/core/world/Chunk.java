@@ -19,15 +19,32 @@
 package org.blockedit.core.world;
 
 import org.apache.commons.lang3.ArrayUtils;
+import org.blockedit.core.MalformedWorldException;
 import org.blockedit.exception.ParseException;
 import org.javatuples.Pair;
+import org.jnbt.ByteArrayTag;
+import org.jnbt.ByteTag;
+import org.jnbt.CompoundTag;
+import org.jnbt.IntArrayTag;
+import org.jnbt.IntTag;
+import org.jnbt.ListTag;
+import org.jnbt.LongTag;
+import org.jnbt.Tag;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public class Chunk {
 
-    private HashMap<Integer, Section> sections = new HashMap<>();
+    public static final int SECTIONS = 16;
+
+    private final Section[] sections;
     private int xPos = -1;
     private int zPos = -1;
     private long lastUpdate = -1;
@@ -35,9 +52,12 @@ public class Chunk {
     private boolean terrainPopulated = false;
     private long inhabitedTime = -1;
     private byte[] biomes = new byte[256];
-    private int[] heightMap = new int[1024];
+    private int[] heightMap = new int[256];
+    private Map<String, Tag> extraTags = new HashMap<>();
+    private Map<String, Tag> rootTags = new HashMap<>();
+    private boolean dirty = false;
 
-    private Chunk(HashMap<Integer, Section> sections, int xPos, int zPos, long lastUpdate, boolean lightPopulated, boolean terrainPopulated, long inhabitedTime, byte[] biomes, int[] heightMap) {
+    private Chunk(Section[] sections, int xPos, int zPos, long lastUpdate, boolean lightPopulated, boolean terrainPopulated, long inhabitedTime, byte[] biomes, int[] heightMap, Map<String, Tag> extraTags, Map<String, Tag> rootTags) {
         this.sections = sections;
         this.xPos = xPos;
         this.zPos = zPos;
@@ -47,31 +67,251 @@ public class Chunk {
         this.inhabitedTime = inhabitedTime;
         this.biomes = biomes;
         this.heightMap = heightMap;
+        this.extraTags = extraTags;
+        this.rootTags = rootTags;
     }
 
+    /**
+     * Get a section. A section which does not exist is returned as a shared, read only section of
+     * air, so this never allocates.
+     *
+     * @param y The section index, between 0 and 15
+     * @return Returns the section, or nothing if the index is out of range
+     */
     public Optional<Section> getSection(byte y) {
-        if(this.sections.containsKey(y)) {
-            return Optional.of(this.sections.get(y));
-        } else {
-            if(y >= 1 | y <= 16) {
-                try {
-                    return Optional.of(Section.empty(y));
-                } catch (ParseException e) {} //A exception should NEVER be thrown
-            } else {
-                return Optional.empty();
+        if (y < 0 || y >= SECTIONS) {
+            return Optional.empty();
+        }
+        Section section = this.sections[y];
+        return Optional.of(section != null ? section : Section.readOnlyEmpty(y));
+    }
+
+    /**
+     * Get a section for writing, creating an empty one if it does not exist yet.
+     *
+     * @param y The section index, between 0 and 15
+     * @return Returns the section
+     */
+    public Section getOrCreateSection(int y) {
+        Section section = this.sections[y];
+        if (section == null) {
+            try {
+                section = Section.empty((byte) y);
+            } catch (ParseException e) {
+                throw new IllegalStateException(e);
             }
+            this.sections[y] = section;
+            this.dirty = true;
         }
-        return Optional.empty();
+        return section;
     }
 
-    public HashMap<Integer, Section> getSections() {
-        return this.sections;
+    /**
+     * Get the sections which exist in this chunk, from the bottom up.
+     *
+     * @return Returns the sections
+     */
+    public List<Section> getSections() {
+        List<Section> sections = new ArrayList<>(SECTIONS);
+        for (Section section : this.sections) {
+            if (section != null) {
+                sections.add(section);
+            }
+        }
+        return sections;
+    }
+
+    /**
+     * Add a section which was read outside of {@link Loader}. The chunk is not marked dirty.
+     *
+     * @param section The section, between 0 and 15
+     */
+    void loadSection(Section section) {
+        this.sections[section.getY()] = section;
     }
 
     public Pair<Integer, Integer> getChunkPos() {
         return new Pair<>(this.xPos, this.zPos);
     }
 
+    public int getX() {
+        return this.xPos;
+    }
+
+    public int getZ() {
+        return this.zPos;
+    }
+
+    /**
+     * Get the state of a block. Coordinates are relative to the chunk.
+     *
+     * @param x The x coordinate, between 0 and 15
+     * @param y The y coordinate, between 0 and 255
+     * @param z The z coordinate, between 0 and 15
+     * @return Returns the block state, or 0 (air) if the section does not exist
+     */
+    public int getBlockState(int x, int y, int z) {
+        Section section = this.sections[y >> 4];
+        return section == null ? 0 : section.getBlockState(x, y & 15, z);
+    }
+
+    /**
+     * Set a block, creating its section if needed. Coordinates are relative to the chunk.
+     *
+     * @param x    The x coordinate, between 0 and 15
+     * @param y    The y coordinate, between 0 and 255
+     * @param z    The z coordinate, between 0 and 15
+     * @param id   The block id
+     * @param data The data value
+     */
+    public void setBlock(int x, int y, int z, int id, int data) {
+        if (this.sections[y >> 4] == null && id == 0 && data == 0) {
+            return;
+        }
+        getOrCreateSection(y >> 4).setBlock(x, y & 15, z, id, data);
+    }
+
+    /**
+     * Get the light emitted by blocks at a position. Coordinates are relative to the chunk.
+     *
+     * @param x The x coordinate, between 0 and 15
+     * @param y The y coordinate, between 0 and 255
+     * @param z The z coordinate, between 0 and 15
+     * @return Returns the block light, or 0 if the section does not exist
+     */
+    public int getBlockLight(int x, int y, int z) {
+        Section section = this.sections[y >> 4];
+        return section == null ? 0 : section.getBlockLight(x, y & 15, z);
+    }
+
+    /**
+     * Get the light from the sky at a position. Coordinates are relative to the chunk.
+     *
+     * @param x The x coordinate, between 0 and 15
+     * @param y The y coordinate, between 0 and 255
+     * @param z The z coordinate, between 0 and 15
+     * @return Returns the sky light, or 15 if the section does not exist
+     */
+    public int getSkyLight(int x, int y, int z) {
+        Section section = this.sections[y >> 4];
+        return section == null ? 15 : section.getSkyLight(x, y & 15, z);
+    }
+
+    /**
+     * Set the light emitted by blocks at a position. A missing section is only created if the
+     * light differs from what is assumed for it.
+     *
+     * @param x     The x coordinate, between 0 and 15
+     * @param y     The y coordinate, between 0 and 255
+     * @param z     The z coordinate, between 0 and 15
+     * @param light The block light, between 0 and 15
+     */
+    public void setBlockLight(int x, int y, int z, int light) {
+        if (this.sections[y >> 4] != null || light != 0) {
+            getOrCreateSection(y >> 4).setBlockLight(x, y & 15, z, light);
+        }
+    }
+
+    /**
+     * Set the light from the sky at a position. A missing section is only created if the light
+     * differs from what is assumed for it.
+     *
+     * @param x     The x coordinate, between 0 and 15
+     * @param y     The y coordinate, between 0 and 255
+     * @param z     The z coordinate, between 0 and 15
+     * @param light The sky light, between 0 and 15
+     */
+    public void setSkyLight(int x, int y, int z, int light) {
+        if (this.sections[y >> 4] != null || light != 15) {
+            getOrCreateSection(y >> 4).setSkyLight(x, y & 15, z, light);
+        }
+    }
+
+    /**
+     * Get the biome of a column.
+     *
+     * @param x The x coordinate, between 0 and 15
+     * @param z The z coordinate, between 0 and 15
+     * @return Returns the biome id, or 255 if the biome has not been generated
+     */
+    public int getBiome(int x, int z) {
+        return this.biomes[(z << 4) | x] & 0xFF;
+    }
+
+    /**
+     * Get the lowest height at which the sky is fully visible in a column.
+     *
+     * @param x The x coordinate, between 0 and 15
+     * @param z The z coordinate, between 0 and 15
+     * @return Returns the height
+     */
+    public int getHeight(int x, int z) {
+        return this.heightMap[(z << 4) | x];
+    }
+
+    public void setHeight(int x, int z, int height) {
+        if (this.heightMap[(z << 4) | x] != height) {
+            this.heightMap[(z << 4) | x] = height;
+            this.dirty = true;
+        }
+    }
+
+    public boolean isLightPopulated() {
+        return this.lightPopulated;
+    }
+
+    public void setLightPopulated(boolean lightPopulated) {
+        if (this.lightPopulated != lightPopulated) {
+            this.lightPopulated = lightPopulated;
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Get the tags of the chunk which are not decoded by {@link Chunk}, such as
+     * <code>Entities</code> and <code>TileEntities</code>. They are written back unchanged.
+     *
+     * @return Returns the tags, keyed by name
+     */
+    public Map<String, Tag> getExtraTags() {
+        return this.extraTags;
+    }
+
+    /**
+     * Check if the chunk or any of its sections has been modified since it was loaded or last
+     * saved.
+     *
+     * @return Returns if the chunk must be saved
+     */
+    public boolean isDirty() {
+        if (this.dirty) {
+            return true;
+        }
+        for (Section section : this.sections) {
+            if (section != null && section.isDirty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Mark the chunk as modified, for changes made outside of its setters such as to the extra
+     * tags.
+     */
+    public void markDirty() {
+        this.dirty = true;
+    }
+
+    void markClean() {
+        this.dirty = false;
+        for (Section section : this.sections) {
+            if (section != null) {
+                section.markClean();
+            }
+        }
+    }
+
     public Optional<Long> getLastChunkUpdate() {
         if(this.lastUpdate > 0) {
             return Optional.of(this.lastUpdate);
@@ -82,30 +322,52 @@ public class Chunk {
 
     public static class Builder {
 
-        private HashMap<Integer, Section> sections = new HashMap<>();
+        private Section[] sections = new Section[SECTIONS];
         private int xPos = -1;
         private int zPos = -1;
+        private boolean positionSet = false;
         private long lastUpdate = -1;
         private boolean lightPopulated = false;
         private boolean terrainPopulated = false;
         private long inhabitedTime = -1;
         private byte[] biomes = new byte[256];
-        private int[] heightMap = new int[1024];
+        private int[] heightMap = new int[256];
+        private Map<String, Tag> extraTags = new HashMap<>();
+        private Map<String, Tag> rootTags = new HashMap<>();
 
+        /**
+         * Add a section. Sections outside of the 16 block sections, such as the light only
+         * sections of newer versions, are ignored.
+         *
+         * @param section The section
+         * @return Returns this builder, for chaining
+         */
         public Builder addSection(Section section) {
-            if (sections.size() <= 16) {
-                this.sections.put(section.getY(), section);
+            if (section.getY() >= 0 && section.getY() < SECTIONS) {
+                this.sections[section.getY()] = section;
             }
             return this;
         }
 
         public Builder xPos(int i) {
-            this.xPos = 1;
+            this.xPos = i;
+            this.positionSet = true;
             return this;
         }
 
         public Builder zPos(int i) {
-            this.zPos = 1;
+            this.zPos = i;
+            this.positionSet = true;
+            return this;
+        }
+
+        public Builder lastUpdate(long l) {
+            this.lastUpdate = l;
+            return this;
+        }
+
+        public Builder inhabitedTime(long l) {
+            this.inhabitedTime = l;
             return this;
         }
 
@@ -129,11 +391,179 @@ public class Chunk {
             return this;
         }
 
+        /**
+         * Set the tags which are kept as they are and written back when the chunk is saved.
+         *
+         * @param tags The tags, keyed by name
+         * @return Returns this builder, for chaining
+         */
+        public Builder extraTags(Map<String, Tag> tags) {
+            this.extraTags = tags;
+            return this;
+        }
+
+        /**
+         * Set the tags stored next to the <code>Level</code> tag, such as
+         * <code>DataVersion</code>.
+         *
+         * @param tags The tags, keyed by name
+         * @return Returns this builder, for chaining
+         */
+        public Builder rootTags(Map<String, Tag> tags) {
+            this.rootTags = tags;
+            return this;
+        }
+
         public Chunk build() throws ParseException {
-            if (this.sections.isEmpty() || this.xPos == -1 || this.zPos == -1 || ArrayUtils.isEmpty(this.biomes) || ArrayUtils.isEmpty(this.heightMap)) {
+            if (!this.positionSet || ArrayUtils.isEmpty(this.biomes) || ArrayUtils.isEmpty(this.heightMap)) {
                 throw new ParseException("Build failed: A value was unset.");
             }
-            return new Chunk(this.sections, this.xPos, this.zPos, this.lastUpdate, this.lightPopulated, this.terrainPopulated, this.inhabitedTime, this.biomes, this.heightMap);
+            if (this.heightMap.length < 256) {
+                throw new ParseException("Build failed: The height map must hold 256 values.");
+            }
+            return new Chunk(this.sections.clone(), this.xPos, this.zPos, this.lastUpdate, this.lightPopulated, this.terrainPopulated, this.inhabitedTime, this.biomes, this.heightMap, this.extraTags, this.rootTags);
+        }
+    }
+
+    /**
+     * Converts the NBT of a single chunk, as stored in a region file, into a {@link Chunk}.
+     */
+    public static class Loader {
+
+        private static final Set<String> DECODED_TAGS = new HashSet<>(Arrays.asList("xPos", "zPos", "LastUpdate", "InhabitedTime", "LightPopulated", "TerrainPopulated", "Biomes", "HeightMap", "Sections"));
+
+        private final CompoundTag root;
+
+        public Loader(CompoundTag root) {
+            this.root = root;
+        }
+
+        /**
+         * Load the chunk.
+         *
+         * @return Returns a new instance of {@link Chunk}
+         * @throws MalformedWorldException If a required tag is missing or has the wrong type
+         */
+        public Chunk load() throws MalformedWorldException {
+            Map<String, Tag> level = getTag(this.root.getValue(), "Level", CompoundTag.class).getValue();
+            Builder builder = new Builder()
+                    .xPos(getTag(level, "xPos", IntTag.class).getValue())
+                    .zPos(getTag(level, "zPos", IntTag.class).getValue());
+            if (level.get("LastUpdate") instanceof LongTag) {
+                builder.lastUpdate(((LongTag) level.get("LastUpdate")).getValue());
+            }
+            if (level.get("InhabitedTime") instanceof LongTag) {
+                builder.inhabitedTime(((LongTag) level.get("InhabitedTime")).getValue());
+            }
+            if (level.get("LightPopulated") instanceof ByteTag) {
+                builder.lightPopulated(((ByteTag) level.get("LightPopulated")).getValue() != 0);
+            }
+            if (level.get("TerrainPopulated") instanceof ByteTag) {
+                builder.terrainPopulated(((ByteTag) level.get("TerrainPopulated")).getValue() != 0);
+            }
+            if (level.get("Biomes") instanceof ByteArrayTag) {
+                builder.biomes(((ByteArrayTag) level.get("Biomes")).getValue());
+            }
+            if (level.get("HeightMap") instanceof IntArrayTag) {
+                builder.heightMap(((IntArrayTag) level.get("HeightMap")).getValue());
+            }
+            if (level.get("Sections") instanceof ListTag) {
+                for (Tag sectionTag : ((ListTag) level.get("Sections")).getValue()) {
+                    if (sectionTag instanceof CompoundTag) {
+                        builder.addSection(loadSection(((CompoundTag) sectionTag).getValue()));
+                    }
+                }
+            }
+            Map<String, Tag> extraTags = new HashMap<>();
+            for (Map.Entry<String, Tag> entry : level.entrySet()) {
+                if (!DECODED_TAGS.contains(entry.getKey())) {
+                    extraTags.put(entry.getKey(), entry.getValue());
+                }
+            }
+            Map<String, Tag> rootTags = new HashMap<>(this.root.getValue());
+            rootTags.remove("Level");
+            builder.extraTags(extraTags).rootTags(rootTags);
+            try {
+                return builder.build();
+            } catch (ParseException e) {
+                throw new MalformedWorldException(e.getMessage());
+            }
+        }
+
+        private static Section loadSection(Map<String, Tag> section) throws MalformedWorldException {
+            try {
+                Section.Builder builder = new Section.Builder()
+                        .y(getTag(section, "Y", ByteTag.class).getValue())
+                        .blocks(getTag(section, "Blocks", ByteArrayTag.class).getValue())
+                        .data(getTag(section, "Data", ByteArrayTag.class).getValue())
+                        .blockLight(getTag(section, "BlockLight", ByteArrayTag.class).getValue())
+                        .skyLight(getTag(section, "SkyLight", ByteArrayTag.class).getValue());
+                if (section.get("Add") instanceof ByteArrayTag) {
+                    builder.add(((ByteArrayTag) section.get("Add")).getValue());
+                }
+                return builder.build().get();
+            } catch (ParseException e) {
+                throw new MalformedWorldException(e.getMessage());
+            }
+        }
+
+        private static <T extends Tag> T getTag(Map<String, Tag> tags, String name, Class<T> type) throws MalformedWorldException {
+            Tag tag = tags.get(name);
+            if (!type.isInstance(tag)) {
+                throw new MalformedWorldException("Missing or invalid chunk tag: " + name);
+            }
+            return type.cast(tag);
+        }
+    }
+
+    /**
+     * Converts a {@link Chunk} back into the NBT stored in a region file.
+     */
+    public static class Exporter {
+
+        private final Chunk chunk;
+
+        public Exporter(Chunk chunk) {
+            this.chunk = chunk;
+        }
+
+        /**
+         * Build the root tag of the chunk. Arrays are copied, so the tag may be encoded after the
+         * chunk has been modified again.
+         *
+         * @return Returns the root tag, holding the <code>Level</code> tag
+         */
+        public CompoundTag toTag() {
+            return toTag(true);
+        }
+
+        /**
+         * Build the root tag of the chunk, leaving out the <code>Sections</code> list if asked to.
+         *
+         * @param withSections If the sections are included
+         * @return Returns the root tag, holding the <code>Level</code> tag
+         */
+        CompoundTag toTag(boolean withSections) {
+            Chunk chunk = this.chunk;
+            Map<String, Tag> level = new HashMap<>(chunk.extraTags);
+            level.put("xPos", new IntTag("xPos", chunk.xPos));
+            level.put("zPos", new IntTag("zPos", chunk.zPos));
+            level.put("LastUpdate", new LongTag("LastUpdate", Math.max(chunk.lastUpdate, 0)));
+            level.put("InhabitedTime", new LongTag("InhabitedTime", Math.max(chunk.inhabitedTime, 0)));
+            level.put("LightPopulated", new ByteTag("LightPopulated", (byte) (chunk.lightPopulated ? 1 : 0)));
+            level.put("TerrainPopulated", new ByteTag("TerrainPopulated", (byte) (chunk.terrainPopulated ? 1 : 0)));
+            level.put("Biomes", new ByteArrayTag("Biomes", chunk.biomes.clone()));
+            level.put("HeightMap", new IntArrayTag("HeightMap", chunk.heightMap.clone()));
+            if (withSections) {
+                List<Tag> sections = new ArrayList<>(SECTIONS);
+                for (Section section : chunk.getSections()) {
+                    sections.add(section.toTag());
+                }
+                level.put("Sections", new ListTag("Sections", CompoundTag.class, sections));
+            }
+            Map<String, Tag> root = new HashMap<>(chunk.rootTags);
+            root.put("Level", new CompoundTag("Level", level));
+            return new CompoundTag("", root);
         }
     }
 }
@@ -0,0 +1,805 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.core.world;
+
+import org.blockedit.core.MalformedWorldException;
+import org.jnbt.ByteArrayTag;
+import org.jnbt.ByteTag;
+import org.jnbt.CompoundTag;
+import org.jnbt.ListTag;
+import org.jnbt.NBTBufferReader;
+import org.jnbt.NBTOutputStream;
+import org.jnbt.Tag;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Pages the chunks of a world in and out of off-heap memory, so worlds far larger than the heap can
+ * be browsed without the garbage collector having to trace every loaded block. <p>Memory is handed
+ * out in blocks of {@link #BLOCK_BYTES} carved out of large direct buffers (slabs), which are
+ * allocated lazily up to the byte budget. Each section takes three blocks: two hold its 4096 block
+ * states as shorts in YZX order, and one holds its block light and sky light as stored in the
+ * section tag. The rest of the chunk, such as its height map, biomes and entities, is kept as
+ * uncompressed NBT in further blocks. The heap only holds a small handle per chunk listing its
+ * blocks.</p> <p>{@link #getBlockState(Dimension, int, int, int)} and {@link
+ * #setBlockState(Dimension, int, int, int, int)} work on the slabs in place. {@link
+ * #getChunk(Dimension, int, int)} builds a detached {@link Chunk} from them, whose changes are only
+ * kept once it is put back with {@link #putChunk(Dimension, Chunk)}. Cached chunks are found
+ * without locking the cache: each handle has its own {@link StampedLock}, which readers only take
+ * if the chunk was written or evicted meanwhile. Loading, storing and evicting chunks are
+ * serialized.</p> <p>When the budget is used up, chunks are evicted in CLOCK order, so chunks used
+ * since the clock hand last passed them get a second chance. Dirty chunks are written back to
+ * their region file when they are evicted, flushed or when the cache is closed. At most {@link
+ * #maxOpenRegions(int)} region files are kept open, closing the least recently used one when
+ * another is needed.</p> <p>{@link World.Loader#cache(long)} loads a world which reads and writes
+ * its chunks through a cache.</p>
+ *
+ * @author Jeff Chen
+ */
+public final class ChunkCache implements Closeable {
+
+    public static final int BLOCK_BYTES = 4096;
+    public static final int DEFAULT_MAX_OPEN_REGIONS = 64;
+
+    private static final int SECTION_BLOCKS = 3;
+    private static final int MIN_BLOCKS = Chunk.SECTIONS * SECTION_BLOCKS + 16;
+    private static final int SLAB_BYTES = 16 * 1024 * 1024;
+
+    private final File directory;
+    private final int maxBlocks;
+    private final int blocksPerSlab;
+    private final ByteBuffer[] slabs;
+    private final Map<Key, Handle> handles = new ConcurrentHashMap<>();
+    private final List<Handle> clock = new ArrayList<>();
+    private final LinkedHashMap<File, RegionFile> regions = new LinkedHashMap<>(16, 0.75f, true);
+    private final int[] states = new int[4096];
+    private final LongAdder hits = new LongAdder();
+    private int maxOpenRegions = DEFAULT_MAX_OPEN_REGIONS;
+    private int hand = 0;
+    private int[] freeBlocks = new int[0];
+    private int freeCount = 0;
+    private int allocatedBlocks = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Create a cache for a world.
+     *
+     * @param directory  The world directory
+     * @param byteBudget The most off-heap memory the cache may use, at least 256 KiB
+     */
+    public ChunkCache(File directory, long byteBudget) {
+        if (byteBudget < (long) MIN_BLOCKS * BLOCK_BYTES) {
+            throw new IllegalArgumentException("The budget must be at least " + MIN_BLOCKS * BLOCK_BYTES + " bytes");
+        }
+        this.directory = directory;
+        this.maxBlocks = (int) Math.min(byteBudget / BLOCK_BYTES, Integer.MAX_VALUE);
+        this.blocksPerSlab = Math.min(SLAB_BYTES / BLOCK_BYTES, this.maxBlocks);
+        this.slabs = new ByteBuffer[(this.maxBlocks + this.blocksPerSlab - 1) / this.blocksPerSlab];
+    }
+
+    /**
+     * Set how many region files may be open at once. Each open region holds a file descriptor and
+     * its mapped header, so the least recently used region is closed when the limit is reached.
+     *
+     * @param maxOpenRegions The limit, at least 1
+     * @return Returns this cache, for chaining
+     * @throws IOException If a region file could not be closed
+     */
+    public synchronized ChunkCache maxOpenRegions(int maxOpenRegions) throws IOException {
+        if (maxOpenRegions < 1) {
+            throw new IllegalArgumentException("At least one region must be allowed");
+        }
+        this.maxOpenRegions = maxOpenRegions;
+        closeEldestRegions();
+        return this;
+    }
+
+    /**
+     * Get the state of a block from its cached section, reading the chunk from its region file if
+     * it is not cached. No {@link Chunk} is built.
+     *
+     * @param dimension The dimension
+     * @param x         The block x coordinate
+     * @param y         The block y coordinate, between 0 and 255
+     * @param z         The block z coordinate
+     * @return Returns the block state, or 0 (air) if the chunk has not been generated
+     * @throws IOException             If the region file could not be read or written
+     * @throws MalformedWorldException If the chunk is corrupted
+     */
+    public int getBlockState(Dimension dimension, int x, int y, int z) throws IOException, MalformedWorldException {
+        Key key = new Key(dimension, x >> 4, z >> 4);
+        int index = Section.index(x & 15, y & 15, z & 15);
+        for (;;) {
+            Handle handle = handle(key);
+            if (handle == null) {
+                return 0;
+            }
+            long stamp = handle.lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    int state = readState(handle, y >> 4, index);
+                    boolean evicted = handle.evicted;
+                    if (handle.lock.validate(stamp) && !evicted) {
+                        return state;
+                    }
+                } catch (RuntimeException e) {
+                    // A section was added meanwhile, retry under the read lock
+                }
+            }
+            stamp = handle.lock.readLock();
+            try {
+                if (!handle.evicted) {
+                    return readState(handle, y >> 4, index);
+                }
+            } finally {
+                handle.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /**
+     * Set the state of a block in its cached section, reading the chunk from its region file if
+     * it is not cached. Only a missing section is allocated; no {@link Chunk} is built.
+     *
+     * @param dimension The dimension
+     * @param x         The block x coordinate
+     * @param y         The block y coordinate, between 0 and 255
+     * @param z         The block z coordinate
+     * @param state     The block state, of which only the low 16 bits are kept
+     * @return Returns if the chunk exists and the block was set
+     * @throws IOException             If a region file could not be read or written
+     * @throws MalformedWorldException If a chunk is corrupted
+     */
+    public boolean setBlockState(Dimension dimension, int x, int y, int z, int state) throws IOException, MalformedWorldException {
+        Key key = new Key(dimension, x >> 4, z >> 4);
+        int index = Section.index(x & 15, y & 15, z & 15);
+        state &= 0xFFFF;
+        for (;;) {
+            Handle handle = handle(key);
+            if (handle == null) {
+                return false;
+            }
+            if (handle.sections[(y >> 4) * SECTION_BLOCKS] < 0 && state != 0 && !addSection(handle, y >> 4)) {
+                continue;
+            }
+            long stamp = handle.lock.writeLock();
+            try {
+                if (handle.evicted) {
+                    continue;
+                }
+                int block = handle.sections[(y >> 4) * SECTION_BLOCKS + (index >> 11)];
+                if (block >= 0) {
+                    slab(block).putShort(offset(block) + ((index & 2047) << 1), (short) state);
+                    handle.dirty = true;
+                }
+                return true;
+            } finally {
+                handle.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Build a chunk from its cached sections, reading it from its region file if it is not
+     * cached. The chunk is detached from the cache: changes to it are only kept once it is put
+     * back.
+     *
+     * @param dimension The dimension
+     * @param x         The chunk x coordinate
+     * @param z         The chunk z coordinate
+     * @return Returns a new chunk, or nothing if the chunk has not been generated
+     * @throws IOException             If the region file could not be read or written
+     * @throws MalformedWorldException If the chunk is corrupted
+     */
+    public Optional<Chunk> getChunk(Dimension dimension, int x, int z) throws IOException, MalformedWorldException {
+        Key key = new Key(dimension, x, z);
+        for (;;) {
+            Handle handle = handle(key);
+            if (handle == null) {
+                return Optional.empty();
+            }
+            long stamp = handle.lock.readLock();
+            try {
+                if (!handle.evicted) {
+                    return Optional.of(toChunk(handle));
+                }
+            } finally {
+                handle.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /**
+     * Store a chunk in the cache, replacing the cached copy. Dirty chunks are written to their
+     * region file when they are evicted, flushed or when the cache is closed. A chunk too large
+     * for the budget is written to its region file at once instead.
+     *
+     * @param dimension The dimension
+     * @param chunk     The chunk
+     * @throws IOException             If a region file could not be written
+     * @throws MalformedWorldException If a region file is corrupted
+     */
+    public synchronized void putChunk(Dimension dimension, Chunk chunk) throws IOException, MalformedWorldException {
+        Key key = new Key(dimension, chunk.getX(), chunk.getZ());
+        boolean dirty = chunk.isDirty();
+        Handle old = this.handles.get(key);
+        if (old != null) {
+            dirty |= remove(old, false);
+        }
+        List<Section> sections = chunk.getSections();
+        int sectionMask = 0;
+        for (Section section : sections) {
+            sectionMask |= 1 << section.getY();
+        }
+        Handle handle = allocate(key, sectionMask, encode(new Chunk.Exporter(chunk).toTag(false)), dirty);
+        if (handle == null) {
+            if (dirty) {
+                region(dimension, chunk.getX(), chunk.getZ(), true).writeChunk(chunk);
+            }
+        } else {
+            for (Section section : sections) {
+                section.copyBlockStatesInto(this.states, 0);
+                writeStates(handle, section.getY(), this.states);
+                section.putLight(block(handle.sections[section.getY() * SECTION_BLOCKS + 2]));
+            }
+            publish(handle);
+        }
+        chunk.markClean();
+    }
+
+    /**
+     * Write every dirty chunk back to its region file. The chunks stay cached.
+     *
+     * @return Returns the number of chunks written
+     * @throws IOException             If a region file could not be written
+     * @throws MalformedWorldException If a region file is corrupted
+     */
+    public synchronized int flush() throws IOException, MalformedWorldException {
+        int written = 0;
+        for (Handle handle : this.clock) {
+            long stamp = handle.lock.readLock();
+            try {
+                if (handle.dirty) {
+                    writeBack(handle);
+                    written++;
+                }
+            } finally {
+                handle.lock.unlockRead(stamp);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Get the off-heap memory holding cached chunks.
+     *
+     * @return Returns the size in bytes
+     */
+    public synchronized long getUsedBytes() {
+        return (long) (this.allocatedBlocks - this.freeCount) * BLOCK_BYTES;
+    }
+
+    public long getCapacity() {
+        return (long) this.maxBlocks * BLOCK_BYTES;
+    }
+
+    public int size() {
+        return this.handles.size();
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    /**
+     * Write back every dirty chunk, close the region files and drop the cached chunks. The cache
+     * must not be used afterwards.
+     *
+     * @throws IOException If a region file could not be written or closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } catch (MalformedWorldException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            for (RegionFile region : this.regions.values()) {
+                region.close();
+            }
+            this.regions.clear();
+            this.handles.clear();
+            this.clock.clear();
+            Arrays.fill(this.slabs, null);
+            this.freeCount = 0;
+            this.allocatedBlocks = 0;
+        }
+    }
+
+    private Handle handle(Key key) throws IOException, MalformedWorldException {
+        Handle handle = this.handles.get(key);
+        if (handle == null) {
+            return load(key);
+        }
+        if (!handle.referenced) {
+            handle.referenced = true;
+        }
+        this.hits.increment();
+        return handle;
+    }
+
+    private synchronized Handle load(Key key) throws IOException, MalformedWorldException {
+        Handle handle = this.handles.get(key);
+        if (handle != null) {
+            return handle;
+        }
+        this.misses++;
+        if (!regionFile(key.dimension, key.x, key.z).isFile()) {
+            return null;
+        }
+        Optional<CompoundTag> tag = region(key.dimension, key.x, key.z, false).readChunkTag(key.x, key.z);
+        if (!tag.isPresent()) {
+            return null;
+        }
+        return store(key, tag.get());
+    }
+
+    /**
+     * Cache the NBT of a chunk read from its region file, unpacking its sections into the slabs.
+     */
+    private Handle store(Key key, CompoundTag root) throws IOException, MalformedWorldException {
+        Map<String, Tag> rootTags = new LinkedHashMap<>(root.getValue());
+        if (!(rootTags.get("Level") instanceof CompoundTag)) {
+            throw new MalformedWorldException("Missing or invalid chunk tag: Level");
+        }
+        Map<String, Tag> level = new LinkedHashMap<>(((CompoundTag) rootTags.get("Level")).getValue());
+        Tag sectionList = level.remove("Sections");
+        rootTags.put("Level", new CompoundTag("Level", level));
+        Map<String, Tag>[] sections = sections(sectionList);
+        int sectionMask = 0;
+        for (int y = 0; y < Chunk.SECTIONS; y++) {
+            if (sections[y] != null) {
+                sectionMask |= 1 << y;
+            }
+        }
+        Handle handle = allocate(key, sectionMask, encode(new CompoundTag(root.getName(), rootTags)), false);
+        if (handle == null) {
+            throw new IOException("Chunk " + key.x + ", " + key.z + " does not fit in a cache of " + getCapacity() + " bytes");
+        }
+        for (int y = 0; y < Chunk.SECTIONS; y++) {
+            if (sections[y] != null) {
+                byte[] blocks = getArray(sections[y], "Blocks", 4096);
+                byte[] data = getArray(sections[y], "Data", 2048);
+                byte[] add = sections[y].get("Add") instanceof ByteArrayTag ? getArray(sections[y], "Add", 2048) : null;
+                for (int i = 0; i < 4096; i++) {
+                    int id = blocks[i] & 0xFF;
+                    if (add != null) {
+                        id |= BlockStorage.nibble(add, i) << 8;
+                    }
+                    this.states[i] = (id << 4) | BlockStorage.nibble(data, i);
+                }
+                writeStates(handle, y, this.states);
+                block(handle.sections[y * SECTION_BLOCKS + 2]).put(getArray(sections[y], "BlockLight", 2048)).put(getArray(sections[y], "SkyLight", 2048));
+            }
+        }
+        publish(handle);
+        return handle;
+    }
+
+    /**
+     * Find the block sections of a <code>Sections</code> list and check their arrays. Sections
+     * outside of the 16 block sections are dropped, as {@link Chunk.Loader} does.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Tag>[] sections(Tag sectionList) throws MalformedWorldException {
+        Map<String, Tag>[] sections = new Map[Chunk.SECTIONS];
+        if (!(sectionList instanceof ListTag)) {
+            return sections;
+        }
+        for (Tag sectionTag : ((ListTag) sectionList).getValue()) {
+            if (!(sectionTag instanceof CompoundTag)) {
+                continue;
+            }
+            Map<String, Tag> section = ((CompoundTag) sectionTag).getValue();
+            if (!(section.get("Y") instanceof ByteTag)) {
+                throw new MalformedWorldException("Missing or invalid section tag: Y");
+            }
+            int y = ((ByteTag) section.get("Y")).getValue();
+            if (y >= 0 && y < Chunk.SECTIONS) {
+                getArray(section, "Blocks", 4096);
+                getArray(section, "Data", 2048);
+                getArray(section, "BlockLight", 2048);
+                getArray(section, "SkyLight", 2048);
+                if (section.get("Add") instanceof ByteArrayTag) {
+                    getArray(section, "Add", 2048);
+                }
+                sections[y] = section;
+            }
+        }
+        return sections;
+    }
+
+    private static byte[] getArray(Map<String, Tag> section, String name, int length) throws MalformedWorldException {
+        Tag tag = section.get(name);
+        if (!(tag instanceof ByteArrayTag) || ((ByteArrayTag) tag).getValue().length != length) {
+            throw new MalformedWorldException("Missing or invalid section tag: " + name);
+        }
+        return ((ByteArrayTag) tag).getValue();
+    }
+
+    /**
+     * Allocate the blocks of a chunk and copy its NBT without sections into them. The handle is
+     * not published yet.
+     *
+     * @return Returns the handle, or null if the chunk needs more than the whole budget
+     */
+    private Handle allocate(Key key, int sectionMask, byte[] tags, boolean dirty) throws IOException, MalformedWorldException {
+        int tagBlocks = (tags.length + BLOCK_BYTES - 1) / BLOCK_BYTES;
+        int blocks = Integer.bitCount(sectionMask) * SECTION_BLOCKS + tagBlocks;
+        if (blocks > this.maxBlocks) {
+            return null;
+        }
+        reserve(blocks);
+        Handle handle = new Handle(key, new int[tagBlocks], tags.length, dirty);
+        for (int y = 0; y < Chunk.SECTIONS; y++) {
+            if ((sectionMask & (1 << y)) != 0) {
+                for (int i = 0; i < SECTION_BLOCKS; i++) {
+                    handle.sections[y * SECTION_BLOCKS + i] = allocateBlock();
+                }
+            }
+        }
+        for (int i = 0; i < tagBlocks; i++) {
+            handle.tags[i] = allocateBlock();
+            block(handle.tags[i]).put(tags, i * BLOCK_BYTES, Math.min(BLOCK_BYTES, tags.length - i * BLOCK_BYTES));
+        }
+        return handle;
+    }
+
+    /**
+     * Allocate a section of air which does not exist in a cached chunk yet.
+     *
+     * @return Returns false if the chunk was evicted meanwhile
+     */
+    private synchronized boolean addSection(Handle handle, int y) throws IOException, MalformedWorldException {
+        if (handle.evicted) {
+            return false;
+        } else if (handle.sections[y * SECTION_BLOCKS] >= 0) {
+            return true;
+        }
+        int[] blocks = new int[SECTION_BLOCKS];
+        handle.pinned = true;
+        try {
+            reserve(SECTION_BLOCKS);
+        } finally {
+            handle.pinned = false;
+        }
+        for (int i = 0; i < SECTION_BLOCKS; i++) {
+            blocks[i] = allocateBlock();
+        }
+        byte[] empty = new byte[BLOCK_BYTES];
+        block(blocks[0]).put(empty);
+        block(blocks[1]).put(empty);
+        Arrays.fill(empty, BLOCK_BYTES / 2, BLOCK_BYTES, (byte) -1);
+        block(blocks[2]).put(empty);
+        long stamp = handle.lock.writeLock();
+        try {
+            System.arraycopy(blocks, 0, handle.sections, y * SECTION_BLOCKS, SECTION_BLOCKS);
+            handle.dirty = true;
+        } finally {
+            handle.lock.unlockWrite(stamp);
+        }
+        return true;
+    }
+
+    private void publish(Handle handle) {
+        handle.clockIndex = this.clock.size();
+        this.clock.add(handle);
+        this.handles.put(handle.key, handle);
+    }
+
+    /**
+     * Evict chunks until enough blocks are free.
+     */
+    private void reserve(int blocks) throws IOException, MalformedWorldException {
+        while (this.freeCount + (this.maxBlocks - this.allocatedBlocks) < blocks) {
+            evict();
+        }
+    }
+
+    private void evict() throws IOException, MalformedWorldException {
+        for (int visited = 0; visited <= 2 * this.clock.size(); visited++) {
+            if (this.hand >= this.clock.size()) {
+                this.hand = 0;
+            }
+            Handle handle = this.clock.get(this.hand);
+            if (handle.pinned) {
+                this.hand++;
+            } else if (handle.referenced) {
+                handle.referenced = false;
+                this.hand++;
+            } else {
+                remove(handle, true);
+                this.evictions++;
+                return;
+            }
+        }
+        throw new IOException("The cache budget of " + getCapacity() + " bytes is too small");
+    }
+
+    /**
+     * Drop a chunk from the cache, writing it back first if asked to.
+     *
+     * @return Returns if the chunk was dirty
+     */
+    private boolean remove(Handle handle, boolean writeBack) throws IOException, MalformedWorldException {
+        boolean dirty;
+        long stamp = handle.lock.writeLock();
+        try {
+            dirty = handle.dirty;
+            if (writeBack && dirty) {
+                writeBack(handle);
+            }
+            this.handles.remove(handle.key);
+            handle.evicted = true;
+        } finally {
+            handle.lock.unlockWrite(stamp);
+        }
+        Handle last = this.clock.remove(this.clock.size() - 1);
+        if (last != handle) {
+            this.clock.set(handle.clockIndex, last);
+            last.clockIndex = handle.clockIndex;
+        }
+        if (this.freeBlocks.length < this.freeCount + handle.sections.length + handle.tags.length) {
+            this.freeBlocks = Arrays.copyOf(this.freeBlocks, Math.max(this.freeBlocks.length * 2, this.freeCount + handle.sections.length + handle.tags.length));
+        }
+        for (int block : handle.sections) {
+            if (block >= 0) {
+                this.freeBlocks[this.freeCount++] = block;
+            }
+        }
+        for (int block : handle.tags) {
+            this.freeBlocks[this.freeCount++] = block;
+        }
+        return dirty;
+    }
+
+    /**
+     * Write a chunk to its region file. The caller holds the monitor and a lock of the handle.
+     */
+    private void writeBack(Handle handle) throws IOException, MalformedWorldException {
+        CompoundTag root = readTags(handle);
+        Map<String, Tag> rootTags = new LinkedHashMap<>(root.getValue());
+        Map<String, Tag> level = new LinkedHashMap<>(((CompoundTag) rootTags.get("Level")).getValue());
+        List<Tag> sections = new ArrayList<>(Chunk.SECTIONS);
+        for (int y = 0; y < Chunk.SECTIONS; y++) {
+            if (handle.sections[y * SECTION_BLOCKS] >= 0) {
+                sections.add(readSection(handle, y, this.states).toTag());
+            }
+        }
+        level.put("Sections", new ListTag("Sections", CompoundTag.class, sections));
+        rootTags.put("Level", new CompoundTag("Level", level));
+        Key key = handle.key;
+        region(key.dimension, key.x, key.z, true).writeChunkTag(key.x, key.z, new CompoundTag(root.getName(), rootTags));
+        handle.dirty = false;
+    }
+
+    private Chunk toChunk(Handle handle) throws IOException, MalformedWorldException {
+        Chunk chunk = new Chunk.Loader(readTags(handle)).load();
+        int[] states = new int[4096];
+        for (int y = 0; y < Chunk.SECTIONS; y++) {
+            if (handle.sections[y * SECTION_BLOCKS] >= 0) {
+                chunk.loadSection(readSection(handle, y, states));
+            }
+        }
+        return chunk;
+    }
+
+    private Section readSection(Handle handle, int y, int[] states) {
+        for (int half = 0; half < 2; half++) {
+            int block = handle.sections[y * SECTION_BLOCKS + half];
+            ByteBuffer slab = slab(block);
+            int offset = offset(block);
+            for (int i = 0; i < 2048; i++) {
+                states[(half << 11) | i] = slab.getShort(offset + (i << 1)) & 0xFFFF;
+            }
+        }
+        byte[] blockLight = new byte[2048];
+        byte[] skyLight = new byte[2048];
+        block(handle.sections[y * SECTION_BLOCKS + 2]).get(blockLight).get(skyLight);
+        return Section.of((byte) y, states, blockLight, skyLight);
+    }
+
+    private void writeStates(Handle handle, int y, int[] states) {
+        for (int half = 0; half < 2; half++) {
+            int block = handle.sections[y * SECTION_BLOCKS + half];
+            ByteBuffer slab = slab(block);
+            int offset = offset(block);
+            for (int i = 0; i < 2048; i++) {
+                slab.putShort(offset + (i << 1), (short) states[(half << 11) | i]);
+            }
+        }
+    }
+
+    private int readState(Handle handle, int y, int index) {
+        int block = handle.sections[y * SECTION_BLOCKS + (index >> 11)];
+        if (block < 0) {
+            return 0;
+        }
+        return slab(block).getShort(offset(block) + ((index & 2047) << 1)) & 0xFFFF;
+    }
+
+    private CompoundTag readTags(Handle handle) throws IOException, MalformedWorldException {
+        byte[] data = new byte[handle.tagsLength];
+        for (int i = 0; i < handle.tags.length; i++) {
+            block(handle.tags[i]).get(data, i * BLOCK_BYTES, Math.min(BLOCK_BYTES, handle.tagsLength - i * BLOCK_BYTES));
+        }
+        Tag tag = new NBTBufferReader(ByteBuffer.wrap(data), true).readTag();
+        if (!(tag instanceof CompoundTag)) {
+            throw new MalformedWorldException("Cached chunk does not start with a compound tag");
+        }
+        return (CompoundTag) tag;
+    }
+
+    private static byte[] encode(CompoundTag tag) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(BLOCK_BYTES);
+        try (NBTOutputStream out = new NBTOutputStream(bytes, false)) {
+            out.writeTag(tag);
+        }
+        return bytes.toByteArray();
+    }
+
+    private int allocateBlock() {
+        if (this.freeCount > 0) {
+            return this.freeBlocks[--this.freeCount];
+        }
+        int id = this.allocatedBlocks++;
+        if (this.slabs[id / this.blocksPerSlab] == null) {
+            int slabBlocks = Math.min(this.blocksPerSlab, this.maxBlocks - id);
+            this.slabs[id / this.blocksPerSlab] = ByteBuffer.allocateDirect(slabBlocks * BLOCK_BYTES);
+        }
+        return id;
+    }
+
+    private ByteBuffer slab(int block) {
+        return this.slabs[block / this.blocksPerSlab];
+    }
+
+    private int offset(int block) {
+        return (block % this.blocksPerSlab) * BLOCK_BYTES;
+    }
+
+    /**
+     * Get a view of a single block, for bulk reads and writes.
+     */
+    private ByteBuffer block(int block) {
+        ByteBuffer view = slab(block).duplicate();
+        view.position(offset(block));
+        view.limit(offset(block) + BLOCK_BYTES);
+        return view;
+    }
+
+    private File regionFile(Dimension dimension, int x, int z) {
+        return new File(dimension.getRegionDirectory(this.directory), "r." + (x >> 5) + "." + (z >> 5) + ".mca");
+    }
+
+    private RegionFile region(Dimension dimension, int x, int z, boolean writable) throws IOException, MalformedWorldException {
+        File file = regionFile(dimension, x, z);
+        File regionDirectory = file.getParentFile();
+        RegionFile region = this.regions.get(file);
+        if (region != null && (region.isWritable() || !writable)) {
+            return region;
+        }
+        if (region != null) {
+            region.close();
+            this.regions.remove(file);
+        }
+        if (writable && !regionDirectory.isDirectory() && !regionDirectory.mkdirs()) {
+            throw new IOException("Could not create " + regionDirectory);
+        }
+        region = new RegionFile(file, writable);
+        this.regions.put(file, region);
+        closeEldestRegions();
+        return region;
+    }
+
+    private void closeEldestRegions() throws IOException {
+        Iterator<RegionFile> eldest = this.regions.values().iterator();
+        while (this.regions.size() > this.maxOpenRegions) {
+            RegionFile region = eldest.next();
+            eldest.remove();
+            region.close();
+        }
+    }
+
+    private static final class Key {
+
+        private final Dimension dimension;
+        private final int x;
+        private final int z;
+
+        private Key(Dimension dimension, int x, int z) {
+            this.dimension = dimension;
+            this.x = x;
+            this.z = z;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return this.x == key.x && this.z == key.z && this.dimension == key.dimension;
+        }
+
+        @Override
+        public int hashCode() {
+            return (this.x * 31 + this.z) * 31 + this.dimension.ordinal();
+        }
+    }
+
+    /**
+     * The blocks of a cached chunk. The block lists and the dirty flag are guarded by the lock;
+     * the clock fields by the monitor of the cache.
+     */
+    private static final class Handle {
+
+        private final Key key;
+        private final StampedLock lock = new StampedLock();
+        private final int[] sections = new int[Chunk.SECTIONS * SECTION_BLOCKS];
+        private final int[] tags;
+        private final int tagsLength;
+        private volatile boolean referenced = true;
+        private boolean dirty;
+        private boolean evicted = false;
+        private boolean pinned = false;
+        private int clockIndex;
+
+        private Handle(Key key, int[] tags, int tagsLength, boolean dirty) {
+            this.key = key;
+            this.tags = tags;
+            this.tagsLength = tagsLength;
+            this.dirty = dirty;
+            Arrays.fill(this.sections, -1);
+        }
+    }
+}
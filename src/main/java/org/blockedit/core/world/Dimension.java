@@ -0,0 +1,60 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.core.world;
+
+import java.io.File;
+
+/**
+ * The dimensions of a Minecraft world, along with where their region files are stored.
+ *
+ * @author Jeff Chen
+ */
+public enum Dimension {
+
+    OVERWORLD(0, "region"),
+    NETHER(-1, "DIM-1" + File.separator + "region"),
+    END(1, "DIM1" + File.separator + "region");
+
+    private final int id;
+    private final String regionDirectory;
+
+    Dimension(int id, String regionDirectory) {
+        this.id = id;
+        this.regionDirectory = regionDirectory;
+    }
+
+    /**
+     * Get the id of the dimension.
+     *
+     * @return Returns the dimension id
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * Get the folder holding the region files of this dimension.
+     *
+     * @param worldDirectory The world folder
+     * @return Returns the region folder
+     */
+    public File getRegionDirectory(File worldDirectory) {
+        return new File(worldDirectory, this.regionDirectory);
+    }
+}
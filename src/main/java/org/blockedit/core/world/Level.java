@@ -18,22 +18,31 @@
 
 package org.blockedit.core.world;
 
+import org.blockedit.core.output.AtomicSave;
 import org.blockedit.exception.DataDoesNotExistException;
 import org.blockedit.exception.DataException;
 import org.javatuples.Triplet;
 import org.jnbt.ByteTag;
 import org.jnbt.CompoundTag;
+import org.jnbt.CompressionCodecs;
+import org.jnbt.IntTag;
 import org.jnbt.NBTInputStream;
 import org.jnbt.NBTOutputStream;
 import org.jnbt.StringTag;
 import org.jnbt.Tag;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.TreeMap;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 /**
@@ -41,11 +50,10 @@ import javax.annotation.ParametersAreNonnullByDefault;
  * Format</a> files. <p><img src="http://i.imgur.com/QWLwKFp.png" alt="Image not available" /> This
  * diagram shows how the Nbt data is created and transferred through {@link Level} and exported
  * through {@link Level.Exporter}. Now let's look at the code snippet below:<hr /> <code> try {
- * Level aMinecraftLevel = new Level.Loader(new File("C:\\RandomFolder\\level.dat").load(); //Load
- * the level //Now we export the level aMinecraftLevel.getLevelExporter( new NbtOutputStream( new
- * DataOutputStream( new FileOutputStream( new File("C:\\AnotherFolder\\levelNew.dat") ) ) ) , new
- * File("C:\\AnotherFolder\\levelNew.dat")).write(); } catch(IOException e) { e.printStackTrace(); }
- * </code> Please keep in mind that {@link CompoundTag} and {@link ByteTag} will
+ * Level aMinecraftLevel = new Level.Loader(new File("C:\\RandomFolder\\level.dat")).load(); //Load
+ * the level //Now we export the level aMinecraftLevel.getLevelExporter().write(new
+ * File("C:\\AnotherFolder\\levelNew.dat")); } catch(IOException | DataException e) {
+ * e.printStackTrace(); } </code> Please keep in mind that {@link CompoundTag} and {@link ByteTag} will
  * <strong>not</strong> be allowed as all gamerules will be created through {@link
  * Level.Builder#gameRule(String, Object)} instead.</p>
  *
@@ -63,6 +71,8 @@ public final class Level {
         }
     }
 
+    private static final Triplet<Integer, String, Boolean> DEFAULT_VERSION = new Triplet<>(0, "1.8.8", false);
+
     private final Map<String, Tag> levelData;
     private final Map<String, Tag> gameRules;
     private final Triplet<Integer, String, Boolean> worldVersion;
@@ -94,11 +104,10 @@ public final class Level {
     /**
      * Get the Nbt level.dat exporter.
      *
-     * @param stream The output stream used to write the file
      * @return Returns the level exporter
      */
-    public Exporter getLevelExporter(NBTOutputStream stream, File location) {
-        return new Exporter(stream, this.levelData, this.gameRules, location);
+    public Exporter getLevelExporter() {
+        return new Exporter(this);
     }
 
     /**
@@ -158,7 +167,9 @@ public final class Level {
         public Builder() {}
 
         public Builder(Level parent) {
-            levelData = parent.getLevel();
+            this.levelData = new LinkedHashMap<>(parent.getLevel());
+            this.gameRules = new LinkedHashMap<>(parent.getGameRules());
+            this.worldVersion = parent.getWorldVersionInformation();
         }
 
         /**
@@ -233,15 +244,46 @@ public final class Level {
         }
     }
 
+    /**
+     * Read the version of a level from its Version compound. Missing tags keep the defaults of
+     * version 1.8.8.
+     *
+     * @param versionSettings The tags of the Version compound
+     * @return Returns the version id, name and if it is a snapshot
+     * @throws DataException If the snapshot flag is not 0 or 1
+     */
+    private static Triplet<Integer, String, Boolean> readVersion(Map<String, Tag> versionSettings) throws DataException {
+        int id = DEFAULT_VERSION.getValue0();
+        String version = DEFAULT_VERSION.getValue1();
+        boolean snapshot = DEFAULT_VERSION.getValue2();
+        if(versionSettings.get("Id") instanceof StringTag) {
+            id = Integer.parseInt(((StringTag) versionSettings.get("Id")).getValue());
+        } else if(versionSettings.get("Id") instanceof IntTag) {
+            id = ((IntTag) versionSettings.get("Id")).getValue();
+        }
+        if(versionSettings.get("Name") instanceof StringTag) {
+            version = ((StringTag) versionSettings.get("Name")).getValue();
+        }
+        if(versionSettings.get("Snapshot") instanceof StringTag) {
+            if(((StringTag) versionSettings.get("Snapshot")).getValue().equals("1")) {
+                snapshot = true;
+            } else if(((StringTag) versionSettings.get("Snapshot")).getValue().equals("0")) {
+                snapshot = false;
+            } else {
+                throw new DataException("Invaild Value: Value must be 0 or 1.");
+            }
+        } else if(versionSettings.get("Snapshot") instanceof ByteTag) {
+            snapshot = ((ByteTag) versionSettings.get("Snapshot")).getValue() != 0;
+        }
+        return new Triplet<>(id, version, snapshot);
+    }
+
     public static class Loader {
 
         private NBTInputStream stream;
         private Map<String, Tag> levelData = new TreeMap<>();
         private Map<String, Tag> gameRules = new TreeMap<>();
         private Triplet<Integer, String, Boolean> worldVersion;
-        private int id = 0;
-        private String version;
-        private boolean snapshot = false;
 
         public Loader(File location) throws IOException {
             this.stream = new NBTInputStream(new FileInputStream(location));
@@ -270,12 +312,22 @@ public final class Level {
          */
         public Level load() throws DataException, IOException {
 
-            Tag rootTag = this.stream.readTag();
+            Tag rootTag;
+            try {
+                rootTag = this.stream.readTag();
+            } finally {
+                this.stream.close();
+            }
+            if (rootTag instanceof CompoundTag && !rootTag.getName().equals("Data")) {
+                Tag dataTag = ((CompoundTag) rootTag).getValue().get("Data");
+                if (dataTag != null) {
+                    rootTag = dataTag;
+                }
+            }
 
             if (rootTag.getName().equals("Data") && rootTag instanceof CompoundTag) {
 
                 CompoundTag levelSettings = (CompoundTag) rootTag;
-                System.out.println(levelSettings.getValue());
                 this.levelData = levelSettings.getValue();
 
                 if(this.levelData.containsKey("GameRules") & this.levelData.get("GameRules") instanceof CompoundTag) {
@@ -283,37 +335,10 @@ public final class Level {
                     this.gameRules = gameRuleSettings; 
                 }
                 if(this.levelData.containsKey("Version") & this.levelData.get("Version") instanceof CompoundTag) {
-                    Map<String, Tag> versionSettings = ((CompoundTag) this.levelData.get("Version")).getValue();
-
-                    if(versionSettings.containsKey("Id")) {
-                        if(versionSettings.get("Id") instanceof StringTag) {
-                            this.id = Integer.parseInt(((StringTag) versionSettings.get("Id")).getValue());
-                        }
-                    }
-                    if(versionSettings.containsKey("Name")) {
-                        if(versionSettings.get("Name") instanceof StringTag) {
-                            this.version = ((StringTag) versionSettings.get("Name")).getValue();
-                        }
-                    }
-                    if(versionSettings.containsKey("Snapshot")) {
-                         if(versionSettings.get("Snapshot") instanceof StringTag) {
-                             if(((StringTag) versionSettings.get("Snapshot")).getValue().equals("1")) {
-                                 this.snapshot = true;
-                             }
-                             if(((StringTag) versionSettings.get("Snapshot")).getValue().equals("0")) {
-                                 this.snapshot = false;
-                             } else {
-                                 throw new DataException("Invaild Value: Value must be 0 or 1.");
-                             }
-                         }
-                    }
-                    if(this.version == null) {
-                        this.version = "1.8.8";
-                    }
-                    this.worldVersion = new Triplet<>(this.id, this.version, this.snapshot);
+                    this.worldVersion = readVersion(((CompoundTag) this.levelData.get("Version")).getValue());
                 }
                 if (this.worldVersion == null) {
-                    this.worldVersion = new Triplet<>(0, "1.8.8", false);
+                    this.worldVersion = DEFAULT_VERSION;
                 }
 
                 return new Level(this.levelData, this.gameRules, this.worldVersion);
@@ -325,34 +350,125 @@ public final class Level {
 
     /**
      * The exporter used to export the newly created NBT {@link Level}. <p>The {@link
-     * Exporter#write()} method exports the file.</p>
+     * Exporter#write(File)} method exports the file. The Data compound is rebuilt from the level
+     * data, with its GameRules and Version compounds replaced by the game rules and the version of
+     * the level. Tags keep the order they were loaded in, so an unmodified level is written back
+     * with the same NBT it was loaded from. The Version compound is only rewritten if the version
+     * of the level differs from the one it holds: existing tags are then updated in place and
+     * missing ones added. A level without a Version compound only gets one if its version is not
+     * the default 1.8.8.</p> <p>The NBT is encoded in a single pass
+     * through a buffer of {@link #BUFFER_SIZE} bytes in front of the gzip stream, so the deflater
+     * receives large blocks instead of the many small writes of the encoder.</p>
      */
-    private class Exporter {
+    public static class Exporter {
+
+        /**
+         * The size of the buffer in front of the gzip stream, twice the deflate window.
+         */
+        public static final int BUFFER_SIZE = 64 * 1024;
 
-        private final NBTOutputStream stream;
-        private final Map<String, Tag> levelData;
-        private final Map<String, Tag> gameRules;
-        private final File location;
+        private final Level level;
 
-        private Exporter(NBTOutputStream stream, Map<String, Tag> levelData, Map<String, Tag> gameRules, File location) {
-            this.stream = stream;
-            this.levelData = levelData;
-            this.gameRules = gameRules;
-            this.location = location;
+        public Exporter(Level level) {
+            this.level = level;
+        }
+
+        /**
+         * Rebuild the root tag of the level.dat file.
+         *
+         * @return Returns the unnamed root compound holding the Data compound
+         * @throws DataException If a game rule is not a {@link StringTag}
+         */
+        public CompoundTag toTag() throws DataException {
+            Map<String, Tag> data = new LinkedHashMap<>();
+            boolean hasGameRules = false;
+            boolean hasVersion = false;
+            for (Map.Entry<String, Tag> entry : this.level.getLevel().entrySet()) {
+                if (entry.getKey().equals("GameRules")) {
+                    data.put("GameRules", gameRules());
+                    hasGameRules = true;
+                } else if (entry.getKey().equals("Version")) {
+                    data.put("Version", version(entry.getValue()));
+                    hasVersion = true;
+                } else {
+                    data.put(entry.getKey(), entry.getValue());
+                }
+            }
+            if (!hasGameRules && !this.level.getGameRules().isEmpty()) {
+                data.put("GameRules", gameRules());
+            }
+            if (!hasVersion && !DEFAULT_VERSION.equals(this.level.getWorldVersionInformation())) {
+                data.put("Version", version(null));
+            }
+            return new CompoundTag("", Collections.<String, Tag>singletonMap("Data", new CompoundTag("Data", data)));
+        }
+
+        /**
+         * Write the gzip compressed level to a stream. The stream is closed afterwards.
+         *
+         * @param os The output stream
+         * @throws IOException   If the stream could not be written
+         * @throws DataException If a disallowed {@link Tag} was used
+         */
+        public void write(OutputStream os) throws DataException, IOException {
+            CompoundTag root = toTag();
+            try (NBTOutputStream stream = new NBTOutputStream(new BufferedOutputStream(CompressionCodecs.GZIP.compress(os), BUFFER_SIZE), CompressionCodecs.RAW)) {
+                stream.writeTag(root);
+            }
         }
 
         /**
-         * Write the created level.dat file to a location specified by the output stream.
+         * Write the created level.dat file. The file is replaced atomically, see {@link
+         * AtomicSave}.
          *
+         * @param location The file to write
          * @throws IOException   If the program is unable to write to the specified location
          * @throws DataException If a disallowed {@link Tag} was used
          */
-        public void write() throws DataException, IOException {
-            //TODO
+        public void write(File location) throws DataException, IOException {
+            try (AtomicSave save = new AtomicSave()) {
+                write(save.newOutputStream(location));
+                save.commit();
+            }
         }
 
-        public File getDestination() {
-            return this.location;
+        /**
+         * Write the level to memory, for tests and diffs.
+         *
+         * @return Returns the gzip compressed level.dat file
+         * @throws IOException   If the level could not be encoded
+         * @throws DataException If a disallowed {@link Tag} was used
+         */
+        public byte[] toByteArray() throws DataException, IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(BUFFER_SIZE);
+            write(bytes);
+            return bytes.toByteArray();
+        }
+
+        private CompoundTag gameRules() throws DataException {
+            Map<String, Tag> rules = new LinkedHashMap<>();
+            for (Map.Entry<String, Tag> entry : this.level.getGameRules().entrySet()) {
+                Tag value = entry.getValue();
+                if (!(value instanceof StringTag)) {
+                    throw new DataException("The game rule " + entry.getKey() + " must be a StringTag");
+                }
+                rules.put(entry.getKey(), value.getName().equals(entry.getKey()) ? value : new StringTag(entry.getKey(), ((StringTag) value).getValue()));
+            }
+            return new CompoundTag("GameRules", rules);
+        }
+
+        private Tag version(@Nullable Tag original) throws DataException {
+            Map<String, Tag> tags = original instanceof CompoundTag ? ((CompoundTag) original).getValue() : Collections.<String, Tag>emptyMap();
+            if (original != null && readVersion(tags).equals(this.level.getWorldVersionInformation())) {
+                return original;
+            }
+            Map<String, Tag> version = new LinkedHashMap<>(tags);
+            int id = this.level.getId();
+            boolean snapshot = this.level.isSnapshot();
+            version.put("Id", tags.get("Id") instanceof StringTag ? new StringTag("Id", Integer.toString(id)) : new IntTag("Id", id));
+            version.put("Name", new StringTag("Name", this.level.getVersion()));
+            version.put("Snapshot", tags.get("Snapshot") instanceof StringTag ? new StringTag("Snapshot", snapshot ? "1" : "0") : new ByteTag("Snapshot", (byte) (snapshot ? 1 : 0)));
+            return new CompoundTag("Version", version);
         }
     }
 }
@@ -0,0 +1,413 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.core.world;
+
+import org.blockedit.core.block.LightProperties;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Keeps height maps, sky light and block light consistent after blocks change. <p>Changed blocks
+ * are collected in a {@link Batch}. Applying it only relights the neighborhood of those blocks:
+ * light which could have come from a changed block is first removed by a breadth first search,
+ * then light flows back in from the surrounding blocks and from light sources, again breadth
+ * first. Both searches run over queues of packed ints, so relighting allocates almost
+ * nothing.</p> <p>Light never travels further than 15 blocks, so the changes are split into tiles
+ * of 8 by 8 chunks, and relighting a tile only touches the tile and the ring of chunks around it.
+ * Tiles are relit in four phases by the parity of their coordinates. The areas of the tiles of one
+ * phase never overlap, so the write locks of every chunk of a phase are taken once, before its
+ * tiles are relit in parallel without further locking. Locking each tile on its own would not
+ * help, as the lock stripes of different tiles collide and would run them one after the
+ * other.</p>
+ *
+ * @author Jeff Chen
+ */
+public final class LightEngine {
+
+    private static final int TILE_CHUNKS = 8;
+    private static final int AREA_CHUNKS = TILE_CHUNKS + 2;
+    private static final int AREA_BLOCKS = AREA_CHUNKS * 16;
+    private static final int[] DX = {1, -1, 0, 0, 0, 0};
+    private static final int[] DY = {0, 0, 1, -1, 0, 0};
+    private static final int[] DZ = {0, 0, 0, 0, 1, -1};
+    private static final int DOWN = 3;
+
+    private final World world;
+    private LightProperties properties = LightProperties.vanilla();
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    public LightEngine(World world) {
+        this.world = world;
+    }
+
+    public LightEngine properties(LightProperties properties) {
+        this.properties = properties;
+        return this;
+    }
+
+    public LightEngine pool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Start collecting changed blocks of a dimension.
+     *
+     * @param dimension The dimension
+     * @return Returns a new batch
+     */
+    public Batch batch(Dimension dimension) {
+        return new Batch(dimension);
+    }
+
+    /**
+     * The blocks changed in a dimension since the last relight. A batch is not thread safe.
+     */
+    public final class Batch {
+
+        private final Dimension dimension;
+        private final Map<Long, IntQueue> tiles = new HashMap<>();
+        private int size = 0;
+
+        private Batch(Dimension dimension) {
+            this.dimension = dimension;
+        }
+
+        /**
+         * Record a changed block.
+         *
+         * @param x The block x coordinate
+         * @param y The block y coordinate, between 0 and 255
+         * @param z The block z coordinate
+         * @return Returns this batch, for chaining
+         */
+        public Batch blockChanged(int x, int y, int z) {
+            int tileX = Math.floorDiv(x >> 4, TILE_CHUNKS);
+            int tileZ = Math.floorDiv(z >> 4, TILE_CHUNKS);
+            IntQueue changes = this.tiles.computeIfAbsent(World.chunkKey(tileX, tileZ), key -> new IntQueue());
+            changes.add(pack(x - originBlock(tileX), y, z - originBlock(tileZ)));
+            this.size++;
+            return this;
+        }
+
+        /**
+         * Record that every block of a chunk changed, which relights the whole chunk.
+         *
+         * @param x The chunk x coordinate
+         * @param z The chunk z coordinate
+         * @return Returns this batch, for chaining
+         */
+        public Batch chunkChanged(int x, int z) {
+            for (int y = 0; y < 256; y++) {
+                for (int bz = 0; bz < 16; bz++) {
+                    for (int bx = 0; bx < 16; bx++) {
+                        blockChanged((x << 4) | bx, y, (z << 4) | bz);
+                    }
+                }
+            }
+            return this;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * Recompute the height maps and light around every changed block, then clear the batch.
+         */
+        public void apply() {
+            for (int phase = 0; phase < 4; phase++) {
+                List<int[]> areas = new ArrayList<>();
+                List<IntQueue> changes = new ArrayList<>();
+                for (Map.Entry<Long, IntQueue> entry : this.tiles.entrySet()) {
+                    int tileX = (int) (entry.getKey() >> 32);
+                    int tileZ = (int) (long) entry.getKey();
+                    if (((tileX & 1) << 1 | (tileZ & 1)) == phase) {
+                        int minX = tileX * TILE_CHUNKS - 1;
+                        int minZ = tileZ * TILE_CHUNKS - 1;
+                        areas.add(new int[] {minX, minZ, minX + AREA_CHUNKS - 1, minZ + AREA_CHUNKS - 1});
+                        changes.add(entry.getValue());
+                    }
+                }
+                if (!areas.isEmpty()) {
+                    LightEngine.this.world.withWriteLocks(this.dimension, areas, () -> relightPhase(this.dimension, areas, changes));
+                }
+            }
+            this.tiles.clear();
+            this.size = 0;
+        }
+    }
+
+    private void relightPhase(Dimension dimension, List<int[]> areas, List<IntQueue> changes) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < areas.size(); i++) {
+            int[] area = areas.get(i);
+            IntQueue tileChanges = changes.get(i);
+            tasks.add(this.pool.submit(() -> new TileLighter(dimension, area[0], area[1]).relight(tileChanges)));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+
+    private static int originBlock(int tile) {
+        return (tile * TILE_CHUNKS - 1) * 16;
+    }
+
+    private static int pack(int x, int y, int z) {
+        return x | (z << 8) | (y << 16);
+    }
+
+    /**
+     * Relights the changed blocks of one tile. Coordinates are packed relative to the corner of
+     * the ring around the tile: 8 bits of x, 8 bits of z, 8 bits of y, and the light level in
+     * the top bits of removal entries.
+     */
+    private final class TileLighter {
+
+        private final Chunk[] chunks = new Chunk[AREA_CHUNKS * AREA_CHUNKS];
+        private final IntQueue removals = new IntQueue();
+        private final IntQueue additions = new IntQueue();
+        private boolean sky;
+
+        private TileLighter(Dimension dimension, int minX, int minZ) {
+            for (int z = 0; z < AREA_CHUNKS; z++) {
+                for (int x = 0; x < AREA_CHUNKS; x++) {
+                    this.chunks[z * AREA_CHUNKS + x] = LightEngine.this.world.getChunk(dimension, minX + x, minZ + z).orElse(null);
+                }
+            }
+        }
+
+        private void relight(IntQueue changes) {
+            IntQueue seeds = new IntQueue();
+            boolean[] columns = new boolean[AREA_BLOCKS * AREA_BLOCKS];
+            for (int i = 0; i < changes.size(); i++) {
+                int position = changes.get(i);
+                seeds.add(position);
+                int x = position & 0xFF;
+                int z = (position >> 8) & 0xFF;
+                Chunk chunk = chunk(x, z);
+                if (chunk == null || columns[z * AREA_BLOCKS + x]) {
+                    continue;
+                }
+                columns[z * AREA_BLOCKS + x] = true;
+                int oldHeight = chunk.getHeight(x & 15, z & 15);
+                int newHeight = computeHeight(chunk, x & 15, z & 15);
+                if (oldHeight != newHeight) {
+                    chunk.setHeight(x & 15, z & 15, newHeight);
+                    for (int y = Math.max(Math.min(oldHeight, newHeight), 0); y < Math.min(Math.max(oldHeight, newHeight), 256); y++) {
+                        seeds.add(pack(x, y, z));
+                    }
+                }
+            }
+            this.sky = true;
+            propagate(seeds);
+            this.sky = false;
+            propagate(changes);
+        }
+
+        private void propagate(IntQueue seeds) {
+            this.removals.clear();
+            this.additions.clear();
+            for (int i = 0; i < seeds.size(); i++) {
+                int position = seeds.get(i);
+                int light = light(position);
+                if (light > 0) {
+                    setLight(position, 0);
+                    this.removals.add(position | (light << 24));
+                }
+            }
+            while (!this.removals.isEmpty()) {
+                int entry = this.removals.poll();
+                int position = entry & 0xFFFFFF;
+                int level = entry >>> 24;
+                for (int direction = 0; direction < 6; direction++) {
+                    int neighbor = neighbor(position, direction);
+                    if (neighbor < 0) {
+                        continue;
+                    }
+                    int light = light(neighbor);
+                    if (light == 0) {
+                        continue;
+                    }
+                    if (light < level || (this.sky && direction == DOWN && level == 15 && light == 15)) {
+                        setLight(neighbor, 0);
+                        this.removals.add(neighbor | (light << 24));
+                    } else {
+                        this.additions.add(neighbor);
+                    }
+                }
+            }
+            for (int i = 0; i < seeds.size(); i++) {
+                int position = seeds.get(i);
+                int source = source(position);
+                if (source > light(position)) {
+                    setLight(position, source);
+                    this.additions.add(position);
+                }
+                for (int direction = 0; direction < 6; direction++) {
+                    int neighbor = neighbor(position, direction);
+                    if (neighbor >= 0 && light(neighbor) > 0) {
+                        this.additions.add(neighbor);
+                    }
+                }
+            }
+            while (!this.additions.isEmpty()) {
+                int position = this.additions.poll();
+                int level = light(position);
+                if (level <= 1) {
+                    continue;
+                }
+                for (int direction = 0; direction < 6; direction++) {
+                    int neighbor = neighbor(position, direction);
+                    if (neighbor < 0) {
+                        continue;
+                    }
+                    int opacity = opacity(neighbor);
+                    int light = this.sky && direction == DOWN && level == 15 && opacity == 0 ? 15 : level - Math.max(1, opacity);
+                    if (light > light(neighbor)) {
+                        setLight(neighbor, light);
+                        this.additions.add(neighbor);
+                    }
+                }
+            }
+        }
+
+        private int computeHeight(Chunk chunk, int x, int z) {
+            for (int y = 255; y >= 0; y--) {
+                if (LightEngine.this.properties.getOpacity(chunk.getBlockState(x, y, z) >> 4) != 0) {
+                    return y + 1;
+                }
+            }
+            return 0;
+        }
+
+        private int neighbor(int position, int direction) {
+            int x = (position & 0xFF) + DX[direction];
+            int z = ((position >> 8) & 0xFF) + DZ[direction];
+            int y = (position >> 16) + DY[direction];
+            if (x < 0 || x >= AREA_BLOCKS || z < 0 || z >= AREA_BLOCKS || y < 0 || y > 255) {
+                return -1;
+            }
+            return pack(x, y, z);
+        }
+
+        private Chunk chunk(int x, int z) {
+            return this.chunks[(z >> 4) * AREA_CHUNKS + (x >> 4)];
+        }
+
+        private int source(int position) {
+            int x = position & 0xFF;
+            int z = (position >> 8) & 0xFF;
+            int y = position >> 16;
+            Chunk chunk = chunk(x, z);
+            if (chunk == null) {
+                return 0;
+            } else if (this.sky) {
+                return y >= chunk.getHeight(x & 15, z & 15) ? 15 : 0;
+            }
+            return LightEngine.this.properties.getEmission(chunk.getBlockState(x & 15, y, z & 15) >> 4);
+        }
+
+        private int opacity(int position) {
+            int x = position & 0xFF;
+            int z = (position >> 8) & 0xFF;
+            Chunk chunk = chunk(x, z);
+            if (chunk == null) {
+                return 15;
+            }
+            return LightEngine.this.properties.getOpacity(chunk.getBlockState(x & 15, position >> 16, z & 15) >> 4);
+        }
+
+        private int light(int position) {
+            int x = position & 0xFF;
+            int z = (position >> 8) & 0xFF;
+            Chunk chunk = chunk(x, z);
+            if (chunk == null) {
+                return 0;
+            } else if (this.sky) {
+                return chunk.getSkyLight(x & 15, position >> 16, z & 15);
+            }
+            return chunk.getBlockLight(x & 15, position >> 16, z & 15);
+        }
+
+        private void setLight(int position, int light) {
+            int x = position & 0xFF;
+            int z = (position >> 8) & 0xFF;
+            Chunk chunk = chunk(x, z);
+            if (chunk == null) {
+                return;
+            } else if (this.sky) {
+                chunk.setSkyLight(x & 15, position >> 16, z & 15, light);
+            } else {
+                chunk.setBlockLight(x & 15, position >> 16, z & 15, light);
+            }
+        }
+    }
+
+    /**
+     * A growable first in, first out queue of ints.
+     */
+    private static final class IntQueue {
+
+        private int[] values = new int[256];
+        private int head = 0;
+        private int tail = 0;
+
+        private void add(int value) {
+            if (this.tail == this.values.length) {
+                if (this.head > this.values.length / 2) {
+                    System.arraycopy(this.values, this.head, this.values, 0, this.tail - this.head);
+                    this.tail -= this.head;
+                    this.head = 0;
+                } else {
+                    this.values = Arrays.copyOf(this.values, this.values.length * 2);
+                }
+            }
+            this.values[this.tail++] = value;
+        }
+
+        private int poll() {
+            return this.values[this.head++];
+        }
+
+        private int get(int index) {
+            return this.values[this.head + index];
+        }
+
+        private int size() {
+            return this.tail - this.head;
+        }
+
+        private boolean isEmpty() {
+            return this.head == this.tail;
+        }
+
+        private void clear() {
+            this.head = 0;
+            this.tail = 0;
+        }
+    }
+}
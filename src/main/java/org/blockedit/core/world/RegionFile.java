@@ -0,0 +1,498 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.core.world;
+
+import org.blockedit.core.MalformedWorldException;
+import org.jnbt.CompoundTag;
+import org.jnbt.CompressionCodec;
+import org.jnbt.CompressionCodecs;
+import org.jnbt.NBTBufferReader;
+import org.jnbt.NBTInputStream;
+import org.jnbt.NBTOutputStream;
+import org.jnbt.NBTVisitor;
+import org.jnbt.Tag;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reads chunks from a Minecraft <a href="http://minecraft.gamepedia.com/Region_file_format">Anvil
+ * region</a> (.mca) file. <p>Only the 8 KiB header holding the offset and timestamp tables is
+ * memory mapped when the file is opened. The sectors of a chunk are read and decompressed when
+ * that chunk is requested, so looking up a single chunk never reads the rest of the file. Reads
+ * use positional channel I/O, so a region may be shared between threads.</p> <p>A region opened
+ * for writing keeps a bitmap of the sectors in use. A rewritten chunk stays in its sectors when
+ * its new payload fits, otherwise it moves to the first free run of sectors, so saving a chunk
+ * only ever writes that chunk and its two header entries.</p> <p>Chunks are decompressed with
+ * the {@link CompressionCodec} registered for the compression type stored in front of them, and
+ * written with the codec the region was opened with, zlib by default.</p>
+ *
+ * @author Jeff Chen
+ */
+public final class RegionFile implements Closeable {
+
+    public static final int SECTOR_BYTES = 4096;
+    public static final int CHUNKS_PER_REGION = 1024;
+    public static final byte COMPRESSION_GZIP = 1;
+    public static final byte COMPRESSION_ZLIB = 2;
+    public static final byte COMPRESSION_RAW = 3;
+
+    private static final int HEADER_BYTES = 2 * SECTOR_BYTES;
+    private static final Pattern FILE_NAME = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.mca");
+
+    private final File file;
+    private final int regionX;
+    private final int regionZ;
+    private final FileChannel channel;
+    private final IntBuffer header;
+    private final BitSet usedSectors;
+    private final CompressionCodec codec;
+
+    public RegionFile(File file) throws IOException, MalformedWorldException {
+        this(file, false);
+    }
+
+    public RegionFile(File file, boolean writable) throws IOException, MalformedWorldException {
+        this(file, writable, CompressionCodecs.ZLIB);
+    }
+
+    /**
+     * Open a region file.
+     *
+     * @param file     The file, named r.x.z.mca
+     * @param writable If chunks may be written, in which case the file is created if needed
+     * @param codec    The compression of written chunks
+     * @throws IOException             If the file could not be opened
+     * @throws MalformedWorldException If the file is not a valid region file
+     */
+    public RegionFile(File file, boolean writable, CompressionCodec codec) throws IOException, MalformedWorldException {
+        this(file, file, writable, codec);
+    }
+
+    /**
+     * Open a region file stored under another name, such as the temporary copy staged by an
+     * {@link org.blockedit.core.output.AtomicSave}.
+     *
+     * @param file     The file the region belongs to, named r.x.z.mca
+     * @param location The file holding the data
+     * @param writable If chunks may be written, in which case the location is created if needed
+     * @param codec    The compression of written chunks
+     * @throws IOException             If the file could not be opened
+     * @throws MalformedWorldException If the file is not a valid region file
+     */
+    RegionFile(File file, File location, boolean writable, CompressionCodec codec) throws IOException, MalformedWorldException {
+        if (codec.getId() < 0 || codec.getId() > 0xFF) {
+            throw new IllegalArgumentException("Compression type " + codec.getId() + " does not fit in a region file");
+        }
+        Matcher matcher = FILE_NAME.matcher(file.getName());
+        if (!matcher.matches()) {
+            throw new MalformedWorldException("Not a region file: " + file.getName());
+        }
+        this.file = file;
+        this.regionX = Integer.parseInt(matcher.group(1));
+        this.regionZ = Integer.parseInt(matcher.group(2));
+        this.codec = codec;
+        if (writable) {
+            this.channel = FileChannel.open(location.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        } else {
+            this.channel = FileChannel.open(location.toPath(), StandardOpenOption.READ);
+        }
+        long size = this.channel.size();
+        if (size == 0) {
+            this.header = IntBuffer.allocate(2 * CHUNKS_PER_REGION);
+            if (writable) {
+                writeFully(ByteBuffer.allocate(HEADER_BYTES), 0);
+            }
+        } else if (size < HEADER_BYTES) {
+            this.channel.close();
+            throw new MalformedWorldException("Region file header is truncated: " + file.getName());
+        } else if (writable) {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(buffer, 0);
+            buffer.flip();
+            this.header = IntBuffer.allocate(2 * CHUNKS_PER_REGION);
+            this.header.put(buffer.asIntBuffer());
+        } else {
+            this.header = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).asIntBuffer();
+        }
+        if (writable) {
+            this.usedSectors = new BitSet();
+            this.usedSectors.set(0, HEADER_BYTES / SECTOR_BYTES);
+            for (int i = 0; i < CHUNKS_PER_REGION; i++) {
+                int offset = this.header.get(i);
+                if (offset != 0) {
+                    this.usedSectors.set(offset >>> 8, (offset >>> 8) + (offset & 0xFF));
+                }
+            }
+        } else {
+            this.usedSectors = null;
+        }
+    }
+
+    /**
+     * Check if a file name follows the r.x.z.mca naming scheme.
+     *
+     * @param file The file
+     * @return Returns if the file is a region file
+     */
+    public static boolean isRegionFile(File file) {
+        return FILE_NAME.matcher(file.getName()).matches();
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    public int getRegionX() {
+        return this.regionX;
+    }
+
+    public int getRegionZ() {
+        return this.regionZ;
+    }
+
+    /**
+     * Check if the region contains a chunk. Coordinates may be absolute chunk coordinates or
+     * relative to the region.
+     *
+     * @param x The chunk x coordinate
+     * @param z The chunk z coordinate
+     * @return Returns if the chunk has been generated
+     */
+    public boolean hasChunk(int x, int z) {
+        return getOffset(x, z) != 0;
+    }
+
+    /**
+     * Get the number of chunks stored in this region.
+     *
+     * @return Returns the chunk count
+     */
+    public int getChunkCount() {
+        int count = 0;
+        for (int i = 0; i < CHUNKS_PER_REGION; i++) {
+            if (this.header.get(i) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the last time a chunk was saved.
+     *
+     * @param x The chunk x coordinate
+     * @param z The chunk z coordinate
+     * @return Returns the timestamp in seconds since the epoch, or 0 if the chunk does not exist
+     */
+    public int getTimestamp(int x, int z) {
+        return this.header.get(CHUNKS_PER_REGION + index(x, z));
+    }
+
+    /**
+     * Read and decompress the NBT of a single chunk.
+     *
+     * @param x The chunk x coordinate
+     * @param z The chunk z coordinate
+     * @return Returns the root tag of the chunk, if the chunk exists
+     * @throws IOException             If the file could not be read
+     * @throws MalformedWorldException If the chunk is corrupted
+     */
+    public Optional<CompoundTag> readChunkTag(int x, int z) throws IOException, MalformedWorldException {
+        return readChunkTag(x, z, null);
+    }
+
+    /**
+     * Read and decompress the parts of a chunk accepted by a path filter. Rejected tags, such as
+     * <code>Level/Entities</code>, are skipped without being decoded.
+     *
+     * @param x      The chunk x coordinate
+     * @param z      The chunk z coordinate
+     * @param filter The path filter, see {@link NBTInputStream#readTag(Predicate)}
+     * @return Returns the root tag of the chunk, if the chunk exists
+     * @throws IOException             If the file could not be read
+     * @throws MalformedWorldException If the chunk is corrupted
+     */
+    public Optional<CompoundTag> readChunkTag(int x, int z, @Nullable Predicate<String> filter) throws IOException, MalformedWorldException {
+        Optional<InputStream> chunk = openChunk(x, z);
+        if (!chunk.isPresent()) {
+            return Optional.empty();
+        }
+        ByteBuffer data;
+        try (InputStream in = chunk.get()) {
+            data = readAll(in);
+        }
+        Tag root = new NBTBufferReader(data).readTag(filter);
+        if (!(root instanceof CompoundTag)) {
+            throw new MalformedWorldException("Chunk " + x + ", " + z + " does not start with a compound tag");
+        }
+        return Optional.of((CompoundTag) root);
+    }
+
+    /**
+     * Stream the NBT of a single chunk to a visitor without building any tags. This is much
+     * cheaper than {@link #readChunkTag(int, int)} when only a few fields are needed.
+     *
+     * @param x       The chunk x coordinate
+     * @param z       The chunk z coordinate
+     * @param visitor The visitor receiving the chunk
+     * @return Returns if the chunk exists
+     * @throws IOException             If the file could not be read
+     * @throws MalformedWorldException If the chunk is corrupted
+     */
+    public boolean acceptChunk(int x, int z, NBTVisitor visitor) throws IOException, MalformedWorldException {
+        Optional<InputStream> chunk = openChunk(x, z);
+        if (!chunk.isPresent()) {
+            return false;
+        }
+        try (NBTInputStream stream = new NBTInputStream(new DataInputStream(chunk.get()))) {
+            stream.accept(visitor);
+        }
+        return true;
+    }
+
+    /**
+     * Read a single chunk.
+     *
+     * @param x The chunk x coordinate
+     * @param z The chunk z coordinate
+     * @return Returns the chunk, if it exists
+     * @throws IOException             If the file could not be read
+     * @throws MalformedWorldException If the chunk is corrupted
+     */
+    public Optional<Chunk> readChunk(int x, int z) throws IOException, MalformedWorldException {
+        Optional<CompoundTag> tag = readChunkTag(x, z);
+        if (tag.isPresent()) {
+            return Optional.of(new Chunk.Loader(tag.get()).load());
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Check if chunks may be written to this region.
+     *
+     * @return Returns if the region was opened for writing
+     */
+    public boolean isWritable() {
+        return this.usedSectors != null;
+    }
+
+    /**
+     * Encode, compress and write a chunk, replacing the stored copy.
+     *
+     * @param chunk The chunk
+     * @throws IOException If the chunk could not be written
+     */
+    public void writeChunk(Chunk chunk) throws IOException {
+        writeChunkTag(chunk.getX(), chunk.getZ(), new Chunk.Exporter(chunk).toTag());
+    }
+
+    /**
+     * Compress and write the NBT of a single chunk with the codec of this region, replacing the
+     * stored copy. The chunk keeps its sectors if the new payload fits in them.
+     *
+     * @param x   The chunk x coordinate
+     * @param z   The chunk z coordinate
+     * @param tag The root tag of the chunk
+     * @throws IOException If the region is read only, the chunk is too large or could not be
+     *                     written
+     */
+    public void writeChunkTag(int x, int z, CompoundTag tag) throws IOException {
+        if (!isWritable()) {
+            throw new IOException(this.file.getName() + " was not opened for writing");
+        }
+        writeCompressedChunk(x, z, compressChunk(tag));
+    }
+
+    /**
+     * Compress the NBT of a single chunk with the codec of this region without writing it. The
+     * file is not touched, so several threads may compress chunks at once and hand the results to
+     * {@link #writeCompressedChunk(int, int, ByteBuffer)}.
+     *
+     * @param tag The root tag of the chunk
+     * @return Returns the chunk header and payload, padded to whole sectors
+     * @throws IOException If the chunk could not be encoded
+     */
+    public ByteBuffer compressChunk(CompoundTag tag) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * SECTOR_BYTES);
+        bytes.write(new byte[5], 0, 5);
+        try (NBTOutputStream out = new NBTOutputStream(bytes, this.codec)) {
+            out.writeTag(tag);
+        }
+        int sectors = (bytes.size() + SECTOR_BYTES - 1) / SECTOR_BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(sectors * SECTOR_BYTES);
+        buffer.put(bytes.toByteArray());
+        buffer.putInt(0, bytes.size() - 4);
+        buffer.put(4, (byte) this.codec.getId());
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Write a chunk compressed by {@link #compressChunk(CompoundTag)}, replacing the stored copy.
+     * The chunk keeps its sectors if the new payload fits in them, otherwise it is moved to the
+     * first free run of sectors.
+     *
+     * @param x    The chunk x coordinate
+     * @param z    The chunk z coordinate
+     * @param data The compressed chunk
+     * @throws IOException If the region is read only, the chunk is too large or could not be
+     *                     written
+     */
+    public synchronized void writeCompressedChunk(int x, int z, ByteBuffer data) throws IOException {
+        if (!isWritable()) {
+            throw new IOException(this.file.getName() + " was not opened for writing");
+        }
+        if (!data.hasRemaining() || data.remaining() % SECTOR_BYTES != 0) {
+            throw new IllegalArgumentException("A compressed chunk must fill whole sectors");
+        }
+        int sectors = data.remaining() / SECTOR_BYTES;
+        if (sectors > 0xFF) {
+            throw new IOException("Chunk " + x + ", " + z + " needs " + sectors + " sectors, at most 255 are allowed");
+        }
+
+        int index = index(x, z);
+        int offset = this.header.get(index);
+        int oldStart = offset >>> 8;
+        int oldCount = offset & 0xFF;
+        int start;
+        if (offset != 0 && oldCount >= sectors) {
+            start = oldStart;
+            this.usedSectors.clear(oldStart + sectors, oldStart + oldCount);
+        } else {
+            start = findFreeSectors(sectors);
+            this.usedSectors.set(start, start + sectors);
+            if (offset != 0) {
+                this.usedSectors.clear(oldStart, oldStart + oldCount);
+            }
+        }
+        writeFully(data.slice(), (long) start * SECTOR_BYTES);
+        writeHeader(index, (start << 8) | sectors, (int) (System.currentTimeMillis() / 1000));
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    private Optional<InputStream> openChunk(int x, int z) throws IOException, MalformedWorldException {
+        int offset = getOffset(x, z);
+        if (offset == 0) {
+            return Optional.empty();
+        }
+        long position = (long) (offset >>> 8) * SECTOR_BYTES;
+        int sectors = offset & 0xFF;
+        if (position < HEADER_BYTES || position + (long) sectors * SECTOR_BYTES > this.channel.size()) {
+            throw new MalformedWorldException("Chunk " + x + ", " + z + " points outside of " + this.file.getName());
+        }
+        ByteBuffer chunkHeader = ByteBuffer.allocate(5);
+        readFully(chunkHeader, position);
+        int length = chunkHeader.getInt(0);
+        byte compression = chunkHeader.get(4);
+        if (length <= 1 || length + 4 > sectors * SECTOR_BYTES) {
+            throw new MalformedWorldException("Chunk " + x + ", " + z + " has an invalid length of " + length);
+        }
+        byte[] payload = new byte[length - 1];
+        readFully(ByteBuffer.wrap(payload), position + 5);
+
+        Optional<CompressionCodec> codec = CompressionCodecs.byId(compression & 0xFF);
+        if (!codec.isPresent()) {
+            throw new MalformedWorldException("Chunk " + x + ", " + z + " uses unknown compression type " + compression);
+        }
+        return Optional.of(codec.get().decompress(new ByteArrayInputStream(payload)));
+    }
+
+    private static ByteBuffer readAll(InputStream in) throws IOException {
+        byte[] data = new byte[16 * SECTOR_BYTES];
+        int length = 0;
+        while (true) {
+            if (length == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            int read = in.read(data, length, data.length - length);
+            if (read < 0) {
+                return ByteBuffer.wrap(data, 0, length);
+            }
+            length += read;
+        }
+    }
+
+    private int findFreeSectors(int count) {
+        int start = this.usedSectors.nextClearBit(0);
+        while (true) {
+            int end = this.usedSectors.nextSetBit(start);
+            if (end < 0 || end - start >= count) {
+                return start;
+            }
+            start = this.usedSectors.nextClearBit(end);
+        }
+    }
+
+    private void writeHeader(int index, int offset, int timestamp) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(4);
+        entry.putInt(0, offset);
+        writeFully(entry, index * 4L);
+        entry.clear();
+        entry.putInt(0, timestamp);
+        writeFully(entry, SECTOR_BYTES + index * 4L);
+        this.header.put(index, offset);
+        this.header.put(CHUNKS_PER_REGION + index, timestamp);
+    }
+
+    private int getOffset(int x, int z) {
+        return this.header.get(index(x, z));
+    }
+
+    private static int index(int x, int z) {
+        return (x & 31) + (z & 31) * 32;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = this.channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of " + this.file.getName());
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer, position + buffer.position());
+        }
+    }
+}
@@ -20,51 +20,442 @@ package org.blockedit.core.world;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.blockedit.exception.ParseException;
+import org.jnbt.ByteArrayTag;
+import org.jnbt.ByteTag;
+import org.jnbt.CompoundTag;
+import org.jnbt.Tag;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 
 /**
- * Represents a Minecraft chunk section, which holds 16 by 16 by 16 blocks.
+ * Represents a Minecraft chunk section, which holds 16 by 16 by 16 blocks. <p>Blocks are kept in a
+ * palette compressed {@link BlockStorage}. Sections made of a single block, and light arrays that
+ * are completely dark or completely lit, share their storage with every other such section.</p>
  *
  * @author Jeff Chen
  */
 public class Section {
 
+    private static final byte[] NO_LIGHT = new byte[2048];
+    private static final byte[] FULL_LIGHT = new byte[2048];
+    private static final Section[] READ_ONLY_EMPTY = new Section[16];
+
+    static {
+        Arrays.fill(FULL_LIGHT, (byte) -1);
+        for (int i = 0; i < READ_ONLY_EMPTY.length; i++) {
+            READ_ONLY_EMPTY[i] = new Section((byte) i, BlockStorage.uniform(0), NO_LIGHT, FULL_LIGHT);
+            READ_ONLY_EMPTY[i].readOnly = true;
+        }
+    }
+
     private byte y = 0;
-    private byte[] blocks = new byte[4096];
-    private byte[] add = new byte[4096];
-    private byte[] data = new byte[2048];
-    private byte[] blockLight = new byte[2048];
-    private byte[] skyLight = new byte[2048];
+    private BlockStorage blocks;
+    private byte[] blockLight;
+    private byte[] skyLight;
+    private boolean dirty = false;
+    private boolean readOnly = false;
 
-    private Section(byte y, byte[] blocks, byte[] add, byte[] data, byte[] blockLight, byte[] skyLight) {
+    private Section(byte y, BlockStorage blocks, byte[] blockLight, byte[] skyLight) {
         this.y = y;
         this.blocks = blocks;
-        this.add = add;
-        this.data = data;
         this.blockLight = blockLight;
         this.skyLight = skyLight;
     }
 
+    /**
+     * Get the id of a block, including the extra bits stored in the <code>Add</code> array.
+     * Coordinates are relative to the section and must be between 0 and 15.
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param z The z coordinate
+     * @return Returns the block id
+     */
+    public int getBlockId(int x, int y, int z) {
+        return this.blocks.get(index(x, y, z)) >> 4;
+    }
+
+    /**
+     * Get the data value of a block.
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param z The z coordinate
+     * @return Returns the data value, between 0 and 15
+     */
+    public int getData(int x, int y, int z) {
+        return this.blocks.get(index(x, y, z)) & 0x0F;
+    }
+
+    /**
+     * Get the state of a block, which is the block id shifted left by four bits combined with the
+     * data value.
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param z The z coordinate
+     * @return Returns the block state
+     */
+    public int getBlockState(int x, int y, int z) {
+        return this.blocks.get(index(x, y, z));
+    }
+
+    /**
+     * Get the light emitted by blocks at a position.
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param z The z coordinate
+     * @return Returns the block light, between 0 and 15
+     */
+    public int getBlockLight(int x, int y, int z) {
+        return BlockStorage.nibble(this.blockLight, index(x, y, z));
+    }
+
+    /**
+     * Get the light from the sky at a position.
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param z The z coordinate
+     * @return Returns the sky light, between 0 and 15
+     */
+    public int getSkyLight(int x, int y, int z) {
+        return BlockStorage.nibble(this.skyLight, index(x, y, z));
+    }
+
+    /**
+     * Set a block. Shared storage is copied before it is modified.
+     *
+     * @param x    The x coordinate
+     * @param y    The y coordinate
+     * @param z    The z coordinate
+     * @param id   The block id, between 0 and 4095
+     * @param data The data value, between 0 and 15
+     */
+    public void setBlock(int x, int y, int z, int id, int data) {
+        setBlockState(x, y, z, (id << 4) | (data & 0x0F));
+    }
+
+    /**
+     * Set the state of a block, which is the block id shifted left by four bits combined with the
+     * data value.
+     *
+     * @param x     The x coordinate
+     * @param y     The y coordinate
+     * @param z     The z coordinate
+     * @param state The block state
+     */
+    public void setBlockState(int x, int y, int z, int state) {
+        checkWritable();
+        int index = index(x, y, z);
+        state &= 0xFFFF;
+        if (this.blocks.get(index) == state) {
+            return;
+        }
+        if (this.blocks.isShared()) {
+            this.blocks = this.blocks.copy();
+        }
+        this.blocks.set(index, state);
+        this.dirty = true;
+    }
+
+    /**
+     * Replace every block of this section with the states of an array. The array is packed into
+     * new storage and is not kept. Only the low 16 bits of each state are kept.
+     *
+     * @param states The 4096 block states, in YZX order
+     */
+    public void setBlockStates(int[] states) {
+        checkWritable();
+        if (states.length != 4096) {
+            throw new IllegalArgumentException("A section holds 4096 blocks, not " + states.length);
+        }
+        this.blocks = BlockStorage.of(states);
+        this.dirty = true;
+    }
+
+    /**
+     * Set every block of this section to a single state. The section then shares its storage
+     * with every other section of that state.
+     *
+     * @param state The block state
+     */
+    public void fill(int state) {
+        checkWritable();
+        BlockStorage uniform = BlockStorage.uniform(state & 0xFFFF);
+        if (this.blocks != uniform) {
+            this.blocks = uniform;
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Replace every block of a state with another state. When the new state is not in the
+     * palette yet, only the palette entry is rewritten and the blocks are left untouched.
+     *
+     * @param from The state to replace
+     * @param to   The new state
+     * @return Returns if any block was replaced
+     */
+    public boolean replace(int from, int to) {
+        checkWritable();
+        to &= 0xFFFF;
+        int index = this.blocks.indexOf(from);
+        if (index < 0 || from == to) {
+            return false;
+        }
+        if (this.blocks.isUniform()) {
+            this.blocks = BlockStorage.uniform(to);
+        } else if (this.blocks.indexOf(to) < 0) {
+            this.blocks.setPaletteEntry(index, to);
+        } else {
+            int[] states = new int[4096];
+            this.blocks.copyInto(states, 0);
+            for (int i = 0; i < 4096; i++) {
+                if (states[i] == from) {
+                    states[i] = to;
+                }
+            }
+            this.blocks = BlockStorage.of(states);
+        }
+        this.dirty = true;
+        return true;
+    }
+
+    /**
+     * Check if the palette of this section holds a state. After single block edits the palette
+     * may still hold states which no block uses any more.
+     *
+     * @param state The block state
+     * @return Returns if the state is in the palette
+     */
+    public boolean contains(int state) {
+        return this.blocks.indexOf(state) >= 0;
+    }
+
+    public void setBlockLight(int x, int y, int z, int light) {
+        checkWritable();
+        int index = index(x, y, z);
+        if (BlockStorage.nibble(this.blockLight, index) != light) {
+            this.blockLight = setNibble(this.blockLight, index, light);
+            this.dirty = true;
+        }
+    }
+
+    public void setSkyLight(int x, int y, int z, int light) {
+        checkWritable();
+        int index = index(x, y, z);
+        if (BlockStorage.nibble(this.skyLight, index) != light) {
+            this.skyLight = setNibble(this.skyLight, index, light);
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Check if this section may be modified. The sections returned by {@link
+     * Chunk#getSection(byte)} for missing sections are shared and read only.
+     *
+     * @return Returns if the section is read only
+     */
+    public boolean isReadOnly() {
+        return this.readOnly;
+    }
+
+    private void checkWritable() {
+        if (this.readOnly) {
+            throw new UnsupportedOperationException("This section is shared and read only, use Chunk#getOrCreateSection(int)");
+        }
+    }
+
+    /**
+     * Check if this section has been modified since it was loaded or last saved.
+     *
+     * @return Returns if the section is dirty
+     */
+    public boolean isDirty() {
+        return this.dirty;
+    }
+
+    void markClean() {
+        this.dirty = false;
+    }
+
+    /**
+     * Convert this section into the compound tag stored in the <code>Sections</code> list of a
+     * chunk.
+     *
+     * @return Returns the tag
+     */
+    CompoundTag toTag() {
+        Map<String, Tag> tags = new HashMap<>();
+        tags.put("Y", new ByteTag("Y", this.y));
+        tags.put("Blocks", new ByteArrayTag("Blocks", this.blocks.toBlocks()));
+        byte[] add = this.blocks.toAdd();
+        if (add.length != 0) {
+            tags.put("Add", new ByteArrayTag("Add", add));
+        }
+        tags.put("Data", new ByteArrayTag("Data", this.blocks.toData()));
+        tags.put("BlockLight", new ByteArrayTag("BlockLight", this.blockLight.clone()));
+        tags.put("SkyLight", new ByteArrayTag("SkyLight", this.skyLight.clone()));
+        return new CompoundTag("", tags);
+    }
+
+    /**
+     * Write the block light and then the sky light, as stored in the section tag.
+     *
+     * @param dst The destination, with room for 4096 bytes
+     */
+    void putLight(ByteBuffer dst) {
+        dst.put(this.blockLight).put(this.skyLight);
+    }
+
+    /**
+     * Check if every block of this section is the same.
+     *
+     * @return Returns if the section holds a single block state
+     */
+    public boolean isUniform() {
+        return this.blocks.isUniform();
+    }
+
+    /**
+     * Get the number of distinct block states in this section.
+     *
+     * @return Returns the palette size
+     */
+    public int getPaletteSize() {
+        return this.blocks.getPaletteSize();
+    }
+
+    /**
+     * Get the number of bytes this section holds on its own, leaving out shared storage and
+     * object headers.
+     *
+     * @return Returns the size in bytes
+     */
+    public int getSizeInBytes() {
+        int size = this.blocks.getSizeInBytes();
+        if (!isShared(this.blockLight)) {
+            size += this.blockLight.length;
+        }
+        if (!isShared(this.skyLight)) {
+            size += this.skyLight.length;
+        }
+        return size;
+    }
+
+    /**
+     * Copy the id of every block into an array, in YZX order like the <code>Blocks</code> tag.
+     *
+     * @param dst The destination, at least 4096 long
+     */
+    public void copyBlocksInto(int[] dst) {
+        copyBlocksInto(dst, 0);
+    }
+
+    /**
+     * Copy the id of every block into an array, in YZX order like the <code>Blocks</code> tag.
+     * This allows the sections of a chunk to be copied into a single array.
+     *
+     * @param dst    The destination
+     * @param offset The index of the first block in the destination
+     */
+    public void copyBlocksInto(int[] dst, int offset) {
+        copyBlockStatesInto(dst, offset);
+        for (int i = offset; i < offset + 4096; i++) {
+            dst[i] >>= 4;
+        }
+    }
+
+    /**
+     * Copy the state of every block into an array, in YZX order.
+     *
+     * @param dst    The destination
+     * @param offset The index of the first block in the destination
+     */
+    public void copyBlockStatesInto(int[] dst, int offset) {
+        if (offset < 0 || offset + 4096 > dst.length) {
+            throw new IndexOutOfBoundsException("4096 blocks do not fit at offset " + offset + " of " + dst.length);
+        }
+        this.blocks.copyInto(dst, offset);
+    }
+
+    /**
+     * Copy the data value of every block into an array, one value per byte.
+     *
+     * @param dst The destination, at least 4096 long
+     */
+    public void copyDataInto(byte[] dst) {
+        if (dst.length < 4096) {
+            throw new IndexOutOfBoundsException("The destination must hold 4096 values");
+        }
+        for (int i = 0; i < 4096; i++) {
+            dst[i] = (byte) (this.blocks.get(i) & 0x0F);
+        }
+    }
+
+    /**
+     * Copy the block light of every block into an array, one value per byte.
+     *
+     * @param dst The destination, at least 4096 long
+     */
+    public void copyBlockLightInto(byte[] dst) {
+        unpack(this.blockLight, dst);
+    }
+
+    /**
+     * Copy the sky light of every block into an array, one value per byte.
+     *
+     * @param dst The destination, at least 4096 long
+     */
+    public void copySkyLightInto(byte[] dst) {
+        unpack(this.skyLight, dst);
+    }
+
+    /**
+     * @deprecated Boxes every block into a new list, use {@link #getBlockId(int, int, int)} or
+     * {@link #copyBlocksInto(int[])} instead
+     */
+    @Deprecated
     public ArrayList<Byte> getBlocks() {
-        return getArrayList(this.blocks);
+        return getArrayList(this.blocks.toBlocks());
     }
 
+    /**
+     * @deprecated Boxes every nibble pair into a new list, use {@link #getBlockId(int, int, int)}
+     * instead
+     */
+    @Deprecated
     public Optional<ArrayList<Byte>> getAdditionalBlockData() {
-        if (ArrayUtils.isNotEmpty(this.add)) {
-            return Optional.of(getArrayList(this.add));
+        byte[] add = this.blocks.toAdd();
+        if (ArrayUtils.isNotEmpty(add)) {
+            return Optional.of(getArrayList(add));
         }
         return Optional.empty();
     }
 
+    /**
+     * @deprecated Boxes every nibble pair into a new list, use {@link #getBlockLight(int, int,
+     * int)} or {@link #copyBlockLightInto(byte[])} instead
+     */
+    @Deprecated
     public ArrayList<Byte> getBlockLight() {
         return getArrayList(this.blockLight);
     }
 
+    /**
+     * @deprecated Boxes every nibble pair into a new list, use {@link #getSkyLight(int, int, int)}
+     * or {@link #copySkyLightInto(byte[])} instead
+     */
+    @Deprecated
     public ArrayList<Byte> getSkyLight() {
-        return getArrayList(this.blockLight);
+        return getArrayList(this.skyLight);
     }
 
     private ArrayList<Byte> getArrayList(byte[] original) {
@@ -73,6 +464,45 @@ public class Section {
         return new ArrayList<>(Arrays.asList(byteArray));
     }
 
+    static int index(int x, int y, int z) {
+        return (y << 8) | (z << 4) | x;
+    }
+
+    private static void unpack(byte[] nibbles, byte[] dst) {
+        if (dst.length < 4096) {
+            throw new IndexOutOfBoundsException("The destination must hold 4096 values");
+        }
+        for (int i = 0; i < 2048; i++) {
+            byte packed = nibbles[i];
+            dst[i << 1] = (byte) (packed & 0x0F);
+            dst[(i << 1) | 1] = (byte) ((packed >> 4) & 0x0F);
+        }
+    }
+
+    private static byte[] setNibble(byte[] nibbles, int index, int value) {
+        byte[] target = isShared(nibbles) ? nibbles.clone() : nibbles;
+        int shift = (index & 1) << 2;
+        target[index >> 1] = (byte) ((target[index >> 1] & ~(0x0F << shift)) | ((value & 0x0F) << shift));
+        return target;
+    }
+
+    private static boolean isShared(byte[] light) {
+        return light == NO_LIGHT || light == FULL_LIGHT;
+    }
+
+    private static byte[] share(byte[] light) {
+        byte first = light[0];
+        if (first != 0 && first != -1) {
+            return light;
+        }
+        for (byte value : light) {
+            if (value != first) {
+                return light;
+            }
+        }
+        return first == 0 ? NO_LIGHT : FULL_LIGHT;
+    }
+
     public int getY() {
         return this.y;
     }
@@ -82,41 +512,59 @@ public class Section {
     }
 
     /**
-     * Create a empty section filled with air.
+     * Create a empty section filled with air. The section shares its storage with every other
+     * empty section, so this does not allocate any arrays.
      *
      * @param i The vertical location of the section
      * @return An empty section
      * @throws ParseException This should never be thrown
      */
     public static Section empty(byte i) throws ParseException {
-        byte[] blocks = new byte[4096];
-        Arrays.fill(blocks, (byte) 0);
-        byte[] data = new byte[2048];
-        Arrays.fill(data, (byte) 0);
-        byte[] blockLight = new byte[2048];
-        byte[] skyLight = new byte[2048];
-        Arrays.fill(blockLight, (byte) -1);
-        Arrays.fill(skyLight, (byte) -1);
-        return new Builder().y(i).blocks(blocks).data(data).blockLight(blockLight).skyLight(skyLight).build().get();
+        return new Section(i, BlockStorage.uniform(0), NO_LIGHT, FULL_LIGHT);
     }
 
+    /**
+     * Get the shared, read only section of air at a height.
+     *
+     * @param y The vertical location of the section, between 0 and 15
+     * @return Returns the shared section
+     */
+    static Section readOnlyEmpty(byte y) {
+        return READ_ONLY_EMPTY[y];
+    }
+
+    /**
+     * Create a section filled with a single block. The section shares its storage with every
+     * other section filled with that block.
+     *
+     * @param i  The vertical location of the section
+     * @param id The block id
+     * @return A filled section
+     * @throws ParseException This should never be thrown
+     */
     public static Section fill(byte i, byte id) throws ParseException {
-        byte[] blocks = new byte[4096];
-        Arrays.fill(blocks, id);
-        byte[] data = new byte[2048];
-        Arrays.fill(data, id);
-        byte[] blockLight = new byte[2048];
-        byte[] skyLight = new byte[2048];
-        Arrays.fill(blockLight, (byte) -1);
-        Arrays.fill(skyLight, (byte) -1);
-        return new Builder().y(i).blocks(blocks).data(data).blockLight(blockLight).skyLight(skyLight).build().get();
+        return new Section(i, BlockStorage.uniform((id & 0xFF) << 4), NO_LIGHT, FULL_LIGHT);
+    }
+
+    /**
+     * Create a section from block states and the light arrays of a section tag. The light arrays
+     * are kept, the states are packed and are not.
+     *
+     * @param y          The vertical location of the section
+     * @param states     The 4096 block states, in YZX order
+     * @param blockLight The block light, two values per byte
+     * @param skyLight   The sky light, two values per byte
+     * @return Returns the section
+     */
+    static Section of(byte y, int[] states, byte[] blockLight, byte[] skyLight) {
+        return new Section(y, BlockStorage.of(states), share(blockLight), share(skyLight));
     }
 
     public static class Builder {
 
         public byte y = 0;
         private byte[] blocks = new byte[4096];
-        private byte[] add = new byte[4096];
+        private byte[] add = ArrayUtils.EMPTY_BYTE_ARRAY;
         private byte[] data = new byte[2048];
         private byte[] blockLight = new byte[2048];
         private byte[] skyLight = new byte[2048];
@@ -137,7 +585,10 @@ public class Section {
             return this;
         }
 
-        public Builder add(byte[] add) {
+        public Builder add(byte[] add) throws ParseException {
+            if (add.length != 0 && add.length != 2048) {
+                throw new ParseException("The array length can only be 0 or 2048");
+            }
             this.add = add;
             return this;
         }
@@ -167,7 +618,7 @@ public class Section {
         }
 
         public Optional<Section> build() {
-            return Optional.of(new Section(this.y, this.blocks, this.add, this.data, this.blockLight, this.skyLight));
+            return Optional.of(new Section(this.y, BlockStorage.of(this.blocks, this.add, this.data), share(this.blockLight), share(this.skyLight)));
         }
     }
 }
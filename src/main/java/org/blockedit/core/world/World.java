@@ -1,22 +1,880 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
 package org.blockedit.core.world;
 
+import org.blockedit.core.MalformedWorldException;
+import org.blockedit.core.output.AtomicSave;
+import org.jnbt.CompoundTag;
+import org.jnbt.CompressionCodecs;
+
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Represents a Minecraft world, which holds the chunks of every dimension. <p>The block methods
+ * of a world may be called from any thread. Chunks are guarded by a fixed set of {@link
+ * StampedLock}s, each one shared by the chunks whose coordinates hash to it, so edits to
+ * different chunks rarely wait on each other. Block lookups first read without locking and only
+ * take a read lock if a write happened meanwhile. {@link Chunk} itself is not thread safe, so code
+ * working on chunks of a shared world should go through {@link #readChunk(Dimension, int, int,
+ * Function)} and {@link #editChunk(Dimension, int, int, Consumer)}.</p> <p>A world loaded with
+ * {@link Loader#cache(long)} is paged: its chunks stay in a {@link ChunkCache} and are read from
+ * its region files when first used, so only the cache budget is held in memory. Block lookups and
+ * edits then work on the cached sections in place. The chunks given to {@link
+ * #readChunk(Dimension, int, int, Function)} and {@link #editChunk(Dimension, int, int, Consumer)}
+ * are built from the cache, and edited ones are stored back when the editor returns. Failures to
+ * read or write a region file are thrown as {@link UncheckedIOException}s. A paged world must be
+ * closed to write back the chunks still held by the cache.</p>
+ *
+ * @author Jeff Chen
+ */
+public class World implements Closeable {
+
+    /**
+     * The journal of an atomic save, kept in the world directory while a save is in progress.
+     */
+    public static final String SAVE_JOURNAL = "blockedit-save.journal";
+
+    private static final int LOCK_STRIPES = 256;
 
-public class World {
+    private final File directory;
+    private final Map<Dimension, Map<Long, Chunk>> chunks;
+    private final ChunkCache cache;
+    private final StampedLock[] locks = new StampedLock[LOCK_STRIPES];
+
+    private World(File directory, Map<Dimension, Map<Long, Chunk>> chunks, ChunkCache cache) {
+        this.directory = directory;
+        this.chunks = chunks;
+        this.cache = cache;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            this.locks[i] = new StampedLock();
+        }
+    }
 
     public File getDirectory() {
-        return null;
+        return this.directory;
+    }
+
+    /**
+     * Get the cache holding the chunks of a paged world.
+     *
+     * @return Returns the cache, if this world is paged
+     */
+    public Optional<ChunkCache> getCache() {
+        return Optional.ofNullable(this.cache);
+    }
+
+    /**
+     * Get a loaded chunk. A paged world returns a copy built from the cache, unless the chunk is
+     * held by {@link #withWriteLocks(Dimension, Collection, Runnable)}; changes to a copy are lost.
+     *
+     * @param dimension The dimension
+     * @param x         The chunk x coordinate
+     * @param z         The chunk z coordinate
+     * @return Returns the chunk, if it has been loaded
+     */
+    public Optional<Chunk> getChunk(Dimension dimension, int x, int z) {
+        return Optional.ofNullable(chunk(dimension, x, z));
+    }
+
+    /**
+     * Get every loaded chunk of a dimension.
+     *
+     * @param dimension The dimension
+     * @return Returns the chunks
+     * @throws UnsupportedOperationException If this world is paged
+     */
+    public Collection<Chunk> getChunks(Dimension dimension) {
+        if (this.cache != null) {
+            throw new UnsupportedOperationException("The chunks of a paged world cannot be listed");
+        }
+        return Collections.unmodifiableCollection(this.chunks.get(dimension).values());
+    }
+
+    /**
+     * Get the number of loaded chunks in every dimension. For a paged world, this is the number
+     * of cached chunks.
+     *
+     * @return Returns the chunk count
+     */
+    public int getChunkCount() {
+        if (this.cache != null) {
+            return this.cache.size();
+        }
+        int count = 0;
+        for (Map<Long, Chunk> dimension : this.chunks.values()) {
+            count += dimension.size();
+        }
+        return count;
+    }
+
+    /**
+     * Get the state of a block, which is the block id shifted left by four bits combined with the
+     * data value.
+     *
+     * @param dimension The dimension
+     * @param x         The block x coordinate
+     * @param y         The block y coordinate, between 0 and 255
+     * @param z         The block z coordinate
+     * @return Returns the block state, or 0 (air) if the chunk is not loaded
+     */
+    public int getBlockState(Dimension dimension, int x, int y, int z) {
+        Chunk chunk = this.chunks.get(dimension).get(chunkKey(x >> 4, z >> 4));
+        if (chunk == null && this.cache == null) {
+            return 0;
+        }
+        StampedLock lock = lock(dimension, x >> 4, z >> 4);
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                int state = blockState(dimension, x, y, z);
+                if (lock.validate(stamp)) {
+                    return state;
+                }
+            } catch (RuntimeException e) {
+                // A concurrent write left the chunk inconsistent, retry under the read lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return blockState(dimension, x, y, z);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Read a block from its loaded chunk, or from the cache if the chunk is not held.
+     */
+    private int blockState(Dimension dimension, int x, int y, int z) {
+        Chunk chunk = this.chunks.get(dimension).get(chunkKey(x >> 4, z >> 4));
+        if (chunk != null) {
+            return chunk.getBlockState(x & 15, y, z & 15);
+        } else if (this.cache == null) {
+            return 0;
+        }
+        try {
+            return this.cache.getBlockState(dimension, x, y, z);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (MalformedWorldException e) {
+            throw new UncheckedIOException(new IOException(e.getMessage(), e));
+        }
+    }
+
+    /**
+     * Set a block.
+     *
+     * @param dimension The dimension
+     * @param x         The block x coordinate
+     * @param y         The block y coordinate, between 0 and 255
+     * @param z         The block z coordinate
+     * @param id        The block id
+     * @param data      The data value
+     * @return Returns if the chunk is loaded and the block was set
+     */
+    public boolean setBlock(Dimension dimension, int x, int y, int z, int id, int data) {
+        if (this.cache == null) {
+            return editChunk(dimension, x >> 4, z >> 4, chunk -> chunk.setBlock(x & 15, y, z & 15, id, data));
+        }
+        StampedLock lock = lock(dimension, x >> 4, z >> 4);
+        long stamp = lock.writeLock();
+        try {
+            Chunk chunk = this.chunks.get(dimension).get(chunkKey(x >> 4, z >> 4));
+            if (chunk != null) {
+                chunk.setBlock(x & 15, y, z & 15, id, data);
+                return true;
+            }
+            return this.cache.setBlockState(dimension, x, y, z, (id << 4) | (data & 0x0F));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (MalformedWorldException e) {
+            throw new UncheckedIOException(new IOException(e.getMessage(), e));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Read from a chunk while holding its read lock. Other readers may run at the same time.
+     *
+     * @param dimension The dimension
+     * @param x         The chunk x coordinate
+     * @param z         The chunk z coordinate
+     * @param reader    Reads from the chunk
+     * @param <T>       The type of the result
+     * @return Returns the result of the reader, if the chunk is loaded
+     */
+    public <T> Optional<T> readChunk(Dimension dimension, int x, int z, Function<Chunk, T> reader) {
+        if (this.cache == null && !this.chunks.get(dimension).containsKey(chunkKey(x, z))) {
+            return Optional.empty();
+        }
+        StampedLock lock = lock(dimension, x, z);
+        long stamp = lock.readLock();
+        try {
+            Chunk chunk = chunk(dimension, x, z);
+            return chunk == null ? Optional.empty() : Optional.ofNullable(reader.apply(chunk));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Modify a chunk while holding its write lock.
+     *
+     * @param dimension The dimension
+     * @param x         The chunk x coordinate
+     * @param z         The chunk z coordinate
+     * @param editor    Modifies the chunk
+     * @return Returns if the chunk is loaded
+     */
+    public boolean editChunk(Dimension dimension, int x, int z, Consumer<Chunk> editor) {
+        if (this.cache == null && !this.chunks.get(dimension).containsKey(chunkKey(x, z))) {
+            return false;
+        }
+        StampedLock lock = lock(dimension, x, z);
+        long stamp = lock.writeLock();
+        try {
+            Chunk chunk = this.chunks.get(dimension).get(chunkKey(x, z));
+            if (chunk != null) {
+                editor.accept(chunk);
+                return true;
+            }
+            chunk = chunk(dimension, x, z);
+            if (chunk == null) {
+                return false;
+            }
+            editor.accept(chunk);
+            if (chunk.isDirty()) {
+                this.cache.putChunk(dimension, chunk);
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (MalformedWorldException e) {
+            throw new UncheckedIOException(new IOException(e.getMessage(), e));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Run an action while holding the write locks of every chunk in a set of areas. The locks are
+     * taken in a fixed order, so callers locking overlapping areas cannot deadlock. The locks are
+     * not tied to the calling thread, so the action may hand the chunks to other threads as long
+     * as it waits for them. A paged world holds the chunks of the areas while the action runs, so
+     * {@link #getChunk(Dimension, int, int)} returns them instead of copies, and stores the
+     * modified ones back in the cache afterwards.
+     *
+     * @param dimension The dimension
+     * @param areas     The areas, each holding the lowest x, lowest z, highest x and highest z
+     *                  chunk coordinates
+     * @param action    The action
+     */
+    void withWriteLocks(Dimension dimension, Collection<int[]> areas, Runnable action) {
+        boolean[] stripes = new boolean[LOCK_STRIPES];
+        for (int[] area : areas) {
+            for (int x = area[0]; x <= area[2]; x++) {
+                for (int z = area[1]; z <= area[3]; z++) {
+                    stripes[stripe(dimension, x, z)] = true;
+                }
+            }
+        }
+        long[] stamps = new long[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            if (stripes[i]) {
+                stamps[i] = this.locks[i].writeLock();
+            }
+        }
+        List<Chunk> held = new ArrayList<>();
+        try {
+            if (this.cache != null) {
+                for (int[] area : areas) {
+                    for (int x = area[0]; x <= area[2]; x++) {
+                        for (int z = area[1]; z <= area[3]; z++) {
+                            Chunk chunk = chunk(dimension, x, z);
+                            if (chunk != null && this.chunks.get(dimension).putIfAbsent(chunkKey(x, z), chunk) == null) {
+                                held.add(chunk);
+                            }
+                        }
+                    }
+                }
+            }
+            action.run();
+        } finally {
+            RuntimeException failure = null;
+            for (Chunk chunk : held) {
+                this.chunks.get(dimension).remove(chunkKey(chunk.getX(), chunk.getZ()));
+                try {
+                    if (chunk.isDirty()) {
+                        this.cache.putChunk(dimension, chunk);
+                    }
+                } catch (IOException | MalformedWorldException | RuntimeException e) {
+                    if (failure == null) {
+                        failure = e instanceof RuntimeException ? (RuntimeException) e : new UncheckedIOException(e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e));
+                    }
+                }
+            }
+            for (int i = LOCK_STRIPES - 1; i >= 0; i--) {
+                if (stripes[i]) {
+                    this.locks[i].unlockWrite(stamps[i]);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Find a loaded chunk, or build it from the cache of a paged world.
+     */
+    private Chunk chunk(Dimension dimension, int x, int z) {
+        Chunk chunk = this.chunks.get(dimension).get(chunkKey(x, z));
+        if (chunk != null || this.cache == null) {
+            return chunk;
+        }
+        try {
+            return this.cache.getChunk(dimension, x, z).orElse(null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (MalformedWorldException e) {
+            throw new UncheckedIOException(new IOException(e.getMessage(), e));
+        }
+    }
+
+    /**
+     * Close the cache of a paged world, writing back its dirty chunks. Other worlds hold no
+     * resources.
+     *
+     * @throws IOException If a region file could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.cache != null) {
+            this.cache.close();
+        }
+    }
+
+    private StampedLock lock(Dimension dimension, int x, int z) {
+        return this.locks[stripe(dimension, x, z)];
+    }
+
+    private static int stripe(Dimension dimension, int x, int z) {
+        int hash = (x * 31 + z) * 31 + dimension.ordinal();
+        hash ^= hash >>> 16;
+        return (hash * 0x9E3779B9 >>> 24) & (LOCK_STRIPES - 1);
+    }
+
+    /**
+     * Get the exporter which saves the modified chunks of this world.
+     *
+     * @return Returns the world exporter
+     */
+    public Exporter getExporter() {
+        return new Exporter(this);
+    }
+
+    static long chunkKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Receives progress updates from a {@link Loader}. Updates are sent from the loading threads.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+
+        /**
+         * Called each time a region file has been decoded.
+         *
+         * @param regionsDone     The number of decoded region files
+         * @param regionsTotal    The number of region files in the world
+         * @param chunksLoaded    The number of decoded chunks
+         * @param chunksPerSecond The decoding throughput so far
+         */
+        void progress(int regionsDone, int regionsTotal, long chunksLoaded, double chunksPerSecond);
     }
 
     public static class Builder {
 
+        private File directory;
+        private final Map<Dimension, Map<Long, Chunk>> chunks = new EnumMap<>(Dimension.class);
+
+        public Builder() {
+            for (Dimension dimension : Dimension.values()) {
+                this.chunks.put(dimension, new ConcurrentHashMap<>());
+            }
+        }
+
+        public Builder directory(File directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * Add a chunk to a dimension. This method may be called from several threads at once.
+         *
+         * @param dimension The dimension
+         * @param chunk     The chunk
+         * @return Returns this builder, for chaining
+         */
+        public Builder addChunk(Dimension dimension, Chunk chunk) {
+            this.chunks.get(dimension).put(chunkKey(chunk.getX(), chunk.getZ()), chunk);
+            return this;
+        }
+
+        public World build() {
+            return new World(this.directory, this.chunks, null);
+        }
     }
 
+    /**
+     * Loads every region file of a world. <p>Region files are independent of each other, so each
+     * one is decoded by its own task on a {@link ForkJoinPool}. The number of regions being decoded
+     * at once is bounded, which keeps the memory held by undelivered chunks bounded as well; the
+     * submitting thread waits until a region finishes before handing out the next one.</p>
+     */
     public static class Loader {
 
+        private final File directory;
+        private ForkJoinPool pool;
+        private int maxPendingRegions = Runtime.getRuntime().availableProcessors() * 2;
+        private ProgressListener listener = (regionsDone, regionsTotal, chunksLoaded, chunksPerSecond) -> {};
+        private long cacheBytes = 0;
+
+        public Loader(File directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * Set the pool used to decode region files. When no pool is set, a pool with one thread
+         * per processor is created for each load and shut down afterwards.
+         *
+         * @param pool The pool
+         * @return Returns this loader, for chaining
+         */
+        public Loader pool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * Set how many region files may be decoded at the same time.
+         *
+         * @param maxPendingRegions The limit, at least 1
+         * @return Returns this loader, for chaining
+         */
+        public Loader maxPendingRegions(int maxPendingRegions) {
+            if (maxPendingRegions < 1) {
+                throw new IllegalArgumentException("At least one region must be allowed");
+            }
+            this.maxPendingRegions = maxPendingRegions;
+            return this;
+        }
+
+        public Loader progressListener(ProgressListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * Load a paged world instead, whose chunks are read from their region files when first
+         * used and kept in a {@link ChunkCache} of at most the given size.
+         *
+         * @param byteBudget The most off-heap memory the cache may use, at least 256 KiB
+         * @return Returns this loader, for chaining
+         */
+        public Loader cache(long byteBudget) {
+            this.cacheBytes = byteBudget;
+            return this;
+        }
+
+        /**
+         * Find the region files of a dimension.
+         *
+         * @param dimension The dimension
+         * @return Returns the region files, or an empty list if the dimension has none
+         */
+        public List<File> findRegionFiles(Dimension dimension) {
+            File[] files = dimension.getRegionDirectory(this.directory).listFiles(RegionFile::isRegionFile);
+            if (files == null) {
+                return Collections.emptyList();
+            }
+            List<File> regions = new ArrayList<>(files.length);
+            Collections.addAll(regions, files);
+            return regions;
+        }
+
+        /**
+         * Load every chunk of every dimension into a new {@link World}. A paged world is returned
+         * without reading any chunk, once a save interrupted by a crash is recovered.
+         *
+         * @return Returns the world
+         * @throws IOException             If a region file could not be read
+         * @throws MalformedWorldException If a chunk is corrupted
+         */
+        public World load() throws IOException, MalformedWorldException {
+            if (this.cacheBytes > 0) {
+                AtomicSave.recover(new File(this.directory, SAVE_JOURNAL));
+                Map<Dimension, Map<Long, Chunk>> chunks = new EnumMap<>(Dimension.class);
+                for (Dimension dimension : Dimension.values()) {
+                    chunks.put(dimension, new ConcurrentHashMap<>());
+                }
+                return new World(this.directory, chunks, new ChunkCache(this.directory, this.cacheBytes));
+            }
+            Builder builder = new Builder().directory(this.directory);
+            load(builder::addChunk);
+            return builder.build();
+        }
+
+        /**
+         * Decode every chunk of every dimension without keeping them. The consumer is called from
+         * the loading threads and must be thread safe. A save interrupted by a crash is recovered
+         * first, see {@link AtomicSave#recover(File)}.
+         *
+         * @param consumer Receives each decoded chunk
+         * @throws IOException             If a region file could not be read
+         * @throws MalformedWorldException If a chunk is corrupted
+         */
+        public void load(BiConsumer<Dimension, Chunk> consumer) throws IOException, MalformedWorldException {
+            AtomicSave.recover(new File(this.directory, SAVE_JOURNAL));
+            Map<Dimension, List<File>> regions = new EnumMap<>(Dimension.class);
+            int total = 0;
+            for (Dimension dimension : Dimension.values()) {
+                List<File> files = findRegionFiles(dimension);
+                regions.put(dimension, files);
+                total += files.size();
+            }
+            ForkJoinPool pool = this.pool != null ? this.pool : new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+            Semaphore pending = new Semaphore(this.maxPendingRegions);
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            AtomicInteger regionsDone = new AtomicInteger();
+            AtomicLong chunksLoaded = new AtomicLong();
+            long start = System.nanoTime();
+            int regionsTotal = total;
+            try {
+                for (Map.Entry<Dimension, List<File>> entry : regions.entrySet()) {
+                    Dimension dimension = entry.getKey();
+                    for (File file : entry.getValue()) {
+                        pending.acquireUninterruptibly();
+                        if (failure.get() != null) {
+                            pending.release();
+                            break;
+                        }
+                        pool.execute(() -> {
+                            try (RegionFile region = new RegionFile(file)) {
+                                for (int z = 0; z < 32 && failure.get() == null; z++) {
+                                    for (int x = 0; x < 32; x++) {
+                                        Optional<Chunk> chunk = region.readChunk(x, z);
+                                        if (chunk.isPresent()) {
+                                            consumer.accept(dimension, chunk.get());
+                                            chunksLoaded.incrementAndGet();
+                                        }
+                                    }
+                                }
+                                double seconds = (System.nanoTime() - start) / 1e9;
+                                this.listener.progress(regionsDone.incrementAndGet(), regionsTotal, chunksLoaded.get(), chunksLoaded.get() / Math.max(seconds, 1e-9));
+                            } catch (IOException | MalformedWorldException | RuntimeException e) {
+                                failure.compareAndSet(null, e);
+                            } finally {
+                                pending.release();
+                            }
+                        });
+                    }
+                }
+                pending.acquireUninterruptibly(this.maxPendingRegions);
+                pending.release(this.maxPendingRegions);
+            } finally {
+                if (this.pool == null) {
+                    pool.shutdown();
+                    try {
+                        pool.awaitTermination(1, TimeUnit.MINUTES);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            Exception e = failure.get();
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            } else if (e instanceof MalformedWorldException) {
+                throw (MalformedWorldException) e;
+            } else if (e != null) {
+                throw (RuntimeException) e;
+            }
+        }
     }
 
-    private static class Exporter {
+    /**
+     * Saves the chunks of a {@link World} which were modified since they were loaded or last
+     * saved. Dirty chunks are grouped by region file so each region is opened once, and clean
+     * chunks are never encoded. <p>Compressing chunks dominates the cost of a save, so chunks are
+     * compressed by tasks on a {@link ForkJoinPool}, while the calling thread is the only writer:
+     * it takes the compressed chunks in submission order, assigns their sectors and writes them
+     * with positional writes. Chunks of a region are written in index order, so the layout of the
+     * file does not depend on which task finishes first. The number of compressed chunks waiting to
+     * be written is bounded.</p> <p>By default a save is atomic: every region file touched is
+     * copied and updated through an {@link AtomicSave} journaled in {@link #SAVE_JOURNAL}, so a
+     * crash leaves either the old or the new copy of the whole world. This costs a copy of each
+     * touched region and one sync per region file at the end of the save.</p> <p>A paged world
+     * is saved by flushing its {@link ChunkCache}, which writes each dirty chunk in place; such a
+     * save is never atomic.</p>
+     */
+    public static class Exporter {
+
+        private final World world;
+        private ForkJoinPool pool;
+        private int maxPendingChunks = Runtime.getRuntime().availableProcessors() * 4;
+        private boolean atomic = true;
+
+        public Exporter(World world) {
+            this.world = world;
+        }
+
+        /**
+         * Set the pool used to compress chunks. When no pool is set, a pool with one thread per
+         * processor is created for each save and shut down afterwards.
+         *
+         * @param pool The pool
+         * @return Returns this exporter, for chaining
+         */
+        public Exporter pool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * Set how many chunks may be compressed ahead of the writer.
+         *
+         * @param maxPendingChunks The limit, at least 1
+         * @return Returns this exporter, for chaining
+         */
+        public Exporter maxPendingChunks(int maxPendingChunks) {
+            if (maxPendingChunks < 1) {
+                throw new IllegalArgumentException("At least one chunk must be allowed");
+            }
+            this.maxPendingChunks = maxPendingChunks;
+            return this;
+        }
+
+        /**
+         * Set if the save is atomic. Otherwise region files are updated in place, which is faster
+         * but a crash may leave a region with only some of its chunks written.
+         *
+         * @param atomic If the save is atomic
+         * @return Returns this exporter, for chaining
+         */
+        public Exporter atomic(boolean atomic) {
+            this.atomic = atomic;
+            return this;
+        }
+
+        /**
+         * Write every dirty chunk to its region file. Each chunk is copied into NBT under its write
+         * lock, then compressed and written without holding it. If the save fails, every chunk of
+         * an atomic save stays dirty; otherwise the failed chunk and every chunk not written yet
+         * do.
+         *
+         * @return Returns the number of chunks written
+         * @throws IOException             If a region file could not be written
+         * @throws MalformedWorldException If an existing region file is corrupted
+         */
+        public int write() throws IOException, MalformedWorldException {
+            if (this.world.cache != null) {
+                return this.world.cache.flush();
+            }
+            List<PendingChunk> chunks = new ArrayList<>();
+            for (Map.Entry<Dimension, Map<Long, Chunk>> entry : this.world.chunks.entrySet()) {
+                Map<Long, List<Chunk>> regions = new HashMap<>();
+                for (Chunk chunk : entry.getValue().values()) {
+                    if (chunk.isDirty()) {
+                        regions.computeIfAbsent(chunkKey(chunk.getX() >> 5, chunk.getZ() >> 5), key -> new ArrayList<>()).add(chunk);
+                    }
+                }
+                if (regions.isEmpty()) {
+                    continue;
+                }
+                File directory = entry.getKey().getRegionDirectory(this.world.directory);
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("Could not create " + directory);
+                }
+                for (List<Chunk> region : regions.values()) {
+                    Chunk first = region.get(0);
+                    Target target = new Target(new File(directory, "r." + (first.getX() >> 5) + "." + (first.getZ() >> 5) + ".mca"), region.size());
+                    region.sort(Comparator.comparingInt(chunk -> (chunk.getZ() & 31) * 32 + (chunk.getX() & 31)));
+                    for (Chunk chunk : region) {
+                        chunks.add(new PendingChunk(entry.getKey(), chunk, target));
+                    }
+                }
+            }
+            if (chunks.isEmpty()) {
+                return 0;
+            }
+
+            ForkJoinPool pool = this.pool != null ? this.pool : new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+            Deque<PendingChunk> pending = new ArrayDeque<>();
+            List<RegionFile> open = new ArrayList<>();
+            AtomicSave save = this.atomic ? new AtomicSave(new File(this.world.directory, SAVE_JOURNAL)) : null;
+            boolean committed = false;
+            int submitted = 0;
+            int written = 0;
+            try {
+                while (written < chunks.size()) {
+                    while (submitted < chunks.size() && pending.size() < this.maxPendingChunks) {
+                        PendingChunk chunk = chunks.get(submitted++);
+                        if (chunk.target.region == null) {
+                            File location = save != null ? save.stage(chunk.target.file, true) : chunk.target.file;
+                            chunk.target.region = new RegionFile(chunk.target.file, location, true, CompressionCodecs.ZLIB);
+                            open.add(chunk.target.region);
+                        }
+                        chunk.task = pool.submit(() -> compress(chunk));
+                        pending.add(chunk);
+                    }
+                    PendingChunk chunk = pending.peek();
+                    chunk.target.region.writeCompressedChunk(chunk.chunk.getX(), chunk.chunk.getZ(), await(chunk.task));
+                    pending.poll();
+                    written++;
+                    if (--chunk.target.remaining == 0) {
+                        open.remove(chunk.target.region);
+                        chunk.target.region.close();
+                    }
+                }
+                if (save != null) {
+                    save.commit();
+                }
+                committed = true;
+            } finally {
+                for (PendingChunk chunk : pending) {
+                    try {
+                        chunk.task.join();
+                    } catch (RuntimeException ignored) {
+                        // the chunk is marked dirty again below
+                    }
+                    chunk.chunk.markDirty();
+                }
+                if (!committed && save != null) {
+                    for (int i = 0; i < submitted; i++) {
+                        chunks.get(i).chunk.markDirty();
+                    }
+                }
+                for (RegionFile region : open) {
+                    region.close();
+                }
+                if (save != null) {
+                    save.close();
+                }
+                if (this.pool == null) {
+                    pool.shutdown();
+                }
+            }
+            return written;
+        }
+
+        private ByteBuffer compress(PendingChunk pending) throws IOException {
+            StampedLock lock = this.world.lock(pending.dimension, pending.chunk.getX(), pending.chunk.getZ());
+            CompoundTag tag;
+            long stamp = lock.writeLock();
+            try {
+                tag = new Chunk.Exporter(pending.chunk).toTag();
+                pending.chunk.markClean();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            return pending.target.region.compressChunk(tag);
+        }
+
+        private static ByteBuffer await(ForkJoinTask<ByteBuffer> task) throws IOException {
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while saving chunks");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+
+        /**
+         * A region file receiving chunks, opened by the writer before its first chunk is submitted
+         * and closed after its last chunk is written.
+         */
+        private static final class Target {
+
+            private final File file;
+            private int remaining;
+            private RegionFile region;
+
+            private Target(File file, int remaining) {
+                this.file = file;
+                this.remaining = remaining;
+            }
+        }
+
+        private static final class PendingChunk {
+
+            private final Dimension dimension;
+            private final Chunk chunk;
+            private final Target target;
+            private ForkJoinTask<ByteBuffer> task;
 
+            private PendingChunk(Dimension dimension, Chunk chunk, Target target) {
+                this.dimension = dimension;
+                this.chunk = chunk;
+                this.target = target;
+            }
+        }
     }
 }
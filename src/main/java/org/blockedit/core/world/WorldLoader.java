@@ -1,20 +1,22 @@
 package org.blockedit.core.world;
 
-import com.evilco.mc.nbt.stream.NbtInputStream;
-import com.evilco.mc.nbt.tag.TagCompound;
-
-import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 
 public class WorldLoader {
 
-
+    /**
+     * Print the number of chunks in a region file and the position of its first chunk.
+     *
+     * @param args The path of the region file
+     */
     public static void main(String[] args) {
-        try {
-            NbtInputStream stream = new NbtInputStream(new DataInputStream(new FileInputStream(new File("C:\\Users\\Jeff\\AppData\\Roaming\\.minecraft\\saves\\New World\\region\\r.-3.-2.mca"))));
-            TagCompound tag = new TagCompound(stream, false);
-            System.out.println(tag.getTagID());
+        if (args.length != 1) {
+            System.err.println("Usage: WorldLoader <region file>");
+            System.exit(2);
+        }
+        try (RegionFile region = new RegionFile(new File(args[0]))) {
+            System.out.println(region.getChunkCount() + " chunks");
+            region.readChunk(0, 0).ifPresent(chunk -> System.out.println("Chunk 0, 0 is at " + chunk.getChunkPos()));
         } catch(Exception e) {
             e.printStackTrace();
             System.exit(-1);
@@ -0,0 +1,394 @@
+/*
+ * BlockEdit, a general purpose software to edit Minecraft
+ * Copyright (c) 2015. Jeff Chen and others
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.blockedit.core.world;
+
+import org.blockedit.core.MalformedWorldException;
+import org.jnbt.ByteArrayTag;
+import org.jnbt.ByteTag;
+import org.jnbt.CompoundTag;
+import org.jnbt.ListTag;
+import org.jnbt.NBTUtils;
+import org.jnbt.Tag;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Counts and searches the blocks of a world straight from its region files, without loading it.
+ * <p>Each region file is scanned by its own task on a {@link ForkJoinPool}. Only the sections
+ * and biomes of a chunk are decoded, and block arrays are read in place from the decompressed
+ * chunk. Every thread of the pool fills its own histograms, which are merged once the scan is
+ * done, so threads never share a counter.</p> <p>Only stored sections are scanned: the air of
+ * sections missing from a chunk is not counted.</p>
+ *
+ * @author Jeff Chen
+ */
+public final class WorldScanner {
+
+    private static final Predicate<String> FILTER = NBTUtils.pathFilter("Level/Sections", "Level/Biomes");
+    private static final ThreadLocal<int[]> STATES = ThreadLocal.withInitial(() -> new int[4096]);
+    private static final ThreadLocal<byte[]> BYTES = ThreadLocal.withInitial(() -> new byte[4096]);
+
+    private final File directory;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    public WorldScanner(File directory) {
+        this.directory = directory;
+    }
+
+    public WorldScanner pool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Count every block of a dimension.
+     *
+     * @param dimension The dimension
+     * @return Returns the block counts
+     * @throws IOException             If a region file could not be read
+     * @throws MalformedWorldException If a chunk is corrupted
+     */
+    public Statistics count(Dimension dimension) throws IOException, MalformedWorldException {
+        Statistics total = new Statistics();
+        for (Statistics statistics : scan(dimension, Statistics::new, Statistics::add)) {
+            total.merge(statistics);
+        }
+        return total;
+    }
+
+    /**
+     * Find every block of a dimension whose state matches a predicate. The predicate is called
+     * once for each of the 65536 possible states before the scan starts.
+     *
+     * @param dimension The dimension
+     * @param predicate Tests a block state, see {@link #id(int)}
+     * @return Returns the matching blocks, in no particular order
+     * @throws IOException             If a region file could not be read
+     * @throws MalformedWorldException If a chunk is corrupted
+     */
+    public List<Match> find(Dimension dimension, IntPredicate predicate) throws IOException, MalformedWorldException {
+        boolean[] matches = new boolean[65536];
+        for (int state = 0; state < matches.length; state++) {
+            matches[state] = predicate.test(state);
+        }
+        List<Match> result = new ArrayList<>();
+        for (List<Match> found : scan(dimension, ArrayList<Match>::new, (found, chunkX, chunkZ, level) -> find(found, matches, chunkX, chunkZ, level))) {
+            result.addAll(found);
+        }
+        return result;
+    }
+
+    /**
+     * Create a predicate matching every data value of a block id.
+     *
+     * @param id The block id
+     * @return Returns the predicate
+     */
+    public static IntPredicate id(int id) {
+        return state -> (state >> 4) == id;
+    }
+
+    private static void find(List<Match> found, boolean[] matches, int chunkX, int chunkZ, Map<String, Tag> level) throws MalformedWorldException {
+        int[] states = STATES.get();
+        for (Tag tag : sections(level)) {
+            int y = decode(tag, states);
+            for (int i = 0; i < 4096; i++) {
+                if (matches[states[i]]) {
+                    found.add(new Match((chunkX << 4) | (i & 15), (y << 4) | (i >> 8), (chunkZ << 4) | ((i >> 4) & 15), states[i]));
+                }
+            }
+        }
+    }
+
+    private <T> Collection<T> scan(Dimension dimension, Supplier<T> perThread, ChunkScan<T> scan) throws IOException, MalformedWorldException {
+        Map<Thread, T> results = new ConcurrentHashMap<>();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (File file : new World.Loader(this.directory).findRegionFiles(dimension)) {
+            tasks.add(this.pool.submit(() -> {
+                T result = results.computeIfAbsent(Thread.currentThread(), thread -> perThread.get());
+                try (RegionFile region = new RegionFile(file)) {
+                    for (int z = 0; z < 32 && failure.get() == null; z++) {
+                        for (int x = 0; x < 32; x++) {
+                            Optional<CompoundTag> root = region.readChunkTag(x, z, FILTER);
+                            if (root.isPresent() && root.get().getValue().get("Level") instanceof CompoundTag) {
+                                Map<String, Tag> level = ((CompoundTag) root.get().getValue().get("Level")).getValue();
+                                scan.accept(result, (region.getRegionX() << 5) + x, (region.getRegionZ() << 5) + z, level);
+                            }
+                        }
+                    }
+                } catch (IOException | MalformedWorldException | RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        Exception e = failure.get();
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof MalformedWorldException) {
+            throw (MalformedWorldException) e;
+        } else if (e != null) {
+            throw (RuntimeException) e;
+        }
+        return results.values();
+    }
+
+    private static List<Tag> sections(Map<String, Tag> level) {
+        Tag sections = level.get("Sections");
+        return sections instanceof ListTag ? ((ListTag) sections).getValue() : new ArrayList<>();
+    }
+
+    /**
+     * Decode the block states of a section tag.
+     *
+     * @param tag    The section tag
+     * @param states Receives the 4096 block states
+     * @return Returns the section index
+     * @throws MalformedWorldException If a required tag is missing or has the wrong size
+     */
+    private static int decode(Tag tag, int[] states) throws MalformedWorldException {
+        if (!(tag instanceof CompoundTag)) {
+            throw new MalformedWorldException("Invalid section tag");
+        }
+        Map<String, Tag> section = ((CompoundTag) tag).getValue();
+        if (!(section.get("Y") instanceof ByteTag)) {
+            throw new MalformedWorldException("Missing or invalid section tag: Y");
+        }
+        byte[] bytes = BYTES.get();
+        read(section, "Blocks", bytes, 0, 4096);
+        for (int i = 0; i < 4096; i++) {
+            states[i] = (bytes[i] & 0xFF) << 4;
+        }
+        if (section.get("Add") instanceof ByteArrayTag) {
+            read(section, "Add", bytes, 0, 2048);
+            for (int i = 0; i < 4096; i++) {
+                states[i] |= BlockStorage.nibble(bytes, i) << 12;
+            }
+        }
+        read(section, "Data", bytes, 0, 2048);
+        for (int i = 0; i < 4096; i++) {
+            states[i] |= BlockStorage.nibble(bytes, i);
+        }
+        return ((ByteTag) section.get("Y")).getValue() & 0x0F;
+    }
+
+    private static void read(Map<String, Tag> section, String name, byte[] target, int offset, int length) throws MalformedWorldException {
+        Tag tag = section.get(name);
+        if (!(tag instanceof ByteArrayTag) || ((ByteArrayTag) tag).length() != length) {
+            throw new MalformedWorldException("Missing or invalid section tag: " + name);
+        }
+        ((ByteArrayTag) tag).getBuffer().get(target, offset, length);
+    }
+
+    /**
+     * Scans one chunk into the result of the current thread.
+     */
+    @FunctionalInterface
+    private interface ChunkScan<T> {
+
+        void accept(T result, int chunkX, int chunkZ, Map<String, Tag> level) throws MalformedWorldException;
+    }
+
+    /**
+     * A block found by {@link #find(Dimension, IntPredicate)}.
+     */
+    public static final class Match {
+
+        private final int x;
+        private final int y;
+        private final int z;
+        private final int state;
+
+        private Match(int x, int y, int z, int state) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.state = state;
+        }
+
+        public int getX() {
+            return this.x;
+        }
+
+        public int getY() {
+            return this.y;
+        }
+
+        public int getZ() {
+            return this.z;
+        }
+
+        public int getBlockState() {
+            return this.state;
+        }
+
+        @Override
+        public String toString() {
+            return "Match{x=" + this.x + ", y=" + this.y + ", z=" + this.z + ", id=" + (this.state >> 4) + ", data=" + (this.state & 15) + "}";
+        }
+    }
+
+    /**
+     * Block counts of a dimension, by block state, by y level and by biome. <p>Counts by y level
+     * and by biome are kept per block id, and only for ids which occur.</p>
+     */
+    public static final class Statistics {
+
+        private final long[] states = new long[65536];
+        private final long[][] byY = new long[4096][];
+        private final long[][] byBiome = new long[4096][];
+        private long chunks = 0;
+
+        private Statistics() {
+        }
+
+        /**
+         * Get the number of blocks with an id, of any data value.
+         *
+         * @param id The block id
+         * @return Returns the count
+         */
+        public long getCount(int id) {
+            long count = 0;
+            for (int data = 0; data < 16; data++) {
+                count += this.states[(id << 4) | data];
+            }
+            return count;
+        }
+
+        public long getCount(int id, int data) {
+            return this.states[(id << 4) | data];
+        }
+
+        public long getCountAtY(int id, int y) {
+            return this.byY[id] == null ? 0 : this.byY[id][y];
+        }
+
+        public long getCountInBiome(int id, int biome) {
+            return this.byBiome[id] == null ? 0 : this.byBiome[id][biome];
+        }
+
+        /**
+         * Get the ids found in the dimension.
+         *
+         * @return Returns the ids, in ascending order
+         */
+        public int[] getIds() {
+            int count = 0;
+            int[] ids = new int[4096];
+            for (int id = 0; id < 4096; id++) {
+                if (this.byY[id] != null) {
+                    ids[count++] = id;
+                }
+            }
+            return Arrays.copyOf(ids, count);
+        }
+
+        /**
+         * Get the number of blocks counted.
+         *
+         * @return Returns the count
+         */
+        public long getTotal() {
+            long total = 0;
+            for (long count : this.states) {
+                total += count;
+            }
+            return total;
+        }
+
+        public long getChunkCount() {
+            return this.chunks;
+        }
+
+        private void add(int chunkX, int chunkZ, Map<String, Tag> level) throws MalformedWorldException {
+            byte[] biomes = BYTES.get();
+            boolean hasBiomes = level.get("Biomes") instanceof ByteArrayTag && ((ByteArrayTag) level.get("Biomes")).length() == 256;
+            int[] biomeIds = new int[256];
+            if (hasBiomes) {
+                ((ByteArrayTag) level.get("Biomes")).getBuffer().get(biomes, 0, 256);
+                for (int i = 0; i < 256; i++) {
+                    biomeIds[i] = biomes[i] & 0xFF;
+                }
+            } else {
+                Arrays.fill(biomeIds, 255);
+            }
+            int[] states = STATES.get();
+            for (Tag tag : sections(level)) {
+                int baseY = decode(tag, states) << 4;
+                int lastId = -1;
+                long[] ys = null;
+                long[] inBiome = null;
+                for (int i = 0; i < 4096; i++) {
+                    int state = states[i];
+                    this.states[state]++;
+                    int id = state >> 4;
+                    if (id != lastId) {
+                        lastId = id;
+                        ys = this.byY[id];
+                        if (ys == null) {
+                            ys = this.byY[id] = new long[256];
+                            this.byBiome[id] = new long[256];
+                        }
+                        inBiome = this.byBiome[id];
+                    }
+                    ys[baseY + (i >> 8)]++;
+                    inBiome[biomeIds[i & 255]]++;
+                }
+            }
+            this.chunks++;
+        }
+
+        private void merge(Statistics other) {
+            for (int i = 0; i < this.states.length; i++) {
+                this.states[i] += other.states[i];
+            }
+            for (int id = 0; id < 4096; id++) {
+                if (other.byY[id] != null) {
+                    if (this.byY[id] == null) {
+                        this.byY[id] = new long[256];
+                        this.byBiome[id] = new long[256];
+                    }
+                    for (int i = 0; i < 256; i++) {
+                        this.byY[id][i] += other.byY[id][i];
+                        this.byBiome[id][i] += other.byBiome[id][i];
+                    }
+                }
+            }
+            this.chunks += other.chunks;
+        }
+    }
+}
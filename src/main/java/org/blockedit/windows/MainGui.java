@@ -17,7 +17,11 @@ BlockEdit, a general Minecraft program that is in heavy development
  */
 package org.blockedit.windows;
 
+import org.blockedit.core.edit.BlockTemplate;
+import org.blockedit.core.edit.CustomObjects;
+import org.blockedit.exception.ParseException;
 import org.blockedit.utils.Debugger;
+import org.blockedit.utils.ExceptionDialog;
 import org.blockedit.utils.MiniConsole;
 import org.blockedit.utils.UserInformation;
 import org.blockedit.utils.VersionReference;
@@ -25,6 +29,8 @@ import org.blockedit.windows.dialog.CustomBlocksDialog;
 import org.blockedit.windows.dialog.ImportSchematicDialog;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Optional;
 
 import javafx.application.Application;
 import javafx.application.Platform;
@@ -47,6 +53,7 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 
@@ -64,6 +71,8 @@ public class MainGui extends Application {
     public BorderPane pane = new BorderPane();
     public TabPane tabPane = new TabPane();
     private static Stage stage;
+    private final CustomObjects customObjects = new CustomObjects(256);
+    private BlockTemplate customObject = null;
 
     public static void main(String[] args) {
         launch(args);
@@ -182,7 +191,9 @@ public class MainGui extends Application {
             });
         });
         MenuItem bobV2MenuItem = new MenuItem("BO2 File");
+        bobV2MenuItem.setOnAction(event -> importCustomObject("BO2 Object", "*.bo2"));
         MenuItem bobV3MenuItem = new MenuItem("BO3 File");
+        bobV3MenuItem.setOnAction(event -> importCustomObject("BO3 Object", "*.bo3"));
         importSubMenu.getItems().addAll(worldMenuItem, schematicMenuItem, bobV2MenuItem, bobV3MenuItem);
         //</editor-fold>
         MenuItem saveMenuItem = new MenuItem("Save");
@@ -237,6 +248,30 @@ public class MainGui extends Application {
         return this.menu;
     }
 
+    /**
+     * Get the custom object imported last.
+     *
+     * @return Returns the template of the object, if one was imported
+     */
+    public Optional<BlockTemplate> getCustomObject() {
+        return Optional.ofNullable(this.customObject);
+    }
+
+    private void importCustomObject(String description, String extension) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Select " + description);
+        chooser.setInitialDirectory(new File(System.getProperty("user.home")));
+        chooser.getExtensionFilters().addAll(new FileChooser.ExtensionFilter(description, extension));
+        File selectedFile = chooser.showOpenDialog(stage);
+        if (selectedFile != null) {
+            try {
+                this.customObject = this.customObjects.load(selectedFile);
+            } catch (IOException | ParseException e) {
+                ExceptionDialog.getDialog("The object could not be read.", "BlockEdit \u2012 " + e.getClass().getName() + " occurred", "Unable to import " + selectedFile.getName(), e).show();
+            }
+        }
+    }
+
     public TabPane getOrCreateTabPane() {
         Tab inspectorTab = new Tab("Inspector");
         Pane inspectorPane = new Pane();
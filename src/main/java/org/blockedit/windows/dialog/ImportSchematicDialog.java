@@ -17,6 +17,8 @@ BlockEdit, a general Minecraft program that is in heavy development
  */
 package org.blockedit.windows.dialog;
 
+import org.blockedit.core.edit.Schematic;
+import org.blockedit.exception.ParseException;
 import org.blockedit.utils.ExceptionDialog;
 import org.blockedit.utils.UserInformation;
 
@@ -25,10 +27,12 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Optional;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+import javafx.concurrent.Task;
 import javafx.geometry.Orientation;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
@@ -58,13 +62,14 @@ public class ImportSchematicDialog extends AbstractDialog {
     private Pane pane = new Pane();
     private MenuBar tools = new MenuBar();
     private Button addSchematic = new Button("Add File");
+    @Nullable
+    private Schematic schematic = null;
 
     @Override
     public Stage getOrCreateDialog(double width, double height) {
         GridPane grid = new GridPane();
         Scene schematicDialog = new Scene(this.pane, Color.WHITE);
         this.pane.getChildren().addAll(grid);
-        @Nullable final StringBuilder schematicFilePathBuilder = new StringBuilder();
         //<editor-fold desc="Set the menubar">
         Menu getFilesMenu = new Menu("Get Schematics");
         Menu treesMenu = new Menu("Custom Trees");
@@ -110,15 +115,42 @@ public class ImportSchematicDialog extends AbstractDialog {
             if (selectedFile == null) {
                 event.consume();
             } else {
-                schematicFilePathBuilder.append(selectedFile.getAbsolutePath());
-                System.out.println(schematicFilePathBuilder.toString());
-                System.out.println(new File(schematicFilePathBuilder.toString()).isFile());
+                // Large schematics take seconds to read, so they are loaded off the JavaFX thread
+                Task<Schematic> load = new Task<Schematic>() {
+                    @Override
+                    protected Schematic call() throws IOException, ParseException {
+                        return new Schematic.Loader(selectedFile).load();
+                    }
+                };
+                load.setOnSucceeded(loaded -> {
+                    this.schematic = load.getValue();
+                    this.addSchematic.setDisable(false);
+                });
+                load.setOnFailed(failed -> {
+                    Throwable failure = load.getException();
+                    Exception e = failure instanceof Exception ? (Exception) failure : new Exception(failure);
+                    ExceptionDialog.getDialog("The schematic could not be read.", "BlockEdit \u2012 " + e.getClass().getName() + " occurred", "Unable to import " + selectedFile.getName(), e).show();
+                    this.addSchematic.setDisable(false);
+                });
+                this.addSchematic.setDisable(true);
+                Thread thread = new Thread(load, "Schematic loader");
+                thread.setDaemon(true);
+                thread.start();
             }
         });
         this.tools.setPrefWidth(stage.getWidth());
         return this.stage;
     }
 
+    /**
+     * Get the schematic selected by the user.
+     *
+     * @return Returns the schematic, if one was loaded
+     */
+    public Optional<Schematic> getSchematic() {
+        return Optional.ofNullable(this.schematic);
+    }
+
     private MenuItem createLink(String link, String name) {
         MenuItem item = new MenuItem(name);
         item.setOnAction(event -> {
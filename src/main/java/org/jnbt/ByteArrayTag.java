@@ -37,6 +37,7 @@ package org.jnbt;
 
 //@formatter:on
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -48,9 +49,15 @@ import java.util.Arrays;
 public final class ByteArrayTag extends Tag {
 	
 	/**
-	 * The value.
+	 * The value, or <code>null</code> until a sliced tag is first read.
 	 */
-	private final byte[] value;
+	private byte[] value;
+	
+	/**
+	 * The slice holding the value, or <code>null</code> if the tag was
+	 * created from an array.
+	 */
+	private final ByteBuffer buffer;
 	
 	/**
 	 * Creates the tag.
@@ -64,19 +71,69 @@ public final class ByteArrayTag extends Tag {
 	
 		super(name);
 		this.value = value;
+		this.buffer = null;
+	}
+	
+	/**
+	 * Creates the tag from a slice of a larger buffer, without copying it.
+	 * The bytes are only copied into an array if {@link #getValue()} is
+	 * called, so the buffer must not change while the tag is in use.
+	 * 
+	 * @param name
+	 *            The name.
+	 * @param buffer
+	 *            The value, from its position to its limit.
+	 */
+	public ByteArrayTag(final String name, final ByteBuffer buffer) {
+	
+		super(name);
+		this.buffer = buffer.slice();
 	}
 	
 	@Override
 	public byte[] getValue() {
 	
+		if (value == null) {
+			final byte[] bytes = new byte[buffer.remaining()];
+			buffer.duplicate().get(bytes);
+			value = bytes;
+		}
 		return value;
 	}
 	
+	@Override
+	public int getTypeCode() {
+	
+		return NBTConstants.TYPE_BYTE_ARRAY;
+	}
+	
+	/**
+	 * Gets the value as a buffer. For a tag created from a slice this is a
+	 * view of the original bytes and involves no copying.
+	 * 
+	 * @return The value, from position 0 to its length.
+	 */
+	public ByteBuffer getBuffer() {
+	
+		if (buffer == null) { return ByteBuffer.wrap(value); }
+		return buffer.duplicate();
+	}
+	
+	/**
+	 * Gets the length of the value without copying it.
+	 * 
+	 * @return The number of bytes.
+	 */
+	public int length() {
+	
+		return (buffer == null) ? value.length : buffer.remaining();
+	}
+	
 	@Override
 	public String toString() {
 	
 		final StringBuilder hex = new StringBuilder();
-		for (final byte b : value) {
+		for (final byte b : getValue()) {
 			final String hexDigits = Integer.toHexString(b).toUpperCase();
 			if (hexDigits.length() == 1) {
 				hex.append("0");
@@ -100,7 +157,7 @@ public final class ByteArrayTag extends Tag {
 	
 		final int prime = 31;
 		int result = super.hashCode();
-		result = (prime * result) + Arrays.hashCode(value);
+		result = (prime * result) + Arrays.hashCode(getValue());
 		return result;
 	}
 	
@@ -115,7 +172,7 @@ public final class ByteArrayTag extends Tag {
 		if (!super.equals(obj)) { return false; }
 		if (!(obj instanceof ByteArrayTag)) { return false; }
 		final ByteArrayTag other = (ByteArrayTag) obj;
-		if (!Arrays.equals(value, other.value)) { return false; }
+		if (!Arrays.equals(getValue(), other.getValue())) { return false; }
 		return true;
 	}
 	
@@ -70,6 +70,12 @@ public final class ByteTag extends Tag {
 		return value;
 	}
 	
+	@Override
+	public int getTypeCode() {
+	
+		return NBTConstants.TYPE_BYTE;
+	}
+	
 	@Override
 	public String toString() {
 	
@@ -73,6 +73,12 @@ public final class CompoundTag extends Tag {
 		return value;
 	}
 	
+	@Override
+	public int getTypeCode() {
+	
+		return NBTConstants.TYPE_COMPOUND;
+	}
+	
 	@Override
 	public String toString() {
 	
@@ -0,0 +1,104 @@
+package org.jnbt;
+
+//@formatter:off
+
+/*
+ * JNBT License
+ * 
+ * Copyright (c) 2010 Graham Edgecombe
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *       
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *       
+ *     * Neither the name of the JNBT team nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+//@formatter:on
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * A compression format for NBT streams and region chunks. The built in
+ * codecs are found in {@link CompressionCodecs}; others can be added with
+ * {@link CompressionCodecs#register(CompressionCodec)} or listed in a
+ * <code>META-INF/services/org.jnbt.CompressionCodec</code> file, which is
+ * read by {@link java.util.ServiceLoader} when {@link CompressionCodecs} is
+ * first used.
+ * </p>
+ * 
+ * <p>
+ * Codecs are shared between threads, so every stream they create must own
+ * its state.
+ * </p>
+ * 
+ * @author Jeff Chen
+ * 
+ */
+public interface CompressionCodec {
+	
+	/**
+	 * Gets the name of the codec, for example <code>zlib</code>.
+	 * 
+	 * @return The name.
+	 */
+	String getName();
+	
+	/**
+	 * Gets the id stored in front of a region chunk compressed with this
+	 * codec. Minecraft uses 1 for gzip, 2 for zlib and 3 for uncompressed
+	 * chunks.
+	 * 
+	 * @return The id.
+	 */
+	int getId();
+	
+	/**
+	 * Wraps a stream so the data written to it is compressed. Closing the
+	 * returned stream finishes the compressed data and closes the wrapped
+	 * stream.
+	 * 
+	 * @param os
+	 *            The stream receiving the compressed data.
+	 * @return The stream to write uncompressed data to.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	OutputStream compress(OutputStream os) throws IOException;
+	
+	/**
+	 * Wraps a stream of compressed data.
+	 * 
+	 * @param is
+	 *            The stream holding the compressed data.
+	 * @return The stream to read uncompressed data from.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	InputStream decompress(InputStream is) throws IOException;
+	
+}
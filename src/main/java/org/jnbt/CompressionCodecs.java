@@ -0,0 +1,516 @@
+package org.jnbt;
+
+//@formatter:off
+
+/*
+ * JNBT License
+ * 
+ * Copyright (c) 2010 Graham Edgecombe
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *       
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *       
+ *     * Neither the name of the JNBT team nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+//@formatter:on
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * <p>
+ * The built in {@link CompressionCodec}s and the registry used to find a
+ * codec by its id or name.
+ * </p>
+ * 
+ * <p>
+ * Deflate based codecs take a level from {@link Deflater#BEST_SPEED} to
+ * {@link Deflater#BEST_COMPRESSION} and a buffer size. For scratch data
+ * which never leaves the program, {@link #LZ4} compresses several times
+ * faster than deflate at a lower ratio.
+ * </p>
+ * 
+ * <p>
+ * The deflate based codecs take their {@link Deflater}s, {@link Inflater}s
+ * and buffers from {@link CompressionPool}, so streams must be closed to
+ * return them.
+ * </p>
+ * 
+ * @author Jeff Chen
+ * 
+ */
+public final class CompressionCodecs {
+	
+	/**
+	 * The default buffer size of the deflate based codecs.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+	
+	public static final CompressionCodec GZIP = gzip(Deflater.DEFAULT_COMPRESSION, DEFAULT_BUFFER_SIZE);
+	
+	public static final CompressionCodec ZLIB = zlib(Deflater.DEFAULT_COMPRESSION, DEFAULT_BUFFER_SIZE);
+	
+	public static final CompressionCodec RAW = new RawCodec();
+	
+	public static final CompressionCodec LZ4 = new LZ4Codec(LZ4Codec.DEFAULT_BLOCK_SIZE, 1);
+	
+	private static final Map<Integer, CompressionCodec> BY_ID = new ConcurrentHashMap<Integer, CompressionCodec>();
+	
+	private static final Map<String, CompressionCodec> BY_NAME = new ConcurrentHashMap<String, CompressionCodec>();
+	
+	static {
+		register(GZIP);
+		register(ZLIB);
+		register(RAW);
+		register(LZ4);
+		for (final CompressionCodec codec : ServiceLoader.load(CompressionCodec.class)) {
+			register(codec);
+		}
+	}
+	
+	/**
+	 * Default private constructor.
+	 */
+	private CompressionCodecs() {
+	
+	}
+	
+	/**
+	 * Creates a gzip codec, as used by level.dat and region chunks of type
+	 * 1.
+	 * 
+	 * @param level
+	 *            The deflate level.
+	 * @param bufferSize
+	 *            The size of the stream buffers.
+	 * @return The codec.
+	 */
+	public static CompressionCodec gzip(final int level, final int bufferSize) {
+	
+		return new DeflateCodec("gzip", 1, true, level, bufferSize);
+	}
+	
+	/**
+	 * Creates a zlib codec, as used by region chunks of type 2.
+	 * 
+	 * @param level
+	 *            The deflate level.
+	 * @param bufferSize
+	 *            The size of the stream buffers.
+	 * @return The codec.
+	 */
+	public static CompressionCodec zlib(final int level, final int bufferSize) {
+	
+		return new DeflateCodec("zlib", 2, false, level, bufferSize);
+	}
+	
+	/**
+	 * Creates an LZ4 codec, see {@link LZ4Codec}.
+	 * 
+	 * @param blockSize
+	 *            The number of bytes compressed at once.
+	 * @param acceleration
+	 *            1 for the best ratio, higher to skip faster over data that
+	 *            does not compress.
+	 * @return The codec.
+	 */
+	public static CompressionCodec lz4(final int blockSize, final int acceleration) {
+	
+		return new LZ4Codec(blockSize, acceleration);
+	}
+	
+	/**
+	 * Registers a codec, replacing any codec with the same id or name. This
+	 * is how a tuned codec becomes the one used to read chunks.
+	 * 
+	 * @param codec
+	 *            The codec.
+	 */
+	public static void register(final CompressionCodec codec) {
+	
+		BY_ID.put(codec.getId(), codec);
+		BY_NAME.put(codec.getName().toLowerCase(Locale.ENGLISH), codec);
+	}
+	
+	/**
+	 * Finds a codec by id.
+	 * 
+	 * @param id
+	 *            The id.
+	 * @return The codec, if one is registered.
+	 */
+	public static Optional<CompressionCodec> byId(final int id) {
+	
+		return Optional.ofNullable(BY_ID.get(id));
+	}
+	
+	/**
+	 * Finds a codec by name, ignoring case.
+	 * 
+	 * @param name
+	 *            The name.
+	 * @return The codec, if one is registered.
+	 */
+	public static Optional<CompressionCodec> byName(final String name) {
+	
+		return Optional.ofNullable(BY_NAME.get(name.toLowerCase(Locale.ENGLISH)));
+	}
+	
+	/**
+	 * Stores data as it is.
+	 */
+	private static final class RawCodec implements CompressionCodec {
+		
+		@Override
+		public String getName() {
+		
+			return "raw";
+		}
+		
+		@Override
+		public int getId() {
+		
+			return 3;
+		}
+		
+		@Override
+		public OutputStream compress(final OutputStream os) {
+		
+			return os;
+		}
+		
+		@Override
+		public InputStream decompress(final InputStream is) {
+		
+			return is;
+		}
+	}
+	
+	/**
+	 * Compresses with deflate, wrapped in a gzip or zlib container.
+	 */
+	private static final class DeflateCodec implements CompressionCodec {
+		
+		private final String name;
+		
+		private final int id;
+		
+		private final boolean gzip;
+		
+		private final int level;
+		
+		private final int bufferSize;
+		
+		private DeflateCodec(final String name, final int id, final boolean gzip, final int level, final int bufferSize) {
+		
+			if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+				throw new IllegalArgumentException("[JNBT] Invalid deflate level : " + level + ".");
+			}
+			if (bufferSize <= 0) {
+				throw new IllegalArgumentException("[JNBT] Invalid buffer size : " + bufferSize + ".");
+			}
+			this.name = name;
+			this.id = id;
+			this.gzip = gzip;
+			this.level = level;
+			this.bufferSize = bufferSize;
+		}
+		
+		@Override
+		public String getName() {
+		
+			return name;
+		}
+		
+		@Override
+		public int getId() {
+		
+			return id;
+		}
+		
+		@Override
+		public OutputStream compress(final OutputStream os) throws IOException {
+		
+			return new PooledDeflaterOutputStream(os, gzip, level, bufferSize);
+		}
+		
+		@Override
+		public InputStream decompress(final InputStream is) throws IOException {
+		
+			return new PooledInflaterInputStream(is, gzip, bufferSize);
+		}
+	}
+	
+	/**
+	 * Compresses with a deflater and buffer from {@link CompressionPool},
+	 * which are returned when the stream is closed. For gzip the header and
+	 * trailer are written the same way as by {@link GZIPOutputStream}.
+	 */
+	private static final class PooledDeflaterOutputStream extends DeflaterOutputStream {
+		
+		private static final byte[] GZIP_HEADER = { 0x1F, (byte) 0x8B, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+		
+		private final boolean gzip;
+		
+		private final CRC32 crc = new CRC32();
+		
+		private boolean finished = false;
+		
+		private boolean closed = false;
+		
+		private PooledDeflaterOutputStream(final OutputStream os, final boolean gzip, final int level, final int bufferSize) throws IOException {
+		
+			super(os, CompressionPool.acquireDeflater(level, gzip), 1);
+			// replaces the one byte buffer allocated by the constructor
+			buf = CompressionPool.acquireBuffer(bufferSize);
+			this.gzip = gzip;
+			if (gzip) {
+				out.write(GZIP_HEADER);
+			}
+		}
+		
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+		
+			super.write(b, off, len);
+			if (gzip) {
+				crc.update(b, off, len);
+			}
+		}
+		
+		@Override
+		public void finish() throws IOException {
+		
+			if (finished) { return; }
+			super.finish();
+			finished = true;
+			if (gzip) {
+				writeInt((int) crc.getValue());
+				writeInt((int) def.getBytesRead());
+			}
+		}
+		
+		@Override
+		public void close() throws IOException {
+		
+			if (closed) { return; }
+			closed = true;
+			try {
+				super.close();
+			} finally {
+				CompressionPool.releaseDeflater(def, gzip);
+				CompressionPool.releaseBuffer(buf);
+			}
+		}
+		
+		private void writeInt(final int value) throws IOException {
+		
+			out.write(value);
+			out.write(value >>> 8);
+			out.write(value >>> 16);
+			out.write(value >>> 24);
+		}
+	}
+	
+	/**
+	 * Decompresses with an inflater and buffer from {@link CompressionPool},
+	 * which are returned when the stream is closed. For gzip the header and
+	 * trailer are checked the same way as by {@link GZIPInputStream},
+	 * including streams made of several gzip members.
+	 */
+	private static final class PooledInflaterInputStream extends InflaterInputStream {
+		
+		private static final int GZIP_MAGIC = 0x8B1F;
+		
+		private static final int FHCRC = 2;
+		
+		private static final int FEXTRA = 4;
+		
+		private static final int FNAME = 8;
+		
+		private static final int FCOMMENT = 16;
+		
+		private final boolean gzip;
+		
+		private final CRC32 crc = new CRC32();
+		
+		private boolean eos = false;
+		
+		private boolean closed = false;
+		
+		private PooledInflaterInputStream(final InputStream is, final boolean gzip, final int bufferSize) throws IOException {
+		
+			super(is, CompressionPool.acquireInflater(gzip), 1);
+			// replaces the one byte buffer allocated by the constructor
+			buf = CompressionPool.acquireBuffer(bufferSize);
+			this.gzip = gzip;
+			if (gzip) {
+				try {
+					readHeader(in);
+				} catch (final IOException e) {
+					close();
+					throw e;
+				}
+			}
+		}
+		
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+		
+			if (eos) { return -1; }
+			final int n = super.read(b, off, len);
+			if (!gzip) { return n; }
+			if (n == -1) {
+				if (readTrailer()) {
+					eos = true;
+					return -1;
+				}
+				return read(b, off, len);
+			}
+			crc.update(b, off, n);
+			return n;
+		}
+		
+		@Override
+		public void close() throws IOException {
+		
+			if (closed) { return; }
+			closed = true;
+			try {
+				super.close();
+			} finally {
+				CompressionPool.releaseInflater(inf, gzip);
+				CompressionPool.releaseBuffer(buf);
+			}
+		}
+		
+		private int readHeader(final InputStream is) throws IOException {
+		
+			final CheckedInputStream checked = new CheckedInputStream(is, crc);
+			crc.reset();
+			if (readUShort(checked) != GZIP_MAGIC) { throw new ZipException("Not in GZIP format"); }
+			if (readUByte(checked) != Deflater.DEFLATED) { throw new ZipException("Unsupported compression method"); }
+			final int flags = readUByte(checked);
+			for (int i = 0; i < 6; i++) {
+				readUByte(checked);
+			}
+			int n = 10;
+			if ((flags & FEXTRA) == FEXTRA) {
+				final int m = readUShort(checked);
+				for (int i = 0; i < m; i++) {
+					readUByte(checked);
+				}
+				n += m + 2;
+			}
+			if ((flags & FNAME) == FNAME) {
+				do {
+					n++;
+				} while (readUByte(checked) != 0);
+			}
+			if ((flags & FCOMMENT) == FCOMMENT) {
+				do {
+					n++;
+				} while (readUByte(checked) != 0);
+			}
+			if ((flags & FHCRC) == FHCRC) {
+				final int v = (int) crc.getValue() & 0xFFFF;
+				if (readUShort(checked) != v) { throw new ZipException("Corrupt GZIP header"); }
+				n += 2;
+			}
+			crc.reset();
+			return n;
+		}
+		
+		private boolean readTrailer() throws IOException {
+		
+			InputStream is = in;
+			final int n = inf.getRemaining();
+			if (n > 0) {
+				is = new SequenceInputStream(new ByteArrayInputStream(buf, len - n, n), new FilterInputStream(in) {
+					
+					@Override
+					public void close() {
+					
+					}
+				});
+			}
+			if (readUInt(is) != crc.getValue() || readUInt(is) != (inf.getBytesWritten() & 0xFFFFFFFFL)) { throw new ZipException("Corrupt GZIP trailer"); }
+			if (in.available() > 0 || n > 26) {
+				int m = 8;
+				try {
+					m += readHeader(is);
+				} catch (final IOException e) {
+					return true;
+				}
+				inf.reset();
+				if (n > m) {
+					inf.setInput(buf, len - n + m, n - m);
+				}
+				return false;
+			}
+			return true;
+		}
+		
+		private static long readUInt(final InputStream is) throws IOException {
+		
+			final long s = readUShort(is);
+			return ((long) readUShort(is) << 16) | s;
+		}
+		
+		private static int readUShort(final InputStream is) throws IOException {
+		
+			final int b = readUByte(is);
+			return (readUByte(is) << 8) | b;
+		}
+		
+		private static int readUByte(final InputStream is) throws IOException {
+		
+			final int b = is.read();
+			if (b == -1) { throw new EOFException(); }
+			return b;
+		}
+	}
+	
+}
@@ -0,0 +1,370 @@
+package org.jnbt;
+
+//@formatter:off
+
+/*
+ * JNBT License
+ * 
+ * Copyright (c) 2010 Graham Edgecombe
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *       
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *       
+ *     * Neither the name of the JNBT team nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+//@formatter:on
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ * Pools the {@link Deflater}s, {@link Inflater}s and byte buffers used by
+ * the streams of {@link CompressionCodecs}. Every deflater and inflater owns
+ * a native zlib context which is only freed by {@link Deflater#end()} or
+ * once the garbage collector gets to it, so creating one per chunk grows
+ * native memory in long batch runs. Pooled objects are reset when they are
+ * released and reused by the next stream.
+ * </p>
+ * 
+ * <p>
+ * Each pool keeps at most {@link #MAX_POOLED} idle objects; extra objects
+ * are ended or dropped on release. Buffer lengths are rounded up to a power
+ * of two, at least {@link #MIN_BUFFER_SIZE}, so buffers of similar sizes
+ * share a pool, and all idle buffers together hold at most
+ * {@link #MAX_POOLED_BYTES}. A stream which is never closed does not return
+ * its objects, so they are left to the garbage collector.
+ * </p>
+ * 
+ * @author Jeff Chen
+ * 
+ */
+public final class CompressionPool {
+	
+	/**
+	 * The most idle objects kept by each pool.
+	 */
+	public static final int MAX_POOLED = Runtime.getRuntime().availableProcessors() * 4;
+	
+	/**
+	 * The smallest buffer handed out.
+	 */
+	public static final int MIN_BUFFER_SIZE = 1 << 10;
+	
+	/**
+	 * The most bytes held by idle buffers.
+	 */
+	public static final long MAX_POOLED_BYTES = 32L << 20;
+	
+	private static final Pool<Deflater> DEFLATERS = new Pool<Deflater>();
+	
+	private static final Pool<Deflater> RAW_DEFLATERS = new Pool<Deflater>();
+	
+	private static final Pool<Inflater> INFLATERS = new Pool<Inflater>();
+	
+	private static final Pool<Inflater> RAW_INFLATERS = new Pool<Inflater>();
+	
+	private static final Map<Integer, Pool<byte[]>> BUFFERS = new ConcurrentHashMap<Integer, Pool<byte[]>>();
+	
+	private static final AtomicLong POOLED_BYTES = new AtomicLong();
+	
+	/**
+	 * Default private constructor.
+	 */
+	private CompressionPool() {
+	
+	}
+	
+	/**
+	 * Takes a deflater from the pool, or creates one.
+	 * 
+	 * @param level
+	 *            The deflate level.
+	 * @param nowrap
+	 *            <code>true</code> for raw deflate data as used by gzip,
+	 *            <code>false</code> for the zlib container.
+	 * @return The deflater.
+	 */
+	public static Deflater acquireDeflater(final int level, final boolean nowrap) {
+	
+		Deflater deflater = (nowrap ? RAW_DEFLATERS : DEFLATERS).poll();
+		if (deflater == null) { return new Deflater(level, nowrap); }
+		deflater.setLevel(level);
+		return deflater;
+	}
+	
+	/**
+	 * Returns a deflater to the pool. The deflater must not be used
+	 * afterwards.
+	 * 
+	 * @param deflater
+	 *            The deflater.
+	 * @param nowrap
+	 *            The <code>nowrap</code> value it was acquired with.
+	 */
+	public static void releaseDeflater(final Deflater deflater, final boolean nowrap) {
+	
+		deflater.reset();
+		if (!(nowrap ? RAW_DEFLATERS : DEFLATERS).offer(deflater)) {
+			deflater.end();
+		}
+	}
+	
+	/**
+	 * Takes an inflater from the pool, or creates one.
+	 * 
+	 * @param nowrap
+	 *            <code>true</code> for raw deflate data as used by gzip,
+	 *            <code>false</code> for the zlib container.
+	 * @return The inflater.
+	 */
+	public static Inflater acquireInflater(final boolean nowrap) {
+	
+		final Inflater inflater = (nowrap ? RAW_INFLATERS : INFLATERS).poll();
+		return inflater != null ? inflater : new Inflater(nowrap);
+	}
+	
+	/**
+	 * Returns an inflater to the pool. The inflater must not be used
+	 * afterwards.
+	 * 
+	 * @param inflater
+	 *            The inflater.
+	 * @param nowrap
+	 *            The <code>nowrap</code> value it was acquired with.
+	 */
+	public static void releaseInflater(final Inflater inflater, final boolean nowrap) {
+	
+		inflater.reset();
+		if (!(nowrap ? RAW_INFLATERS : INFLATERS).offer(inflater)) {
+			inflater.end();
+		}
+	}
+	
+	/**
+	 * Takes a buffer from the pool, or creates one. The content of a pooled
+	 * buffer is undefined.
+	 * 
+	 * @param size
+	 *            The least length of the buffer.
+	 * @return The buffer, which may be longer than requested.
+	 */
+	public static byte[] acquireBuffer(final int size) {
+	
+		final int capacity = capacity(size);
+		final byte[] buffer = buffers(capacity).poll();
+		if (buffer == null) { return new byte[capacity]; }
+		POOLED_BYTES.addAndGet(-buffer.length);
+		return buffer;
+	}
+	
+	/**
+	 * Returns a buffer to the pool. The buffer must not be used afterwards.
+	 * Buffers which were not handed out by {@link #acquireBuffer(int)}, or
+	 * which do not fit under {@link #MAX_POOLED_BYTES}, are dropped.
+	 * 
+	 * @param buffer
+	 *            The buffer.
+	 */
+	public static void releaseBuffer(final byte[] buffer) {
+	
+		final int length = buffer.length;
+		if (length < MIN_BUFFER_SIZE || capacity(length) != length) { return; }
+		if (POOLED_BYTES.addAndGet(length) > MAX_POOLED_BYTES || !buffers(length).offer(buffer)) {
+			POOLED_BYTES.addAndGet(-length);
+		}
+	}
+	
+	private static int capacity(final int size) {
+	
+		if (size <= MIN_BUFFER_SIZE) { return MIN_BUFFER_SIZE; }
+		if (size > 1 << 30) { return size; }
+		return Integer.highestOneBit(size - 1) << 1;
+	}
+	
+	private static Pool<byte[]> buffers(final int size) {
+	
+		final Pool<byte[]> pool = BUFFERS.get(size);
+		return pool != null ? pool : BUFFERS.computeIfAbsent(size, key -> new Pool<byte[]>());
+	}
+	
+	/**
+	 * Gets the hit and miss counters of the pools.
+	 * 
+	 * @return A snapshot of the counters.
+	 */
+	public static Statistics getStatistics() {
+	
+		long bufferHits = 0;
+		long bufferMisses = 0;
+		for (final Pool<byte[]> pool : BUFFERS.values()) {
+			bufferHits += pool.hits.sum();
+			bufferMisses += pool.misses.sum();
+		}
+		return new Statistics(DEFLATERS.hits.sum() + RAW_DEFLATERS.hits.sum(), DEFLATERS.misses.sum() + RAW_DEFLATERS.misses.sum(), INFLATERS.hits.sum() + RAW_INFLATERS.hits.sum(), INFLATERS.misses.sum() + RAW_INFLATERS.misses.sum(), bufferHits, bufferMisses, POOLED_BYTES.get());
+	}
+	
+	/**
+	 * Resets the hit and miss counters. Pooled objects are kept.
+	 */
+	public static void resetStatistics() {
+	
+		for (final Pool<?> pool : new Pool<?>[] { DEFLATERS, RAW_DEFLATERS, INFLATERS, RAW_INFLATERS }) {
+			pool.resetStatistics();
+		}
+		for (final Pool<?> pool : BUFFERS.values()) {
+			pool.resetStatistics();
+		}
+	}
+	
+	/**
+	 * A bounded queue of idle objects.
+	 */
+	private static final class Pool<T> {
+		
+		private final Queue<T> items = new ConcurrentLinkedQueue<T>();
+		
+		private final AtomicInteger size = new AtomicInteger();
+		
+		private final LongAdder hits = new LongAdder();
+		
+		private final LongAdder misses = new LongAdder();
+		
+		private T poll() {
+		
+			final T item = items.poll();
+			if (item == null) {
+				misses.increment();
+			} else {
+				size.decrementAndGet();
+				hits.increment();
+			}
+			return item;
+		}
+		
+		private void resetStatistics() {
+		
+			hits.reset();
+			misses.reset();
+		}
+		
+		private boolean offer(final T item) {
+		
+			if (size.incrementAndGet() > MAX_POOLED) {
+				size.decrementAndGet();
+				return false;
+			}
+			items.offer(item);
+			return true;
+		}
+	}
+	
+	/**
+	 * The hit and miss counters of the pools. A miss means a new object had
+	 * to be created.
+	 */
+	public static final class Statistics {
+		
+		private final long deflaterHits;
+		
+		private final long deflaterMisses;
+		
+		private final long inflaterHits;
+		
+		private final long inflaterMisses;
+		
+		private final long bufferHits;
+		
+		private final long bufferMisses;
+		
+		private final long pooledBytes;
+		
+		private Statistics(final long deflaterHits, final long deflaterMisses, final long inflaterHits, final long inflaterMisses, final long bufferHits, final long bufferMisses, final long pooledBytes) {
+		
+			this.deflaterHits = deflaterHits;
+			this.deflaterMisses = deflaterMisses;
+			this.inflaterHits = inflaterHits;
+			this.inflaterMisses = inflaterMisses;
+			this.bufferHits = bufferHits;
+			this.bufferMisses = bufferMisses;
+			this.pooledBytes = pooledBytes;
+		}
+		
+		public long getDeflaterHits() {
+		
+			return deflaterHits;
+		}
+		
+		public long getDeflaterMisses() {
+		
+			return deflaterMisses;
+		}
+		
+		public long getInflaterHits() {
+		
+			return inflaterHits;
+		}
+		
+		public long getInflaterMisses() {
+		
+			return inflaterMisses;
+		}
+		
+		public long getBufferHits() {
+		
+			return bufferHits;
+		}
+		
+		public long getBufferMisses() {
+		
+			return bufferMisses;
+		}
+		
+		/**
+		 * Gets the bytes held by idle buffers when the snapshot was taken.
+		 * 
+		 * @return The byte count.
+		 */
+		public long getPooledBytes() {
+		
+			return pooledBytes;
+		}
+		
+		@Override
+		public String toString() {
+		
+			return "CompressionPool.Statistics{deflaters=" + deflaterHits + "/" + deflaterMisses + ", inflaters=" + inflaterHits + "/" + inflaterMisses + ", buffers=" + bufferHits + "/" + bufferMisses + " (hits/misses), pooledBytes=" + pooledBytes + "}";
+		}
+	}
+	
+}
@@ -70,6 +70,12 @@ public final class DoubleTag extends Tag {
 		return value;
 	}
 	
+	@Override
+	public int getTypeCode() {
+	
+		return NBTConstants.TYPE_DOUBLE;
+	}
+	
 	@Override
 	public String toString() {
 	
@@ -65,6 +65,12 @@ public final class EndTag extends Tag {
 		return value;
 	}
 	
+	@Override
+	public int getTypeCode() {
+	
+		return NBTConstants.TYPE_END;
+	}
+	
 	@Override
 	public String toString() {
 	
@@ -70,6 +70,12 @@ public final class FloatTag extends Tag {
 		return value;
 	}
 	
+	@Override
+	public int getTypeCode() {
+	
+		return NBTConstants.TYPE_FLOAT;
+	}
+	
 	@Override
 	public String toString() {
 	
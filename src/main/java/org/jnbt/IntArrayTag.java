@@ -72,6 +72,12 @@ public final class IntArrayTag extends Tag {
 		return value;
 	}
 	
+	@Override
+	public int getTypeCode() {
+	
+		return NBTConstants.TYPE_INT_ARRAY;
+	}
+	
 	@Override
 	public String toString() {
 	
@@ -70,6 +70,12 @@ public final class IntTag extends Tag {
 		return value;
 	}
 	
+	@Override
+	public int getTypeCode() {
+	
+		return NBTConstants.TYPE_INT;
+	}
+	
 	@Override
 	public String toString() {
 	
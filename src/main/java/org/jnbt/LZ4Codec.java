@@ -0,0 +1,551 @@
+package org.jnbt;
+
+//@formatter:off
+
+/*
+ * JNBT License
+ * 
+ * Copyright (c) 2010 Graham Edgecombe
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *       
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *       
+ *     * Neither the name of the JNBT team nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+//@formatter:on
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A pure Java <a href="https://github.com/lz4/lz4">LZ4</a> codec for caches
+ * and scratch files. The data is split in blocks which are compressed on
+ * their own with the LZ4 block format. Each block is written after an eight
+ * byte header: its uncompressed length and its compressed length, both big
+ * endian. A block which does not shrink is stored as it is, marked by the
+ * sign bit of the compressed length. A header with an uncompressed length
+ * of zero ends the stream.
+ * </p>
+ * 
+ * <p>
+ * This framing is not the LZ4 frame format and not the one Minecraft uses
+ * for region chunks of type 4, so the id of this codec is 127 and its
+ * chunks are only readable by this library.
+ * </p>
+ * 
+ * @author Jeff Chen
+ * 
+ */
+public final class LZ4Codec implements CompressionCodec {
+	
+	/**
+	 * The default number of bytes compressed at once.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+	
+	private static final int MAX_BLOCK_SIZE = 1 << 26;
+	
+	private static final int STORED = 0x80000000;
+	
+	private static final int HASH_LOG = 12;
+	
+	private static final int MIN_MATCH = 4;
+	
+	private static final int MF_LIMIT = 12;
+	
+	private static final int LAST_LITERALS = 5;
+	
+	private static final int MAX_DISTANCE = 0xFFFF;
+	
+	private static final int SKIP_STRENGTH = 6;
+	
+	private final int blockSize;
+	
+	private final int acceleration;
+	
+	/**
+	 * Creates the codec.
+	 * 
+	 * @param blockSize
+	 *            The number of bytes compressed at once.
+	 * @param acceleration
+	 *            1 for the best ratio, higher to skip faster over data that
+	 *            does not compress.
+	 */
+	public LZ4Codec(final int blockSize, final int acceleration) {
+	
+		if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+			throw new IllegalArgumentException("[JNBT] Invalid block size : " + blockSize + ".");
+		}
+		if (acceleration < 1) {
+			throw new IllegalArgumentException("[JNBT] Invalid acceleration : " + acceleration + ".");
+		}
+		this.blockSize = blockSize;
+		this.acceleration = acceleration;
+	}
+	
+	@Override
+	public String getName() {
+	
+		return "lz4";
+	}
+	
+	@Override
+	public int getId() {
+	
+		return 127;
+	}
+	
+	@Override
+	public OutputStream compress(final OutputStream os) {
+	
+		return new LZ4OutputStream(os, blockSize, acceleration);
+	}
+	
+	@Override
+	public InputStream decompress(final InputStream is) {
+	
+		return new LZ4InputStream(is, blockSize);
+	}
+	
+	/**
+	 * Gets the largest size a block can take once compressed.
+	 * 
+	 * @param length
+	 *            The uncompressed length.
+	 * @return The compressed length in the worst case.
+	 */
+	public static int maxCompressedLength(final int length) {
+	
+		return length + length / 255 + 16;
+	}
+	
+	/**
+	 * Compresses a block.
+	 * 
+	 * @param src
+	 *            The data.
+	 * @param srcOff
+	 *            The offset of the data.
+	 * @param srcLen
+	 *            The length of the data.
+	 * @param dst
+	 *            The array receiving the block, with room for
+	 *            {@link #maxCompressedLength(int)} bytes.
+	 * @param dstOff
+	 *            The offset of the block.
+	 * @param table
+	 *            A scratch table of 4096 ints.
+	 * @param acceleration
+	 *            1 for the best ratio, higher to skip faster over data that
+	 *            does not compress.
+	 * @return The length of the block.
+	 */
+	public static int compress(final byte[] src, final int srcOff, final int srcLen, final byte[] dst, final int dstOff, final int[] table, final int acceleration) {
+	
+		int op = dstOff;
+		int anchor = 0;
+		if (srcLen >= MF_LIMIT + 1) {
+			Arrays.fill(table, -1);
+			final int limit = srcLen - MF_LIMIT;
+			final int matchLimit = srcLen - LAST_LITERALS;
+			int ip = 0;
+			int search = acceleration << SKIP_STRENGTH;
+			while (ip <= limit) {
+				final int sequence = readInt(src, srcOff + ip);
+				final int hash = hash(sequence);
+				int ref = table[hash];
+				table[hash] = ip;
+				if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, srcOff + ref) != sequence) {
+					ip += search++ >>> SKIP_STRENGTH;
+					continue;
+				}
+				search = acceleration << SKIP_STRENGTH;
+				while (ip > anchor && ref > 0 && src[srcOff + ip - 1] == src[srcOff + ref - 1]) {
+					ip--;
+					ref--;
+				}
+				int length = MIN_MATCH;
+				while (ip + length < matchLimit && src[srcOff + ip + length] == src[srcOff + ref + length]) {
+					length++;
+				}
+				op = writeSequence(src, srcOff + anchor, ip - anchor, ip - ref, length, dst, op);
+				ip += length;
+				anchor = ip;
+				if (ip <= limit) {
+					table[hash(readInt(src, srcOff + ip - 2))] = ip - 2;
+				}
+			}
+		}
+		final int literals = srcLen - anchor;
+		final int token = op++;
+		if (literals >= 15) {
+			dst[token] = (byte) 0xF0;
+			op = writeLength(literals - 15, dst, op);
+		} else {
+			dst[token] = (byte) (literals << 4);
+		}
+		System.arraycopy(src, srcOff + anchor, dst, op, literals);
+		return op + literals - dstOff;
+	}
+	
+	/**
+	 * Decompresses a block.
+	 * 
+	 * @param src
+	 *            The block.
+	 * @param srcOff
+	 *            The offset of the block.
+	 * @param srcLen
+	 *            The length of the block.
+	 * @param dst
+	 *            The array receiving the data.
+	 * @param dstOff
+	 *            The offset of the data.
+	 * @param dstLen
+	 *            The uncompressed length of the block.
+	 * @throws IOException
+	 *             if the block is corrupted.
+	 */
+	public static void decompress(final byte[] src, final int srcOff, final int srcLen, final byte[] dst, final int dstOff, final int dstLen) throws IOException {
+	
+		final int end = srcOff + srcLen;
+		final int dstEnd = dstOff + dstLen;
+		int ip = srcOff;
+		int op = dstOff;
+		try {
+			while (true) {
+				final int token = src[ip++] & 0xFF;
+				int literals = token >>> 4;
+				if (literals == 15) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						literals += b;
+					} while (b == 255);
+				}
+				if (literals > end - ip || literals > dstEnd - op) { throw new IOException("[JNBT] Corrupt LZ4 block."); }
+				System.arraycopy(src, ip, dst, op, literals);
+				ip += literals;
+				op += literals;
+				if (ip == end) {
+					break;
+				}
+				final int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+				ip += 2;
+				int length = token & 0x0F;
+				if (length == 15) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						length += b;
+					} while (b == 255);
+				}
+				length += MIN_MATCH;
+				if (offset == 0 || offset > op - dstOff || length > dstEnd - op) { throw new IOException("[JNBT] Corrupt LZ4 block."); }
+				final int from = op - offset;
+				if (offset >= length) {
+					System.arraycopy(dst, from, dst, op, length);
+				} else {
+					for (int i = 0; i < length; i++) {
+						dst[op + i] = dst[from + i];
+					}
+				}
+				op += length;
+			}
+		} catch (final ArrayIndexOutOfBoundsException e) {
+			throw new IOException("[JNBT] Corrupt LZ4 block.");
+		}
+		if (op != dstEnd) { throw new IOException("[JNBT] Corrupt LZ4 block."); }
+	}
+	
+	private static int writeSequence(final byte[] src, final int literalOff, final int literals, final int offset, final int length, final byte[] dst, int op) {
+	
+		final int token = op++;
+		int value;
+		if (literals >= 15) {
+			value = 0xF0;
+			op = writeLength(literals - 15, dst, op);
+		} else {
+			value = literals << 4;
+		}
+		System.arraycopy(src, literalOff, dst, op, literals);
+		op += literals;
+		dst[op++] = (byte) offset;
+		dst[op++] = (byte) (offset >>> 8);
+		final int matchLength = length - MIN_MATCH;
+		if (matchLength >= 15) {
+			value |= 0x0F;
+			op = writeLength(matchLength - 15, dst, op);
+		} else {
+			value |= matchLength;
+		}
+		dst[token] = (byte) value;
+		return op;
+	}
+	
+	private static int writeLength(int length, final byte[] dst, int op) {
+	
+		while (length >= 255) {
+			dst[op++] = (byte) 255;
+			length -= 255;
+		}
+		dst[op++] = (byte) length;
+		return op;
+	}
+	
+	private static int readInt(final byte[] array, final int index) {
+	
+		return (array[index] & 0xFF) | ((array[index + 1] & 0xFF) << 8) | ((array[index + 2] & 0xFF) << 16) | (array[index + 3] << 24);
+	}
+	
+	private static int hash(final int sequence) {
+	
+		return (sequence * -1640531535) >>> (32 - HASH_LOG);
+	}
+	
+	private static void writeHeader(final OutputStream os, final byte[] header, final int length, final int compressedLength) throws IOException {
+	
+		for (int i = 0; i < 4; i++) {
+			header[i] = (byte) (length >>> (24 - i * 8));
+			header[4 + i] = (byte) (compressedLength >>> (24 - i * 8));
+		}
+		os.write(header, 0, 8);
+	}
+	
+	/**
+	 * Compresses the data written to it block by block.
+	 */
+	private static final class LZ4OutputStream extends FilterOutputStream {
+		
+		private final byte[] block;
+		
+		private final byte[] compressed;
+		
+		private final int[] table = new int[1 << HASH_LOG];
+		
+		private final byte[] header = new byte[8];
+		
+		private final int blockSize;
+		
+		private final int acceleration;
+		
+		private int length = 0;
+		
+		private boolean closed = false;
+		
+		private LZ4OutputStream(final OutputStream os, final int blockSize, final int acceleration) {
+		
+			super(os);
+			this.block = CompressionPool.acquireBuffer(blockSize);
+			this.compressed = CompressionPool.acquireBuffer(maxCompressedLength(blockSize));
+			this.blockSize = blockSize;
+			this.acceleration = acceleration;
+		}
+		
+		@Override
+		public void write(final int b) throws IOException {
+		
+			if (length == blockSize) {
+				writeBlock();
+			}
+			block[length++] = (byte) b;
+		}
+		
+		@Override
+		public void write(final byte[] b, int off, int len) throws IOException {
+		
+			while (len > 0) {
+				if (length == blockSize) {
+					writeBlock();
+				}
+				final int count = Math.min(len, blockSize - length);
+				System.arraycopy(b, off, block, length, count);
+				length += count;
+				off += count;
+				len -= count;
+			}
+		}
+		
+		@Override
+		public void flush() throws IOException {
+		
+			writeBlock();
+			out.flush();
+		}
+		
+		@Override
+		public void close() throws IOException {
+		
+			if (closed) { return; }
+			closed = true;
+			try {
+				writeBlock();
+				writeHeader(out, header, 0, 0);
+			} finally {
+				CompressionPool.releaseBuffer(block);
+				CompressionPool.releaseBuffer(compressed);
+				out.close();
+			}
+		}
+		
+		private void writeBlock() throws IOException {
+		
+			if (length == 0) { return; }
+			final int compressedLength = compress(block, 0, length, compressed, 0, table, acceleration);
+			if (compressedLength < length) {
+				writeHeader(out, header, length, compressedLength);
+				out.write(compressed, 0, compressedLength);
+			} else {
+				writeHeader(out, header, length, length | STORED);
+				out.write(block, 0, length);
+			}
+			length = 0;
+		}
+	}
+	
+	/**
+	 * Decompresses a stream written by {@link LZ4OutputStream}. Buffers are
+	 * sized for at least the block size of the codec, so streams of any length
+	 * share the same pooled buffers.
+	 */
+	private static final class LZ4InputStream extends InputStream {
+		
+		private static final byte[] EMPTY = new byte[0];
+		
+		private final InputStream is;
+		
+		private final int blockSize;
+		
+		private final byte[] header = new byte[8];
+		
+		private byte[] block = EMPTY;
+		
+		private byte[] compressed = EMPTY;
+		
+		private int position = 0;
+		
+		private int length = 0;
+		
+		private boolean finished = false;
+		
+		private boolean closed = false;
+		
+		private LZ4InputStream(final InputStream is, final int blockSize) {
+		
+			this.is = is;
+			this.blockSize = blockSize;
+		}
+		
+		@Override
+		public int read() throws IOException {
+		
+			if (position == length && !readBlock()) { return -1; }
+			return block[position++] & 0xFF;
+		}
+		
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+		
+			if (len == 0) { return 0; }
+			if (position == length && !readBlock()) { return -1; }
+			final int count = Math.min(len, length - position);
+			System.arraycopy(block, position, b, off, count);
+			position += count;
+			return count;
+		}
+		
+		@Override
+		public int available() {
+		
+			return length - position;
+		}
+		
+		@Override
+		public void close() throws IOException {
+		
+			if (closed) { return; }
+			closed = true;
+			CompressionPool.releaseBuffer(block);
+			CompressionPool.releaseBuffer(compressed);
+			block = compressed = EMPTY;
+			is.close();
+		}
+		
+		private boolean readBlock() throws IOException {
+		
+			if (finished) { return false; }
+			readFully(header, 8);
+			final int blockLength = readBigEndian(header, 0);
+			final int stored = readBigEndian(header, 4);
+			if (blockLength == 0) {
+				finished = true;
+				return false;
+			}
+			final int compressedLength = stored & ~STORED;
+			if (blockLength < 0 || blockLength > MAX_BLOCK_SIZE || compressedLength > maxCompressedLength(blockLength)) { throw new IOException("[JNBT] Corrupt LZ4 block header."); }
+			if (block.length < blockLength) {
+				CompressionPool.releaseBuffer(block);
+				block = CompressionPool.acquireBuffer(Math.max(blockLength, blockSize));
+			}
+			if ((stored & STORED) != 0) {
+				if (compressedLength != blockLength) { throw new IOException("[JNBT] Corrupt LZ4 block header."); }
+				readFully(block, blockLength);
+			} else {
+				if (compressed.length < compressedLength) {
+					CompressionPool.releaseBuffer(compressed);
+					compressed = CompressionPool.acquireBuffer(maxCompressedLength(Math.max(blockLength, blockSize)));
+				}
+				readFully(compressed, compressedLength);
+				decompress(compressed, 0, compressedLength, block, 0, blockLength);
+			}
+			position = 0;
+			length = blockLength;
+			return true;
+		}
+		
+		private void readFully(final byte[] b, final int len) throws IOException {
+		
+			int off = 0;
+			while (off < len) {
+				final int read = is.read(b, off, len - off);
+				if (read < 0) { throw new EOFException("[JNBT] Truncated LZ4 stream."); }
+				off += read;
+			}
+		}
+		
+		private static int readBigEndian(final byte[] b, final int off) {
+		
+			return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+		}
+	}
+	
+}
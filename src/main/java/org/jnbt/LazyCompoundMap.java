@@ -0,0 +1,291 @@
+package org.jnbt;
+
+//@formatter:off
+
+/*
+ * JNBT License
+ * 
+ * Copyright (c) 2010 Graham Edgecombe
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *       
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *       
+ *     * Neither the name of the JNBT team nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+//@formatter:on
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>
+ * The children of a lazily read <code>TAG_Compound</code>.
+ * </p>
+ * 
+ * <p>
+ * Only the name, type and offset of each child are recorded when the
+ * compound is read; a child is decoded from the backing buffer the first
+ * time it is looked up and then kept. Looking up names, the size or the key
+ * set never decodes anything.
+ * </p>
+ * 
+ * @author Jeff Chen
+ * 
+ */
+final class LazyCompoundMap extends AbstractMap<String, Tag> {
+	
+	/**
+	 * The reader configuration used to decode children.
+	 */
+	private final NBTBufferReader reader;
+	
+	/**
+	 * The index of each child by name.
+	 */
+	private final Map<String, Integer> index = new HashMap<String, Integer>();
+	
+	/**
+	 * The names of the children.
+	 */
+	private String[] names = new String[8];
+	
+	/**
+	 * The types of the children.
+	 */
+	private byte[] types = new byte[8];
+	
+	/**
+	 * The offsets of the payloads of the children.
+	 */
+	private int[] offsets = new int[8];
+	
+	/**
+	 * The children which have been decoded so far.
+	 */
+	private Tag[] tags;
+	
+	/**
+	 * The number of children.
+	 */
+	private int size;
+	
+	/**
+	 * Creates the map.
+	 * 
+	 * @param reader
+	 *            The reader which owns the backing buffer.
+	 */
+	LazyCompoundMap(final NBTBufferReader reader) {
+	
+		this.reader = reader;
+	}
+	
+	/**
+	 * Records a child while the compound is being read.
+	 * 
+	 * @param name
+	 *            The name.
+	 * @param type
+	 *            The type.
+	 * @param offset
+	 *            The offset of the payload in the buffer.
+	 */
+	void add(final String name, final int type, final int offset) {
+	
+		if (size == names.length) {
+			names = Arrays.copyOf(names, size * 2);
+			types = Arrays.copyOf(types, size * 2);
+			offsets = Arrays.copyOf(offsets, size * 2);
+		}
+		final Integer previous = index.put(name, size);
+		names[size] = name;
+		types[size] = (byte) type;
+		offsets[size] = offset;
+		size++;
+		if (previous != null) {
+			// a repeated name replaces the earlier child, as it does in a HashMap
+			names[previous] = null;
+		}
+	}
+	
+	/**
+	 * Finishes reading the compound.
+	 */
+	void seal() {
+	
+		tags = new Tag[size];
+	}
+	
+	/**
+	 * Gets a child, decoding it if needed.
+	 * 
+	 * @param i
+	 *            The index of the child.
+	 * @return The child.
+	 */
+	private Tag tag(final int i) {
+	
+		Tag tag = tags[i];
+		if (tag == null) {
+			try {
+				tag = reader.readPayloadAt(types[i], names[i], offsets[i]);
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			tags[i] = tag;
+		}
+		return tag;
+	}
+	
+	@Override
+	public int size() {
+	
+		return index.size();
+	}
+	
+	@Override
+	public boolean containsKey(final Object key) {
+	
+		return index.containsKey(key);
+	}
+	
+	@Override
+	public Tag get(final Object key) {
+	
+		final Integer i = index.get(key);
+		return (i == null) ? null : tag(i);
+	}
+	
+	@Override
+	public Set<String> keySet() {
+	
+		return new AbstractSet<String>() {
+			
+			@Override
+			public Iterator<String> iterator() {
+			
+				return new ChildIterator<String>() {
+					
+					@Override
+					String child(final int i) {
+					
+						return names[i];
+					}
+				};
+			}
+			
+			@Override
+			public boolean contains(final Object o) {
+			
+				return index.containsKey(o);
+			}
+			
+			@Override
+			public int size() {
+			
+				return index.size();
+			}
+		};
+	}
+	
+	@Override
+	public Set<Map.Entry<String, Tag>> entrySet() {
+	
+		return new AbstractSet<Map.Entry<String, Tag>>() {
+			
+			@Override
+			public Iterator<Map.Entry<String, Tag>> iterator() {
+			
+				return new ChildIterator<Map.Entry<String, Tag>>() {
+					
+					@Override
+					Map.Entry<String, Tag> child(final int i) {
+					
+						return new AbstractMap.SimpleImmutableEntry<String, Tag>(names[i], tag(i));
+					}
+				};
+			}
+			
+			@Override
+			public int size() {
+			
+				return index.size();
+			}
+		};
+	}
+	
+	/**
+	 * Iterates over the children in the order they were read, skipping
+	 * children replaced by a later child with the same name.
+	 * 
+	 * @param <T>
+	 *            The type of the elements.
+	 */
+	private abstract class ChildIterator<T> implements Iterator<T> {
+		
+		private int next = advance(0);
+		
+		private int advance(int i) {
+		
+			while ((i < size) && (names[i] == null)) {
+				i++;
+			}
+			return i;
+		}
+		
+		/**
+		 * Gets the element for a child.
+		 * 
+		 * @param i
+		 *            The index of the child.
+		 * @return The element.
+		 */
+		abstract T child(int i);
+		
+		@Override
+		public boolean hasNext() {
+		
+			return next < size;
+		}
+		
+		@Override
+		public T next() {
+		
+			if (next >= size) { throw new NoSuchElementException(); }
+			final int i = next;
+			next = advance(i + 1);
+			return child(i);
+		}
+	}
+}
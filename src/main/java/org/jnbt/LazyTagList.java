@@ -0,0 +1,120 @@
+package org.jnbt;
+
+//@formatter:off
+
+/*
+ * JNBT License
+ * 
+ * Copyright (c) 2010 Graham Edgecombe
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *       
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *       
+ *     * Neither the name of the JNBT team nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+//@formatter:on
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * <p>
+ * The items of a lazily read <code>TAG_List</code> of compounds, lists or
+ * arrays.
+ * </p>
+ * 
+ * <p>
+ * Only the offset of each item is recorded when the list is read; an item
+ * is decoded from the backing buffer the first time it is accessed and then
+ * kept.
+ * </p>
+ * 
+ * @author Jeff Chen
+ * 
+ */
+final class LazyTagList extends AbstractList<Tag> implements RandomAccess {
+	
+	/**
+	 * The reader which owns the backing buffer.
+	 */
+	private final NBTBufferReader reader;
+	
+	/**
+	 * The type of the items.
+	 */
+	private final int type;
+	
+	/**
+	 * The offsets of the payloads of the items.
+	 */
+	private final int[] offsets;
+	
+	/**
+	 * The items which have been decoded so far.
+	 */
+	private final Tag[] tags;
+	
+	/**
+	 * Creates the list.
+	 * 
+	 * @param reader
+	 *            The reader which owns the backing buffer.
+	 * @param type
+	 *            The type of the items.
+	 * @param offsets
+	 *            The offsets of the payloads of the items.
+	 */
+	LazyTagList(final NBTBufferReader reader, final int type, final int[] offsets) {
+	
+		this.reader = reader;
+		this.type = type;
+		this.offsets = offsets;
+		this.tags = new Tag[offsets.length];
+	}
+	
+	@Override
+	public Tag get(final int index) {
+	
+		Tag tag = tags[index];
+		if (tag == null) {
+			try {
+				tag = reader.readPayloadAt(type, "", offsets[index]);
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			tags[index] = tag;
+		}
+		return tag;
+	}
+	
+	@Override
+	public int size() {
+	
+		return offsets.length;
+	}
+}
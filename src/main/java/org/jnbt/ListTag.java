@@ -53,6 +53,11 @@ public final class ListTag extends Tag {
 	 */
 	private final Class<? extends Tag> type;
 	
+	/**
+	 * The type code of the items.
+	 */
+	private final int childTypeCode;
+	
 	/**
 	 * The value.
 	 */
@@ -72,6 +77,7 @@ public final class ListTag extends Tag {
 	
 		super(name);
 		this.type = type;
+		this.childTypeCode = NBTUtils.getTypeCode(type);
 		this.value = Collections.unmodifiableList(value);
 	}
 	
@@ -85,12 +91,28 @@ public final class ListTag extends Tag {
 		return type;
 	}
 	
+	/**
+	 * Gets the type code of the items in this list.
+	 * 
+	 * @return The type code of the items in this list.
+	 */
+	public int getChildTypeCode() {
+	
+		return childTypeCode;
+	}
+	
 	@Override
 	public List<Tag> getValue() {
 	
 		return value;
 	}
 	
+	@Override
+	public int getTypeCode() {
+	
+		return NBTConstants.TYPE_LIST;
+	}
+	
 	@Override
 	public String toString() {
 	
@@ -70,6 +70,12 @@ public final class LongTag extends Tag {
 		return value;
 	}
 	
+	@Override
+	public int getTypeCode() {
+	
+		return NBTConstants.TYPE_LONG;
+	}
+	
 	@Override
 	public String toString() {
 	
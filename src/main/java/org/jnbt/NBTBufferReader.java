@@ -0,0 +1,459 @@
+package org.jnbt;
+
+//@formatter:off
+
+/*
+ * JNBT License
+ * 
+ * Copyright (c) 2010 Graham Edgecombe
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *       
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *       
+ *     * Neither the name of the JNBT team nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+//@formatter:on
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * <p>
+ * This class reads uncompressed <strong>NBT</strong> directly from a
+ * {@link ByteBuffer}, which may be a heap, direct or memory mapped buffer,
+ * and produces the same object graph as {@link NBTInputStream}.
+ * </p>
+ * 
+ * <p>
+ * Reading from a buffer avoids the per-value call overhead of a
+ * <code>DataInputStream</code>: integer arrays are bulk copied through an
+ * <code>IntBuffer</code> view and strings are decoded in place. When
+ * slicing is enabled, <code>TAG_Byte_Array</code> payloads are returned as
+ * slices of the source buffer rather than copies; see
+ * {@link ByteArrayTag#getBuffer()}. Sliced tags share memory with the
+ * buffer, which must then stay unchanged while they are in use.
+ * </p>
+ * 
+ * @author Jeff Chen
+ * 
+ */
+public final class NBTBufferReader {
+	
+	/**
+	 * The buffer, positioned at the next tag.
+	 */
+	private final ByteBuffer buf;
+	
+	/**
+	 * An untouched view of the whole buffer, used to decode lazy children.
+	 */
+	private final ByteBuffer source;
+	
+	/**
+	 * Whether byte arrays are returned as slices.
+	 */
+	private final boolean sliceByteArrays;
+	
+	/**
+	 * Whether compounds and lists are decoded lazily.
+	 */
+	private final boolean lazy;
+	
+	/**
+	 * Creates a new <code>NBTBufferReader</code>, which will read from the
+	 * position of the specified buffer and copy byte arrays.
+	 * 
+	 * @param buffer
+	 *            The buffer. Its position is not changed.
+	 */
+	public NBTBufferReader(final ByteBuffer buffer) {
+	
+		this(buffer, false);
+	}
+	
+	/**
+	 * Creates a new <code>NBTBufferReader</code>, which will read from the
+	 * position of the specified buffer.
+	 * 
+	 * @param buffer
+	 *            The buffer. Its position is not changed.
+	 * @param sliceByteArrays
+	 *            Whether byte arrays should be slices of the buffer instead of
+	 *            copies.
+	 */
+	public NBTBufferReader(final ByteBuffer buffer, final boolean sliceByteArrays) {
+	
+		this(buffer, sliceByteArrays, false);
+	}
+	
+	/**
+	 * <p>
+	 * Creates a new <code>NBTBufferReader</code>, which will read from the
+	 * position of the specified buffer.
+	 * </p>
+	 * 
+	 * <p>
+	 * In lazy mode, reading a <code>TAG_Compound</code> only records the
+	 * name, type and offset of each child, and reading a
+	 * <code>TAG_List</code> of compounds, lists or arrays only records the
+	 * offset of each item. A child is decoded the first time it is accessed
+	 * through {@link CompoundTag#getValue()} or {@link ListTag#getValue()},
+	 * so looking at a few keys of a large tree costs little more than
+	 * scanning it. Lazy tags keep a reference to the buffer, which must stay
+	 * unchanged while they are in use. Corrupt data found while decoding a
+	 * child is reported as an {@link java.io.UncheckedIOException}.
+	 * </p>
+	 * 
+	 * @param buffer
+	 *            The buffer. Its position is not changed.
+	 * @param sliceByteArrays
+	 *            Whether byte arrays should be slices of the buffer instead of
+	 *            copies.
+	 * @param lazy
+	 *            Whether compounds and lists should be decoded lazily.
+	 */
+	public NBTBufferReader(final ByteBuffer buffer, final boolean sliceByteArrays, final boolean lazy) {
+	
+		this.buf = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		this.source = this.buf.duplicate().order(ByteOrder.BIG_ENDIAN);
+		this.sliceByteArrays = sliceByteArrays;
+		this.lazy = lazy;
+	}
+	
+	/**
+	 * Decodes the payload of a tag recorded by a lazy compound or list.
+	 * 
+	 * @param type
+	 *            The type.
+	 * @param name
+	 *            The name.
+	 * @param offset
+	 *            The offset of the payload in the buffer.
+	 * @return The tag.
+	 * @throws IOException
+	 *             if the buffer ends early or the data is invalid.
+	 */
+	Tag readPayloadAt(final int type, final String name, final int offset) throws IOException {
+	
+		final ByteBuffer at = source.duplicate().order(ByteOrder.BIG_ENDIAN);
+		at.position(offset);
+		final NBTBufferReader reader = new NBTBufferReader(at, sliceByteArrays, lazy);
+		try {
+			return reader.readTagPayload(type, name, "", null);
+		} catch (final BufferUnderflowException e) {
+			throw new EOFException("[JNBT] Unexpected end of buffer.");
+		}
+	}
+	
+	/**
+	 * Gets the number of bytes which have been read so far.
+	 * 
+	 * @return The position of the reader in the buffer.
+	 */
+	public int position() {
+	
+		return buf.position();
+	}
+	
+	/**
+	 * Reads an NBT tag from the buffer.
+	 * 
+	 * @return The tag that was read.
+	 * @throws IOException
+	 *             if the buffer ends early or the data is invalid.
+	 */
+	public Tag readTag() throws IOException {
+	
+		return readTag(null);
+	}
+	
+	/**
+	 * Reads an NBT tag from the buffer, decoding only the parts accepted by a
+	 * filter. See {@link NBTInputStream#readTag(Predicate)}.
+	 * 
+	 * @param filter
+	 *            The filter, or <code>null</code> to read everything.
+	 * @return The tag that was read.
+	 * @throws IOException
+	 *             if the buffer ends early or the data is invalid.
+	 */
+	public Tag readTag(final Predicate<String> filter) throws IOException {
+	
+		try {
+			final int type = buf.get() & 0xFF;
+			if (type == NBTConstants.TYPE_END) { throw new IOException(
+					"[JNBT] TAG_End found without a TAG_Compound/TAG_List tag preceding it."); }
+			return readTagPayload(type, readString(), "", filter);
+		} catch (final BufferUnderflowException e) {
+			throw new EOFException("[JNBT] Unexpected end of buffer.");
+		}
+	}
+	
+	/**
+	 * Reads the payload of a tag, given the name and type.
+	 * 
+	 * @param type
+	 *            The type.
+	 * @param name
+	 *            The name.
+	 * @param path
+	 *            The path of the tag, used by the filter.
+	 * @param filter
+	 *            The path filter, or <code>null</code> to read everything.
+	 * @return The tag.
+	 * @throws IOException
+	 *             if the data is invalid.
+	 */
+	private Tag readTagPayload(final int type, final String name, final String path,
+			final Predicate<String> filter) throws IOException
+	{
+	
+		switch (type)
+			{
+				case NBTConstants.TYPE_BYTE :
+					return new ByteTag(name, buf.get());
+				case NBTConstants.TYPE_SHORT :
+					return new ShortTag(name, buf.getShort());
+				case NBTConstants.TYPE_INT :
+					return new IntTag(name, buf.getInt());
+				case NBTConstants.TYPE_LONG :
+					return new LongTag(name, buf.getLong());
+				case NBTConstants.TYPE_FLOAT :
+					return new FloatTag(name, buf.getFloat());
+				case NBTConstants.TYPE_DOUBLE :
+					return new DoubleTag(name, buf.getDouble());
+				case NBTConstants.TYPE_BYTE_ARRAY :
+					final int length = checkLength(buf.getInt(), 1);
+					if (sliceByteArrays) {
+						final ByteBuffer slice = buf.duplicate();
+						slice.limit(slice.position() + length);
+						buf.position(buf.position() + length);
+						return new ByteArrayTag(name, slice);
+					}
+					final byte[] bytes = new byte[length];
+					buf.get(bytes);
+					return new ByteArrayTag(name, bytes);
+				case NBTConstants.TYPE_STRING :
+					return new StringTag(name, readString());
+				case NBTConstants.TYPE_LIST :
+					final int childType = buf.get();
+					final int size = checkLength(buf.getInt(), 1);
+					if (lazy && (filter == null) && isContainer(childType)) {
+						final int[] offsets = new int[size];
+						for (int i = 0; i < size; i++) {
+							offsets[i] = buf.position();
+							skipPayload(childType);
+						}
+						return new ListTag(name, NBTUtils.getTypeClass(childType),
+								new LazyTagList(this, childType, offsets));
+					}
+					final List<Tag> tagList = new ArrayList<Tag>(size);
+					for (int i = 0; i < size; i++) {
+						if (childType == NBTConstants.TYPE_END) { throw new IOException(
+								"[JNBT] TAG_End not permitted in a list."); }
+						tagList.add(readTagPayload(childType, "", path, filter));
+					}
+					return new ListTag(name, NBTUtils.getTypeClass(childType), tagList);
+				case NBTConstants.TYPE_COMPOUND :
+					if (lazy && (filter == null)) {
+						final LazyCompoundMap lazyMap = new LazyCompoundMap(this);
+						while (true) {
+							final int childTypeCode = buf.get() & 0xFF;
+							if (childTypeCode == NBTConstants.TYPE_END) {
+								break;
+							}
+							final String childName = readString();
+							lazyMap.add(childName, childTypeCode, buf.position());
+							skipPayload(childTypeCode);
+						}
+						lazyMap.seal();
+						return new CompoundTag(name, lazyMap);
+					}
+					final Map<String, Tag> tagMap = new LinkedHashMap<String, Tag>();
+					while (true) {
+						final int childTypeCode = buf.get() & 0xFF;
+						if (childTypeCode == NBTConstants.TYPE_END) {
+							break;
+						}
+						final String childName = readString();
+						if (filter == null) {
+							tagMap.put(childName, readTagPayload(childTypeCode, childName, path, null));
+							continue;
+						}
+						final String childPath = path.isEmpty() ? childName : path + "/" + childName;
+						if (filter.test(childPath)) {
+							tagMap.put(childName, readTagPayload(childTypeCode, childName, childPath, filter));
+						} else {
+							skipPayload(childTypeCode);
+						}
+					}
+					return new CompoundTag(name, tagMap);
+				case NBTConstants.TYPE_INT_ARRAY :
+					final int[] ints = new int[checkLength(buf.getInt(), 4)];
+					buf.asIntBuffer().get(ints);
+					buf.position(buf.position() + (ints.length * 4));
+					return new IntArrayTag(name, ints);
+				default :
+					throw new IOException("[JNBT] Invalid tag type: " + type
+							+ ".");
+			}
+	}
+	
+	/**
+	 * Skips the payload of a tag without decoding it.
+	 * 
+	 * @param type
+	 *            The type.
+	 * @throws IOException
+	 *             if the data is invalid.
+	 */
+	private void skipPayload(final int type) throws IOException {
+	
+		switch (type)
+			{
+				case NBTConstants.TYPE_END :
+					break;
+				case NBTConstants.TYPE_BYTE :
+					skip(1);
+					break;
+				case NBTConstants.TYPE_SHORT :
+					skip(2);
+					break;
+				case NBTConstants.TYPE_INT :
+				case NBTConstants.TYPE_FLOAT :
+					skip(4);
+					break;
+				case NBTConstants.TYPE_LONG :
+				case NBTConstants.TYPE_DOUBLE :
+					skip(8);
+					break;
+				case NBTConstants.TYPE_BYTE_ARRAY :
+					skip(checkLength(buf.getInt(), 1));
+					break;
+				case NBTConstants.TYPE_STRING :
+					skip(buf.getShort() & 0xFFFF);
+					break;
+				case NBTConstants.TYPE_LIST :
+					final int childType = buf.get();
+					final int size = checkLength(buf.getInt(), 1);
+					for (int i = 0; i < size; i++) {
+						skipPayload(childType);
+					}
+					break;
+				case NBTConstants.TYPE_COMPOUND :
+					while (true) {
+						final int childTypeCode = buf.get() & 0xFF;
+						if (childTypeCode == NBTConstants.TYPE_END) {
+							break;
+						}
+						skip(buf.getShort() & 0xFFFF);
+						skipPayload(childTypeCode);
+					}
+					break;
+				case NBTConstants.TYPE_INT_ARRAY :
+					skip(checkLength(buf.getInt(), 4) * 4);
+					break;
+				default :
+					throw new IOException("[JNBT] Invalid tag type: " + type
+							+ ".");
+			}
+	}
+	
+	/**
+	 * Checks whether a type is worth decoding lazily inside a list.
+	 * 
+	 * @param type
+	 *            The type of the items.
+	 * @return Whether the type is a compound, list or array.
+	 */
+	private static boolean isContainer(final int type) {
+	
+		return (type == NBTConstants.TYPE_COMPOUND) || (type == NBTConstants.TYPE_LIST)
+				|| (type == NBTConstants.TYPE_BYTE_ARRAY) || (type == NBTConstants.TYPE_INT_ARRAY);
+	}
+	
+	/**
+	 * Advances the buffer.
+	 * 
+	 * @param count
+	 *            The number of bytes to skip.
+	 */
+	private void skip(final int count) {
+	
+		if (count > buf.remaining()) { throw new BufferUnderflowException(); }
+		buf.position(buf.position() + count);
+	}
+	
+	/**
+	 * Checks that an array length fits in the rest of the buffer, so corrupt
+	 * data cannot cause a huge allocation.
+	 * 
+	 * @param length
+	 *            The number of elements.
+	 * @param elementSize
+	 *            The size of an element in bytes.
+	 * @return The length.
+	 * @throws IOException
+	 *             if the length is negative or too large.
+	 */
+	private int checkLength(final int length, final int elementSize) throws IOException {
+	
+		if ((length < 0) || (((long) length * elementSize) > buf.remaining())) { throw new IOException(
+				"[JNBT] Invalid array length: " + length + "."); }
+		return length;
+	}
+	
+	/**
+	 * Reads a length-prefixed UTF-8 string, decoding it in place when the
+	 * buffer has a backing array.
+	 * 
+	 * @return The string.
+	 */
+	private String readString() {
+	
+		final int length = buf.getShort() & 0xFFFF;
+		if (length > buf.remaining()) { throw new BufferUnderflowException(); }
+		final String value;
+		if (buf.hasArray()) {
+			value = new String(buf.array(), buf.arrayOffset() + buf.position(), length,
+					NBTConstants.CHARSET);
+			buf.position(buf.position() + length);
+		} else {
+			final byte[] bytes = new byte[length];
+			buf.get(bytes);
+			value = new String(bytes, NBTConstants.CHARSET);
+		}
+		return value;
+	}
+}
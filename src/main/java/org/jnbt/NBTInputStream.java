@@ -41,11 +41,13 @@ import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
+import java.util.function.Predicate;
 
 /**
  * <p>
@@ -60,6 +62,11 @@ import java.util.zip.GZIPInputStream;
  * http://www.minecraft.net/docs/NBT.txt</a>.
  * </p>
  * 
+ * <p>
+ * The children of a compound are kept in the order they were read, so a tag
+ * written back with {@link NBTOutputStream} produces the same bytes.
+ * </p>
+ * 
  * @author Graham Edgecombe
  * 
  */
@@ -81,11 +88,25 @@ public final class NBTInputStream implements Closeable {
 	 * @throws IOException
 	 *             if an I/O error occurs.
 	 */
-	public NBTInputStream(InputStream is, final boolean gzipped) throws IOException {
-		if (gzipped) {
-			is = new GZIPInputStream(is);
-		}
-		this.is = new DataInputStream(is);
+	public NBTInputStream(final InputStream is, final boolean gzipped) throws IOException {
+	
+		this(is, gzipped ? CompressionCodecs.GZIP : CompressionCodecs.RAW);
+	}
+	
+	/**
+	 * Creates a new <code>NBTInputStream</code>, which will source its data
+	 * from the specified input stream, decompressed by a codec.
+	 * 
+	 * @param is
+	 *            The input stream.
+	 * @param codec
+	 *            The compression of the stream.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public NBTInputStream(final InputStream is, final CompressionCodec codec) throws IOException {
+	
+		this.is = new DataInputStream(codec.decompress(is));
 	}
 	
 	/**
@@ -98,7 +119,8 @@ public final class NBTInputStream implements Closeable {
 	 *             if an I/O error occurs.
 	 */
 	public NBTInputStream(final InputStream is) throws IOException {
-		this.is = new DataInputStream(new GZIPInputStream(is));
+	
+		this(is, CompressionCodecs.GZIP);
 	}
 	
 	//TODO: comment this.  supports raw Gziped data.
@@ -116,7 +138,61 @@ public final class NBTInputStream implements Closeable {
 	 */
 	public Tag readTag() throws IOException {
 	
-		return readTag(0);
+		return readTag(0, null);
+	}
+	
+	/**
+	 * <p>
+	 * Reads an NBT tag from the stream, decoding only the parts accepted by a
+	 * filter.
+	 * </p>
+	 * 
+	 * <p>
+	 * The filter is given the path of every tag below the root, made of the
+	 * names of its enclosing compounds joined with <code>/</code>, for example
+	 * <code>Level/Sections</code>. Items of a list share the path of the
+	 * list. Rejected tags are skipped by length without being decoded and are
+	 * left out of the resulting compound. See
+	 * {@link NBTUtils#pathFilter(String...)} for a filter built from a set of
+	 * paths.
+	 * </p>
+	 * 
+	 * @param filter
+	 *            The filter.
+	 * @return The tag that was read.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public Tag readTag(final Predicate<String> filter) throws IOException {
+	
+		return readTag(0, filter);
+	}
+	
+	/**
+	 * Reads the rest of the stream into memory and returns its first tag
+	 * decoded lazily: compounds and lists only decode a child when it is
+	 * first accessed. See
+	 * {@link NBTBufferReader#NBTBufferReader(ByteBuffer, boolean, boolean)}.
+	 * 
+	 * @return The tag that was read.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public Tag readLazyTag() throws IOException {
+	
+		byte[] data = new byte[8192];
+		int length = 0;
+		while (true) {
+			if (length == data.length) {
+				data = Arrays.copyOf(data, data.length * 2);
+			}
+			final int read = is.read(data, length, data.length - length);
+			if (read < 0) {
+				break;
+			}
+			length += read;
+		}
+		return new NBTBufferReader(ByteBuffer.wrap(data, 0, length), true, true).readTag();
 	}
 	
 	/**
@@ -124,25 +200,24 @@ public final class NBTInputStream implements Closeable {
 	 * 
 	 * @param depth
 	 *            The depth of this tag.
+	 * @param filter
+	 *            The path filter, or <code>null</code> to read everything.
 	 * @return The tag that was read.
 	 * @throws IOException
 	 *             if an I/O error occurs.
 	 */
-	private Tag readTag(final int depth) throws IOException {
+	private Tag readTag(final int depth, final Predicate<String> filter) throws IOException {
 	
 		final int type = is.readByte() & 0xFF;
 		
 		String name;
 		if (type != NBTConstants.TYPE_END) {
-			final int nameLength = is.readShort() & 0xFFFF;
-			final byte[] nameBytes = new byte[nameLength];
-			is.readFully(nameBytes);
-			name = new String(nameBytes, NBTConstants.CHARSET);
+			name = readName();
 		} else {
 			name = "";
 		}
 		
-		return readTagPayload(type, name, depth);
+		return readTagPayload(type, name, depth, "", filter);
 	}
 	
 	/**
@@ -154,12 +229,16 @@ public final class NBTInputStream implements Closeable {
 	 *            The name.
 	 * @param depth
 	 *            The depth.
+	 * @param path
+	 *            The path of the tag, used by the filter.
+	 * @param filter
+	 *            The path filter, or <code>null</code> to read everything.
 	 * @return The tag.
 	 * @throws IOException
 	 *             if an I/O error occurs.
 	 */
-	private Tag readTagPayload(final int type, final String name, final int depth)
-			throws IOException
+	private Tag readTagPayload(final int type, final String name, final int depth,
+			final String path, final Predicate<String> filter) throws IOException
 	{
 	
 		switch (type)
@@ -200,7 +279,7 @@ public final class NBTInputStream implements Closeable {
 					
 					final List<Tag> tagList = new ArrayList<Tag>();
 					for (int i = 0; i < length; i++) {
-						final Tag tag = readTagPayload(childType, "", depth + 1);
+						final Tag tag = readTagPayload(childType, "", depth + 1, path, filter);
 						if (tag instanceof EndTag) { throw new IOException(
 								"[JNBT] TAG_End not permitted in a list."); }
 						tagList.add(tag);
@@ -209,13 +288,22 @@ public final class NBTInputStream implements Closeable {
 					return new ListTag(name, NBTUtils.getTypeClass(childType),
 							tagList);
 				case NBTConstants.TYPE_COMPOUND :
-					final Map<String, Tag> tagMap = new HashMap<String, Tag>();
+					final Map<String, Tag> tagMap = new LinkedHashMap<String, Tag>();
 					while (true) {
-						final Tag tag = readTag(depth + 1);
-						if (tag instanceof EndTag) {
+						final int childTypeCode = is.readByte() & 0xFF;
+						if (childTypeCode == NBTConstants.TYPE_END) {
 							break;
+						}
+						final String childName = readName();
+						if (filter == null) {
+							tagMap.put(childName, readTagPayload(childTypeCode, childName, depth + 1, path, null));
+							continue;
+						}
+						final String childPath = path.isEmpty() ? childName : path + "/" + childName;
+						if (filter.test(childPath)) {
+							tagMap.put(childName, readTagPayload(childTypeCode, childName, depth + 1, childPath, filter));
 						} else {
-							tagMap.put(tag.getName(), tag);
+							skipPayload(childTypeCode);
 						}
 					}
 					
@@ -233,6 +321,203 @@ public final class NBTInputStream implements Closeable {
 			}
 	}
 	
+	/**
+	 * Reads an NBT tag from the stream and reports it to a visitor, without
+	 * creating any <code>Tag</code> objects.
+	 * 
+	 * @param visitor
+	 *            The visitor.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public void accept(final NBTVisitor visitor) throws IOException {
+	
+		final int type = is.readByte() & 0xFF;
+		if (type == NBTConstants.TYPE_END) { throw new IOException(
+				"[JNBT] TAG_End found without a TAG_Compound/TAG_List tag preceding it."); }
+		acceptPayload(type, readName(), visitor);
+	}
+	
+	/**
+	 * Reports the payload of a tag to a visitor, given the name and type.
+	 * 
+	 * @param type
+	 *            The type.
+	 * @param name
+	 *            The name.
+	 * @param visitor
+	 *            The visitor.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	private void acceptPayload(final int type, final String name, final NBTVisitor visitor)
+			throws IOException
+	{
+	
+		if (!visitor.visitTag(type, name)) {
+			skipPayload(type);
+			return;
+		}
+		switch (type)
+			{
+				case NBTConstants.TYPE_BYTE :
+					visitor.byteValue(name, is.readByte());
+					break;
+				case NBTConstants.TYPE_SHORT :
+					visitor.shortValue(name, is.readShort());
+					break;
+				case NBTConstants.TYPE_INT :
+					visitor.intValue(name, is.readInt());
+					break;
+				case NBTConstants.TYPE_LONG :
+					visitor.longValue(name, is.readLong());
+					break;
+				case NBTConstants.TYPE_FLOAT :
+					visitor.floatValue(name, is.readFloat());
+					break;
+				case NBTConstants.TYPE_DOUBLE :
+					visitor.doubleValue(name, is.readDouble());
+					break;
+				case NBTConstants.TYPE_BYTE_ARRAY :
+					final byte[] bytes = new byte[is.readInt()];
+					is.readFully(bytes);
+					visitor.byteArray(name, bytes);
+					break;
+				case NBTConstants.TYPE_STRING :
+					final byte[] chars = new byte[is.readShort() & 0xFFFF];
+					is.readFully(chars);
+					visitor.stringValue(name, new String(chars, NBTConstants.CHARSET));
+					break;
+				case NBTConstants.TYPE_LIST :
+					final int childType = is.readByte();
+					final int length = is.readInt();
+					if ((childType == NBTConstants.TYPE_END) && (length > 0)) { throw new IOException(
+							"[JNBT] TAG_End not permitted in a list."); }
+					visitor.startList(name, childType, length);
+					for (int i = 0; i < length; i++) {
+						acceptPayload(childType, "", visitor);
+					}
+					visitor.endList();
+					break;
+				case NBTConstants.TYPE_COMPOUND :
+					visitor.startCompound(name);
+					while (true) {
+						final int childTypeCode = is.readByte() & 0xFF;
+						if (childTypeCode == NBTConstants.TYPE_END) {
+							break;
+						}
+						acceptPayload(childTypeCode, readName(), visitor);
+					}
+					visitor.endCompound();
+					break;
+				case NBTConstants.TYPE_INT_ARRAY :
+					final int[] ints = new int[is.readInt()];
+					for (int i = 0; i < ints.length; i++) {
+						ints[i] = is.readInt();
+					}
+					visitor.intArray(name, ints);
+					break;
+				default :
+					throw new IOException("[JNBT] Invalid tag type: " + type
+							+ ".");
+			}
+	}
+	
+	/**
+	 * Skips the payload of a tag without decoding it.
+	 * 
+	 * @param type
+	 *            The type.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	private void skipPayload(final int type) throws IOException {
+	
+		switch (type)
+			{
+				case NBTConstants.TYPE_END :
+					break;
+				case NBTConstants.TYPE_BYTE :
+					skipFully(1);
+					break;
+				case NBTConstants.TYPE_SHORT :
+					skipFully(2);
+					break;
+				case NBTConstants.TYPE_INT :
+				case NBTConstants.TYPE_FLOAT :
+					skipFully(4);
+					break;
+				case NBTConstants.TYPE_LONG :
+				case NBTConstants.TYPE_DOUBLE :
+					skipFully(8);
+					break;
+				case NBTConstants.TYPE_BYTE_ARRAY :
+					skipFully(is.readInt());
+					break;
+				case NBTConstants.TYPE_STRING :
+					skipFully(is.readShort() & 0xFFFF);
+					break;
+				case NBTConstants.TYPE_LIST :
+					final int childType = is.readByte();
+					final int length = is.readInt();
+					for (int i = 0; i < length; i++) {
+						skipPayload(childType);
+					}
+					break;
+				case NBTConstants.TYPE_COMPOUND :
+					while (true) {
+						final int childTypeCode = is.readByte() & 0xFF;
+						if (childTypeCode == NBTConstants.TYPE_END) {
+							break;
+						}
+						skipFully(is.readShort() & 0xFFFF);
+						skipPayload(childTypeCode);
+					}
+					break;
+				case NBTConstants.TYPE_INT_ARRAY :
+					skipFully(is.readInt() * 4L);
+					break;
+				default :
+					throw new IOException("[JNBT] Invalid tag type: " + type
+							+ ".");
+			}
+	}
+	
+	/**
+	 * Skips exactly <code>count</code> bytes.
+	 * 
+	 * @param count
+	 *            The number of bytes.
+	 * @throws IOException
+	 *             if the stream ends before the bytes were skipped.
+	 */
+	private void skipFully(long count) throws IOException {
+	
+		while (count > 0) {
+			final int skipped = is.skipBytes((int) Math.min(count, Integer.MAX_VALUE));
+			if (skipped <= 0) {
+				is.readByte();
+				count--;
+			} else {
+				count -= skipped;
+			}
+		}
+	}
+	
+	/**
+	 * Reads the name of a tag.
+	 * 
+	 * @return The name.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	private String readName() throws IOException {
+	
+		final byte[] nameBytes = new byte[is.readShort() & 0xFFFF];
+		is.readFully(nameBytes);
+		return new String(nameBytes, NBTConstants.CHARSET);
+	}
+	
 	@Override
 	public void close() throws IOException {
 	
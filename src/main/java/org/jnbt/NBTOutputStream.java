@@ -41,8 +41,8 @@ import java.io.Closeable;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
 
 
 /**
@@ -78,7 +78,7 @@ public final class NBTOutputStream implements Closeable {
 	 */
 	public NBTOutputStream(final OutputStream os) throws IOException {
 	
-		this.os = new DataOutputStream(new GZIPOutputStream(os));
+		this(os, CompressionCodecs.GZIP);
 	}
 
 	
@@ -93,11 +93,25 @@ public final class NBTOutputStream implements Closeable {
 	 * @throws IOException
 	 *             if an I/O error occurs.
 	 */
-	public NBTOutputStream(OutputStream os, final boolean gzipped) throws IOException {
-		if (gzipped) {
-			os = new GZIPOutputStream(os);
-		}
-		this.os = new DataOutputStream(os);
+	public NBTOutputStream(final OutputStream os, final boolean gzipped) throws IOException {
+	
+		this(os, gzipped ? CompressionCodecs.GZIP : CompressionCodecs.RAW);
+	}
+	
+	/**
+	 * Creates a new <code>NBTOutputStream</code>, which will write data to the
+	 * specified underlying output stream, compressed by a codec.
+	 * 
+	 * @param os
+	 *            The output stream.
+	 * @param codec
+	 *            The compression of the stream.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public NBTOutputStream(final OutputStream os, final CompressionCodec codec) throws IOException {
+	
+		this.os = new DataOutputStream(codec.compress(os));
 	}
 	
 	/**
@@ -110,7 +124,7 @@ public final class NBTOutputStream implements Closeable {
 	 */
 	public void writeTag(final Tag tag) throws IOException {
 	
-		final int type = NBTUtils.getTypeCode(tag.getClass());
+		final int type = tag.getTypeCode();
 		final String name = tag.getName();
 		final byte[] nameBytes = name.getBytes(NBTConstants.CHARSET);
 		
@@ -134,7 +148,7 @@ public final class NBTOutputStream implements Closeable {
 	 */
 	private void writeTagPayload(final Tag tag) throws IOException {
 	
-		final int type = NBTUtils.getTypeCode(tag.getClass());
+		final int type = tag.getTypeCode();
 		switch (type)
 			{
 				case NBTConstants.TYPE_END :
@@ -202,9 +216,13 @@ public final class NBTOutputStream implements Closeable {
 	 */
 	private void writeByteArrayTagPayload(final ByteArrayTag tag) throws IOException {
 	
-		final byte[] bytes = tag.getValue();
-		os.writeInt(bytes.length);
-		os.write(bytes);
+		final ByteBuffer bytes = tag.getBuffer();
+		os.writeInt(bytes.remaining());
+		if (bytes.hasArray()) {
+			os.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+		} else {
+			os.write(tag.getValue());
+		}
 	}
 	
 	/**
@@ -233,11 +251,10 @@ public final class NBTOutputStream implements Closeable {
 	 */
 	private void writeListTagPayload(final ListTag tag) throws IOException {
 	
-		final Class<? extends Tag> clazz = tag.getType();
 		final List<Tag> tags = tag.getValue();
 		final int size = tags.size();
 		
-		os.writeByte(NBTUtils.getTypeCode(clazz));
+		os.writeByte(tag.getChildTypeCode());
 		os.writeInt(size);
 		for (int i = 0; i < size; i++) {
 			writeTagPayload(tags.get(i));
@@ -37,6 +37,11 @@ package org.jnbt;
 
 //@formatter:on
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
 /**
  * A class which contains NBT-related utility methods.
  * 
@@ -168,6 +173,40 @@ public final class NBTUtils {
 			}
 	}
 	
+	/**
+	 * <p>
+	 * Creates a path filter for {@link NBTInputStream#readTag(Predicate)}
+	 * which keeps the given paths with all of their children, along with the
+	 * compounds enclosing them.
+	 * </p>
+	 * 
+	 * <p>
+	 * For example, <code>pathFilter("Level/Sections", "Level/Biomes")</code>
+	 * decodes the sections and biomes of a chunk and skips everything else.
+	 * </p>
+	 * 
+	 * @param paths
+	 *            The paths to keep, with names separated by <code>/</code>.
+	 * @return The filter.
+	 */
+	public static Predicate<String> pathFilter(final String... paths) {
+	
+		final Set<String> kept = new HashSet<String>(Arrays.asList(paths));
+		final Set<String> parents = new HashSet<String>();
+		for (final String path : paths) {
+			for (int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i + 1)) {
+				parents.add(path.substring(0, i));
+			}
+		}
+		return path -> {
+			if (parents.contains(path) || kept.contains(path)) { return true; }
+			for (int i = path.lastIndexOf('/'); i >= 0; i = path.lastIndexOf('/', i - 1)) {
+				if (kept.contains(path.substring(0, i))) { return true; }
+			}
+			return false;
+		};
+	}
+	
 	/**
 	 * Default private constructor.
 	 */
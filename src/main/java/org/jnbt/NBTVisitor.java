@@ -0,0 +1,225 @@
+package org.jnbt;
+
+//@formatter:off
+
+/*
+ * JNBT License
+ * 
+ * Copyright (c) 2010 Graham Edgecombe
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *       
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *       
+ *     * Neither the name of the JNBT team nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+//@formatter:on
+
+/**
+ * <p>
+ * Receives the events of an NBT stream read by
+ * {@link NBTInputStream#accept(NBTVisitor)}.
+ * </p>
+ * 
+ * <p>
+ * Unlike {@link NBTInputStream#readTag()}, no <code>Tag</code> objects are
+ * created: primitives are passed as primitives and compounds and lists are
+ * reported as start and end events around their children. Returning
+ * <code>false</code> from {@link #visitTag(int, String)} skips a tag without
+ * decoding it, so a visitor interested in a handful of fields allocates
+ * almost nothing. Children of a list are reported with an empty name.
+ * </p>
+ * 
+ * <p>
+ * All methods do nothing by default, so implementations only override the
+ * events they care about.
+ * </p>
+ * 
+ * @author Jeff Chen
+ * 
+ */
+public interface NBTVisitor {
+	
+	/**
+	 * Called before the payload of every tag is read.
+	 * 
+	 * @param type
+	 *            The type of the tag.
+	 * @param name
+	 *            The name of the tag.
+	 * @return Whether the payload should be reported; <code>false</code> skips
+	 *         it, including all of its children.
+	 */
+	default boolean visitTag(final int type, final String name) {
+	
+		return true;
+	}
+	
+	/**
+	 * Called when a <code>TAG_Compound</code> starts.
+	 * 
+	 * @param name
+	 *            The name.
+	 */
+	default void startCompound(final String name) {
+	
+	}
+	
+	/**
+	 * Called after the last child of a <code>TAG_Compound</code>.
+	 */
+	default void endCompound() {
+	
+	}
+	
+	/**
+	 * Called when a <code>TAG_List</code> starts.
+	 * 
+	 * @param name
+	 *            The name.
+	 * @param childType
+	 *            The type of the items in the list.
+	 * @param length
+	 *            The number of items in the list.
+	 */
+	default void startList(final String name, final int childType, final int length) {
+	
+	}
+	
+	/**
+	 * Called after the last item of a <code>TAG_List</code>.
+	 */
+	default void endList() {
+	
+	}
+	
+	/**
+	 * Called for a <code>TAG_Byte</code>.
+	 * 
+	 * @param name
+	 *            The name.
+	 * @param value
+	 *            The value.
+	 */
+	default void byteValue(final String name, final byte value) {
+	
+	}
+	
+	/**
+	 * Called for a <code>TAG_Short</code>.
+	 * 
+	 * @param name
+	 *            The name.
+	 * @param value
+	 *            The value.
+	 */
+	default void shortValue(final String name, final short value) {
+	
+	}
+	
+	/**
+	 * Called for a <code>TAG_Int</code>.
+	 * 
+	 * @param name
+	 *            The name.
+	 * @param value
+	 *            The value.
+	 */
+	default void intValue(final String name, final int value) {
+	
+	}
+	
+	/**
+	 * Called for a <code>TAG_Long</code>.
+	 * 
+	 * @param name
+	 *            The name.
+	 * @param value
+	 *            The value.
+	 */
+	default void longValue(final String name, final long value) {
+	
+	}
+	
+	/**
+	 * Called for a <code>TAG_Float</code>.
+	 * 
+	 * @param name
+	 *            The name.
+	 * @param value
+	 *            The value.
+	 */
+	default void floatValue(final String name, final float value) {
+	
+	}
+	
+	/**
+	 * Called for a <code>TAG_Double</code>.
+	 * 
+	 * @param name
+	 *            The name.
+	 * @param value
+	 *            The value.
+	 */
+	default void doubleValue(final String name, final double value) {
+	
+	}
+	
+	/**
+	 * Called for a <code>TAG_String</code>.
+	 * 
+	 * @param name
+	 *            The name.
+	 * @param value
+	 *            The value.
+	 */
+	default void stringValue(final String name, final String value) {
+	
+	}
+	
+	/**
+	 * Called for a <code>TAG_Byte_Array</code>.
+	 * 
+	 * @param name
+	 *            The name.
+	 * @param value
+	 *            The value.
+	 */
+	default void byteArray(final String name, final byte[] value) {
+	
+	}
+	
+	/**
+	 * Called for a <code>TAG_Int_Array</code>.
+	 * 
+	 * @param name
+	 *            The name.
+	 * @param value
+	 *            The value.
+	 */
+	default void intArray(final String name, final int[] value) {
+	
+	}
+}
@@ -70,6 +70,12 @@ public final class ShortTag extends Tag {
 		return value;
 	}
 	
+	@Override
+	public int getTypeCode() {
+	
+		return NBTConstants.TYPE_SHORT;
+	}
+	
 	@Override
 	public String toString() {
 	
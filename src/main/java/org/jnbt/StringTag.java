@@ -70,6 +70,12 @@ public final class StringTag extends Tag {
 		return value;
 	}
 	
+	@Override
+	public int getTypeCode() {
+	
+		return NBTConstants.TYPE_STRING;
+	}
+	
 	@Override
 	public String toString() {
 	
@@ -78,6 +78,15 @@ public abstract class Tag {
 	 */
 	public abstract Object getValue();
 	
+	/**
+	 * Gets the type code of this tag, one of the <code>TYPE_</code>
+	 * constants in {@link NBTConstants}. Unlike
+	 * {@link NBTUtils#getTypeCode(Class)}, this does not compare classes.
+	 * 
+	 * @return The type code.
+	 */
+	public abstract int getTypeCode();
+	
 	/*
 	 * (non-Javadoc)
 	 * @see java.lang.Object#hashCode()